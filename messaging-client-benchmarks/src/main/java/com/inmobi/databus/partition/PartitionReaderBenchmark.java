@@ -0,0 +1,137 @@
+package com.inmobi.databus.partition;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.inmobi.databus.readers.CollectorStreamReader;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.benchmarks.DatabusDataGenerator;
+import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
+import com.inmobi.messaging.consumer.databus.QueueEntry;
+import com.inmobi.messaging.metrics.CollectorReaderStatsExposer;
+
+/**
+ * End to end throughput of a single partition reader over generated
+ * collector files on the local file system, from opening the stream till
+ * the EOF message is queued, and the cost of creating the queue entry with
+ * its checkpoint for every message read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionReaderBenchmark {
+
+  private static final int NUM_FILES = 5;
+  private static final int FILE_MESSAGES = 10000;
+
+  @Param({"100", "1024", "10240" })
+  private int messageSize;
+
+  private final PartitionId partitionId = new PartitionId("benchmarkCluster",
+      DatabusDataGenerator.COLLECTOR);
+  private final Configuration conf = new Configuration();
+  private final DiscardingBuffer buffer = new DiscardingBuffer();
+  private DatabusDataGenerator generator;
+  private Date startTime;
+  private PartitionReader openReader;
+  private Message message;
+
+  /**
+   * Counts the entries put by the partition reader and drops them.
+   */
+  private static class DiscardingBuffer extends
+      LinkedBlockingQueue<QueueEntry> {
+    private static final long serialVersionUID = 1L;
+    private long count;
+
+    @Override
+    public void put(QueueEntry entry) {
+      count++;
+    }
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    generator = new DatabusDataGenerator(messageSize, false);
+    List<String> files = generator.writeCollectorFiles(new Date(), NUM_FILES,
+        FILE_MESSAGES);
+    startTime = CollectorStreamReader.getDateFromCollectorFile(files.get(0));
+    openReader = createReader();
+    openReader.init();
+    openReader.getReader().openStream();
+    message = openReader.getReader().readLine();
+  }
+
+  private PartitionReader createReader() throws IOException {
+    CollectorReaderStatsExposer metrics = new CollectorReaderStatsExposer(
+        DatabusDataGenerator.STREAM, "c1", partitionId.toString(), 1,
+        generator.getFileSystem().getUri().toString());
+    return new PartitionReader(partitionId, null, conf,
+        generator.getFileSystem(), generator.getCollectorDir(),
+        generator.getStreamsLocalDir(), buffer, DatabusDataGenerator.STREAM,
+        startTime, 1000, 1000, metrics, true, null);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    openReader.close();
+    generator.cleanup();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_FILES * FILE_MESSAGES)
+  public long execute() throws Exception {
+    PartitionReader reader = createReader();
+    reader.init();
+    reader.execute();
+    return buffer.count;
+  }
+
+  @Benchmark
+  public QueueEntry createQueueEntry() {
+    MessageCheckpoint checkpoint = openReader.getReader()
+        .getMessageCheckpoint();
+    return new QueueEntry(message, partitionId, checkpoint);
+  }
+}
@@ -0,0 +1,111 @@
+package com.inmobi.databus.readers;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.messaging.benchmarks.DatabusDataGenerator;
+import com.inmobi.messaging.metrics.CollectorReaderStatsExposer;
+
+/**
+ * Cost per message of {@link CollectorStreamReader#readRawLine()}, which
+ * reads a line from a collector file and decodes it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadRawLineBenchmark {
+
+  private static final int FILE_MESSAGES = 10000;
+
+  @Param({"100", "1024", "10240" })
+  private int messageSize;
+
+  @Param({"false", "true" })
+  private boolean audit;
+
+  private DatabusDataGenerator generator;
+  private CollectorStreamReader collectorReader;
+  private Path file;
+
+  @Setup
+  public void setup() throws IOException {
+    generator = new DatabusDataGenerator(messageSize, audit);
+    List<String> files = generator.writeCollectorFiles(new Date(), 1,
+        FILE_MESSAGES);
+    file = new Path(generator.getCollectorDir(), files.get(0));
+    PartitionId partitionId = new PartitionId("benchmarkCluster",
+        DatabusDataGenerator.COLLECTOR);
+    CollectorReaderStatsExposer metrics = new CollectorReaderStatsExposer(
+        DatabusDataGenerator.STREAM, "c1", partitionId.toString(), 1,
+        generator.getFileSystem().getUri().toString());
+    collectorReader = new CollectorStreamReader(partitionId,
+        generator.getFileSystem(), DatabusDataGenerator.STREAM,
+        generator.getCollectorDir(), 1000, 1000, metrics, new Configuration(),
+        true, null, false);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    generator.cleanup();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILE_MESSAGES)
+  public void readRawLine(Blackhole bh) throws IOException {
+    collectorReader.reader = new BufferedReader(new InputStreamReader(
+        generator.getFileSystem().open(file)));
+    try {
+      for (int i = 0; i < FILE_MESSAGES; i++) {
+        bh.consume(collectorReader.readRawLine());
+      }
+    } finally {
+      collectorReader.reader.close();
+      collectorReader.reader = null;
+    }
+  }
+}
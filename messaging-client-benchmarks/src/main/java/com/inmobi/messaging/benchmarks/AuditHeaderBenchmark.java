@@ -0,0 +1,69 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.util.AuditUtil;
+
+/**
+ * Cost of attaching the audit headers to a message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditHeaderBenchmark {
+
+  @Param({"100", "1024", "10240" })
+  private int messageSize;
+
+  private byte[] payload;
+  private Long timestamp;
+
+  @Setup
+  public void setup() {
+    payload = BenchmarkUtil.payload(messageSize);
+    timestamp = System.currentTimeMillis();
+  }
+
+  @Benchmark
+  public Message attachHeaders() {
+    Message m = new Message(payload);
+    AuditUtil.attachHeaders(m, timestamp);
+    return m;
+  }
+}
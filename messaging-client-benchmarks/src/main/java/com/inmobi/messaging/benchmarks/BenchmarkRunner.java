@@ -0,0 +1,69 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for each thread count, with the GC profiler
+ * enabled so that the allocation rate is reported along with the
+ * throughput.
+ *
+ * Takes the regular JMH command line options, e.g. a regex of benchmarks to
+ * run. The thread counts are taken from the bench.threads system property
+ * (default 1,2,4,8) and the JSON results are written to bench.result.dir
+ * (default target/jmh) as result-t[threads].json, so that runs of different
+ * changes can be compared.
+ */
+public class BenchmarkRunner {
+
+  public static final String THREADS_KEY = "bench.threads";
+  public static final String DEFAULT_THREADS = "1,2,4,8";
+  public static final String RESULT_DIR_KEY = "bench.result.dir";
+  public static final String DEFAULT_RESULT_DIR = "target/jmh";
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmdOptions = new CommandLineOptions(args);
+    File resultDir = new File(System.getProperty(RESULT_DIR_KEY,
+        DEFAULT_RESULT_DIR));
+    resultDir.mkdirs();
+    for (String threads : System.getProperty(THREADS_KEY, DEFAULT_THREADS)
+        .split(",")) {
+      int numThreads = Integer.parseInt(threads.trim());
+      Options options = new OptionsBuilder()
+          .parent(cmdOptions)
+          .threads(numThreads)
+          .addProfiler(GCProfiler.class)
+          .resultFormat(ResultFormatType.JSON)
+          .result(new File(resultDir, "result-t" + numThreads + ".json")
+              .getPath())
+          .build();
+      new Runner(options).run();
+    }
+  }
+}
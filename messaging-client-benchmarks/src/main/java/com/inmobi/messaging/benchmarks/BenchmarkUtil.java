@@ -0,0 +1,92 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+public final class BenchmarkUtil {
+
+  public static final String TOPIC = "benchmark";
+
+  private BenchmarkUtil() {
+  }
+
+  /**
+   * @return printable random bytes, same for the same size across runs
+   */
+  public static byte[] payload(int size) {
+    Random random = new Random(size);
+    byte[] payload = new byte[size];
+    for (int i = 0; i < size; i++) {
+      payload[i] = (byte) ('a' + random.nextInt(26));
+    }
+    return payload;
+  }
+
+  /**
+   * Formats the map as a JSON object. Values are numbers, booleans, strings
+   * or nested maps.
+   */
+  public static String toJson(Map<String, ?> map) {
+    StringBuilder json = new StringBuilder();
+    appendJson(json, map, "");
+    return json.toString();
+  }
+
+  private static void appendJson(StringBuilder json, Object value,
+      String indent) {
+    if (value instanceof Map) {
+      json.append("{");
+      Iterator<? extends Map.Entry<?, ?>> it =
+          ((Map<?, ?>) value).entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<?, ?> entry = it.next();
+        json.append("\n").append(indent).append("  ");
+        appendJson(json, entry.getKey().toString(), indent + "  ");
+        json.append(": ");
+        appendJson(json, entry.getValue(), indent + "  ");
+        if (it.hasNext()) {
+          json.append(",");
+        }
+      }
+      json.append("\n").append(indent).append("}");
+    } else if (value instanceof Number || value instanceof Boolean) {
+      json.append(value);
+    } else {
+      json.append('"');
+      for (char c : String.valueOf(value).toCharArray()) {
+        if (c == '"' || c == '\\') {
+          json.append('\\').append(c);
+        } else if (c < 0x20) {
+          json.append(String.format("\\u%04x", (int) c));
+        } else {
+          json.append(c);
+        }
+      }
+      json.append('"');
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+
+import com.inmobi.databus.partition.PartitionReader;
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.databus.AbstractMessagingDatabusConsumer;
+import com.inmobi.messaging.consumer.databus.DatabusConsumer;
+import com.inmobi.messaging.consumer.databus.DatabusConsumerConfig;
+import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
+import com.inmobi.messaging.consumer.hadoop.HadoopConsumer;
+import com.inmobi.messaging.consumer.hadoop.HadoopConsumerConfig;
+import com.inmobi.messaging.metrics.PartitionReaderStatsExposer;
+
+/**
+ * Measures how fast {@link DatabusConsumer} or {@link HadoopConsumer} reads
+ * a dataset written by {@link SyntheticDatasetGenerator}.
+ *
+ * bench.consumers consumers of a group, 1 by default, read the topic from
+ * the start of the dataset in parallel, till none of them gets a message
+ * for bench.idle.seconds. The consumer settings, e.g. the stream type and
+ * the buffer size, are taken from the conf file. The root dirs default to
+ * the ones of the generated dataset.
+ *
+ * Reports messages and MB per second, time to first message and the file
+ * system operations of the partition readers, per consumer and in total.
+ *
+ * Usage: ConsumerThroughputBenchmark [conf file] [result file]
+ */
+public class ConsumerThroughputBenchmark {
+
+  private static final Log LOG = LogFactory.getLog(
+      ConsumerThroughputBenchmark.class);
+
+  public static final String CONSUMER_KEY = "bench.consumer";
+  public static final String DEFAULT_CONSUMER = "databus";
+  public static final String CONSUMERS_KEY = "bench.consumers";
+  public static final int DEFAULT_CONSUMERS = 1;
+  public static final String IDLE_SECONDS_KEY = "bench.idle.seconds";
+  public static final int DEFAULT_IDLE_SECONDS = 10;
+  public static final String GENERATE_KEY = "bench.generate";
+  public static final boolean DEFAULT_GENERATE = false;
+
+  private final ClientConfig config;
+  private final int idleSeconds;
+
+  public ConsumerThroughputBenchmark(ClientConfig config) {
+    this.config = config;
+    this.idleSeconds = config.getInteger(IDLE_SECONDS_KEY,
+        DEFAULT_IDLE_SECONDS);
+  }
+
+  public Map<String, Object> run() throws Exception {
+    Map<String, Object> result = new LinkedHashMap<String, Object>();
+    SyntheticDatasetGenerator generator = new SyntheticDatasetGenerator(
+        config);
+    if (config.getBoolean(GENERATE_KEY, DEFAULT_GENERATE)) {
+      result.put("dataset", generator.generate());
+    }
+    String topic = config.getString(SyntheticDatasetGenerator.TOPIC_KEY,
+        SyntheticDatasetGenerator.DEFAULT_TOPIC);
+    String rootDir = config.getString(SyntheticDatasetGenerator.ROOT_DIR_KEY);
+    boolean hadoop = "hadoop".equals(config.getString(CONSUMER_KEY,
+        DEFAULT_CONSUMER));
+    setIfAbsent(DatabusConsumerConfig.databusRootDirsConfig, rootDir);
+    setIfAbsent(HadoopConsumerConfig.rootDirsConfig,
+        SyntheticDatasetGenerator.getHadoopStreamDir(new Path(rootDir), topic)
+        .toString());
+    setIfAbsent(MessagingConsumerConfig.checkpointDirConfig,
+        Files.createTempDirectory("bench-checkpoint").toString());
+    String consumerName = "bench" + System.currentTimeMillis();
+    Date startTime = generator.getStartTime();
+
+    int numConsumers = config.getInteger(CONSUMERS_KEY, DEFAULT_CONSUMERS);
+    List<ConsumerThread> consumers = new ArrayList<ConsumerThread>();
+    for (int i = 1; i <= numConsumers; i++) {
+      // the config is read on init
+      config.set(MessagingConsumerConfig.consumerIdInGroupConfig,
+          i + "/" + numConsumers);
+      AbstractMessagingDatabusConsumer consumer = hadoop
+          ? new HadoopConsumer() : new DatabusConsumer();
+      consumers.add(new ConsumerThread(consumer, topic, consumerName,
+          startTime));
+    }
+    long start = System.nanoTime();
+    for (ConsumerThread consumer : consumers) {
+      consumer.start();
+    }
+    long messages = 0;
+    long bytes = 0;
+    long lastMessage = start;
+    Map<String, Long> fsOps = new LinkedHashMap<String, Long>();
+    List<Object> perConsumer = new ArrayList<Object>();
+    for (ConsumerThread consumer : consumers) {
+      consumer.join();
+      messages += consumer.messages;
+      bytes += consumer.bytes;
+      lastMessage = Math.max(lastMessage, consumer.lastMessageNanos);
+      Map<String, Object> stats = consumer.report();
+      for (Map.Entry<String, Long> op : consumer.fsOps.entrySet()) {
+        Long total = fsOps.get(op.getKey());
+        fsOps.put(op.getKey(), (total == null ? 0 : total) + op.getValue());
+      }
+      perConsumer.add(stats);
+    }
+    // the consumers stop only after being idle for a while
+    double seconds = (lastMessage - start) / 1e9;
+
+    Map<String, Object> settings = new LinkedHashMap<String, Object>();
+    settings.put("consumer", hadoop ? "hadoop" : "databus");
+    settings.put("consumers", numConsumers);
+    settings.put("streamType", config.getString(
+        DatabusConsumerConfig.databusStreamType,
+        DatabusConsumerConfig.DEFAULT_STREAM_TYPE));
+    settings.put("bufferSize", config.getInteger(
+        MessagingConsumerConfig.queueSizeConfig,
+        MessagingConsumerConfig.DEFAULT_QUEUE_SIZE));
+    settings.put("startTime", startTime.getTime());
+    result.put("settings", settings);
+    result.put("messages", messages);
+    result.put("bytes", bytes);
+    result.put("seconds", seconds);
+    result.put("messagesPerSec", seconds > 0 ? messages / seconds : 0);
+    result.put("MBPerSec", seconds > 0 ? bytes / seconds / (1024 * 1024) : 0);
+    result.put("fsOps", fsOps);
+    Map<String, Object> consumerStats = new LinkedHashMap<String, Object>();
+    for (int i = 0; i < perConsumer.size(); i++) {
+      consumerStats.put(String.valueOf(i + 1), perConsumer.get(i));
+    }
+    result.put("perConsumer", consumerStats);
+    return result;
+  }
+
+  private void setIfAbsent(String key, String value) {
+    if (config.getString(key) == null && value != null) {
+      config.set(key, value);
+    }
+  }
+
+  private class ConsumerThread extends Thread {
+    private final AbstractMessagingDatabusConsumer consumer;
+    private final long initNanos;
+    private long firstMessageNanos = -1;
+    private long lastMessageNanos = -1;
+    private long messages = 0;
+    private long bytes = 0;
+    private final Map<String, Long> fsOps = new LinkedHashMap<String, Long>();
+
+    ConsumerThread(AbstractMessagingDatabusConsumer consumer, String topic,
+        String consumerName, Date startTime) throws Exception {
+      super("bench-consumer-" + config.getString(
+          MessagingConsumerConfig.consumerIdInGroupConfig));
+      this.consumer = consumer;
+      this.initNanos = System.nanoTime();
+      consumer.init(topic, consumerName, startTime, config);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Message msg = consumer.next(idleSeconds, TimeUnit.SECONDS);
+          if (msg == null) {
+            break;
+          }
+          lastMessageNanos = System.nanoTime();
+          if (firstMessageNanos == -1) {
+            firstMessageNanos = lastMessageNanos;
+          }
+          messages++;
+          bytes += msg.getSize();
+        }
+      } catch (Exception e) {
+        LOG.warn("Consumer " + getName() + " failed", e);
+      } finally {
+        collectFsOps();
+        consumer.close();
+      }
+    }
+
+    private void collectFsOps() {
+      long list = 0;
+      long open = 0;
+      long fileStatus = 0;
+      long exists = 0;
+      long recordReaders = 0;
+      for (PartitionReader reader : consumer.getPartitionReaders().values()) {
+        PartitionReaderStatsExposer stats = reader.getStatsExposer();
+        list += stats.getListOps();
+        open += stats.getOpenOps();
+        fileStatus += stats.getFileStatusOps();
+        exists += stats.getExistsOps();
+        recordReaders += stats.getNumberRecordReaders();
+      }
+      fsOps.put("list", list);
+      fsOps.put("open", open);
+      fsOps.put("fileStatus", fileStatus);
+      fsOps.put("exists", exists);
+      fsOps.put("recordReaders", recordReaders);
+    }
+
+    Map<String, Object> report() {
+      Map<String, Object> report = new LinkedHashMap<String, Object>();
+      report.put("messages", messages);
+      report.put("bytes", bytes);
+      report.put("timeToFirstMessageMillis", firstMessageNanos == -1 ? -1
+          : TimeUnit.NANOSECONDS.toMillis(firstMessageNanos - initNanos));
+      double seconds = (lastMessageNanos - firstMessageNanos) / 1e9;
+      report.put("messagesPerSec", seconds > 0 ? messages / seconds : 0);
+      report.put("fsOps", fsOps);
+      return report;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    ClientConfig config = args.length > 0 ? ClientConfig.load(args[0])
+        : new ClientConfig();
+    PublisherLoadHarness.writeResult(
+        new ConsumerThroughputBenchmark(config).run(),
+        args.length > 1 ? args[1] : null);
+    System.exit(0);
+  }
+}
@@ -0,0 +1,134 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.inmobi.databus.readers.CollectorStreamReader;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.databus.StreamType;
+import com.inmobi.messaging.consumer.util.DatabusUtil;
+import com.inmobi.messaging.util.AuditUtil;
+
+/**
+ * Generates databus data on the local file system for the consumer
+ * benchmarks.
+ *
+ * Every file has the databus line format, one base64 encoded message per
+ * line. The messages are of the configured size, optionally prefixed with
+ * audit headers, and are the same across runs for the same size.
+ */
+public class DatabusDataGenerator {
+
+  public static final String STREAM = "benchmark";
+  public static final String COLLECTOR = "collector1";
+
+  private final FileSystem fs;
+  private final Path rootDir;
+  private final byte[] line;
+
+  public DatabusDataGenerator(int messageSize, boolean audit)
+      throws IOException {
+    this.fs = FileSystem.getLocal(new Configuration());
+    this.rootDir = new Path(Files.createTempDirectory("databus-bench").toUri());
+    this.line = encodedLine(messageSize, audit);
+  }
+
+  /**
+   * @return a message of the given size encoded as a databus line, without
+   * the line feed
+   */
+  public static byte[] encodedLine(int messageSize, boolean audit) {
+    Message msg = new Message(BenchmarkUtil.payload(messageSize));
+    if (audit) {
+      AuditUtil.attachHeaders(msg, System.currentTimeMillis());
+    }
+    return Base64.encodeBase64(msg.getBytes());
+  }
+
+  public FileSystem getFileSystem() {
+    return fs;
+  }
+
+  public Path getRootDir() {
+    return rootDir;
+  }
+
+  public Path getCollectorDir() {
+    return DatabusUtil.getCollectorStreamDir(rootDir, STREAM, COLLECTOR);
+  }
+
+  public Path getStreamsLocalDir() {
+    return DatabusUtil.getStreamDir(StreamType.LOCAL, rootDir, STREAM);
+  }
+
+  /**
+   * Writes a file with the given number of lines.
+   */
+  public Path writeFile(Path file, int numMessages) throws IOException {
+    FSDataOutputStream out = fs.create(file);
+    try {
+      for (int i = 0; i < numMessages; i++) {
+        out.write(line);
+        out.write('\n');
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  /**
+   * Writes collector files a minute apart, starting at startTime, in the
+   * collector directory.
+   *
+   * @return the names of the files written, in stream order
+   */
+  public List<String> writeCollectorFiles(Date startTime, int numFiles,
+      int messagesPerFile) throws IOException {
+    Calendar cal = Calendar.getInstance();
+    cal.setTime(startTime);
+    List<String> files = new ArrayList<String>(numFiles);
+    for (int i = 0; i < numFiles; i++) {
+      String fileName = CollectorStreamReader.getCollectorFileName(STREAM,
+          cal.getTime());
+      writeFile(new Path(getCollectorDir(), fileName), messagesPerFile);
+      files.add(fileName);
+      cal.add(Calendar.MINUTE, 1);
+    }
+    return files;
+  }
+
+  public void cleanup() throws IOException {
+    fs.delete(rootDir, true);
+  }
+}
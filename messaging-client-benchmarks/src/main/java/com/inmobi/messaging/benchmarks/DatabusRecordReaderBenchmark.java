@@ -0,0 +1,100 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.databus.mapred.DatabusRecordReader;
+
+/**
+ * Cost per message of reading a generated stream file with
+ * {@link DatabusRecordReader}, as the cluster readers do for the local and
+ * merged streams.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabusRecordReaderBenchmark {
+
+  private static final int FILE_MESSAGES = 10000;
+
+  @Param({"100", "1024", "10240" })
+  private int messageSize;
+
+  private DatabusDataGenerator generator;
+  private JobConf job;
+  private FileSplit split;
+
+  @Setup
+  public void setup() throws IOException {
+    generator = new DatabusDataGenerator(messageSize, false);
+    Path file = generator.writeFile(new Path(generator.getRootDir(),
+        "streamfile"), FILE_MESSAGES);
+    job = new JobConf();
+    split = new FileSplit(file, 0,
+        generator.getFileSystem().getFileStatus(file).getLen(),
+        (String[]) null);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    generator.cleanup();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILE_MESSAGES)
+  public void next(Blackhole bh) throws IOException {
+    DatabusRecordReader reader = new DatabusRecordReader(job, split);
+    try {
+      LongWritable key = reader.createKey();
+      Message value = reader.createValue();
+      while (reader.next(key, value)) {
+        bh.consume(value);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Tracks the delivery of messages published by {@link LoadGenerator}.
+ *
+ * Messages are identified by their sequence number to count the unique and
+ * duplicate deliveries. The latency of a message is taken from the time it
+ * was scheduled to be published at, not from the time it actually got
+ * published, so that stalls of the publisher are not hidden.
+ */
+public class DeliveryTracker {
+
+  // sequence number and scheduled publish time
+  static final int HEADER_SIZE = 16;
+
+  private final Histogram latencyMicros = new ConcurrentHistogram(3);
+  private final BitSet delivered = new BitSet();
+  private long duplicates = 0;
+
+  static void writeHeader(ByteBuffer data, long seq, long scheduledNanos) {
+    data.putLong(data.position(), seq);
+    data.putLong(data.position() + 8, scheduledNanos);
+  }
+
+  /**
+   * Records the delivery of the message now.
+   */
+  public void delivered(ByteBuffer data) {
+    long now = System.nanoTime();
+    long seq = data.getLong(data.position());
+    long scheduled = data.getLong(data.position() + 8);
+    latencyMicros.recordValue(
+        Math.max(0, TimeUnit.NANOSECONDS.toMicros(now - scheduled)));
+    synchronized (delivered) {
+      if (delivered.get((int) seq)) {
+        duplicates++;
+      } else {
+        delivered.set((int) seq);
+      }
+    }
+  }
+
+  public long getUniqueCount() {
+    synchronized (delivered) {
+      return delivered.cardinality();
+    }
+  }
+
+  /**
+   * @return the delivery counts and the latency percentiles in micros
+   */
+  public Map<String, Object> report(long sent) {
+    long unique;
+    long dups;
+    synchronized (delivered) {
+      unique = delivered.cardinality();
+      dups = duplicates;
+    }
+    Map<String, Object> latency = new LinkedHashMap<String, Object>();
+    latency.put("count", latencyMicros.getTotalCount());
+    latency.put("mean", latencyMicros.getTotalCount() == 0 ? 0
+        : latencyMicros.getMean());
+    latency.put("p50", latencyMicros.getValueAtPercentile(50));
+    latency.put("p90", latencyMicros.getValueAtPercentile(90));
+    latency.put("p99", latencyMicros.getValueAtPercentile(99));
+    latency.put("p99.9", latencyMicros.getValueAtPercentile(99.9));
+    latency.put("p99.99", latencyMicros.getValueAtPercentile(99.99));
+    latency.put("max", latencyMicros.getMaxValue());
+
+    Map<String, Object> report = new LinkedHashMap<String, Object>();
+    report.put("sent", sent);
+    report.put("received", unique);
+    report.put("duplicates", dups);
+    report.put("lost", sent - unique);
+    report.put("latencyMicros", latency);
+    return report;
+  }
+}
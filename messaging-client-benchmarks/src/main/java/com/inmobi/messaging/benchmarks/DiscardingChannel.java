@@ -0,0 +1,84 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+
+/**
+ * Stand-in for a connected netty channel which discards all the writes, so
+ * that benchmarks measure the cost of building the frames and not the cost
+ * of the network.
+ *
+ * The channel is a dynamic proxy so that it does not depend on the exact
+ * set of methods of the netty version in use. It is always open, connected
+ * and writable, and all its operations complete immediately.
+ */
+public final class DiscardingChannel implements InvocationHandler {
+
+  // away from the ids netty assigns to real channels
+  private static final Integer ID = Integer.MIN_VALUE;
+
+  private final Channel channel;
+  private final ChannelFuture succeeded;
+
+  public DiscardingChannel() {
+    channel = (Channel) Proxy.newProxyInstance(
+        Channel.class.getClassLoader(), new Class<?>[] {Channel.class }, this);
+    succeeded = Channels.succeededFuture(channel);
+  }
+
+  public Channel getChannel() {
+    return channel;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) {
+    String name = method.getName();
+    Class<?> returnType = method.getReturnType();
+    if (returnType == ChannelFuture.class) {
+      // write, close, bind, connect etc.
+      return succeeded;
+    } else if (returnType == boolean.class) {
+      if (name.equals("equals")) {
+        return proxy == args[0];
+      }
+      // isOpen, isBound, isConnected, isReadable, isWritable
+      return true;
+    } else if (name.equals("getId")) {
+      return ID;
+    } else if (name.equals("hashCode")) {
+      return ID;
+    } else if (name.equals("toString")) {
+      return "DiscardingChannel";
+    } else if (name.equals("compareTo")) {
+      return ((Channel) args[0]).getId().equals(ID) ? 0 : -1;
+    } else if (returnType == int.class) {
+      return Channel.OP_READ_WRITE;
+    }
+    return null;
+  }
+}
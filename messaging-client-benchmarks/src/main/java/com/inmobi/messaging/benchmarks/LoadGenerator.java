@@ -0,0 +1,155 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.publisher.AbstractMessagePublisher;
+
+/**
+ * Publishes messages at a target rate from a number of sender threads.
+ *
+ * Every sender publishes on a fixed schedule. Each message starts with its
+ * sequence number and the {@link System#nanoTime()} it was scheduled to be
+ * published at, see {@link DeliveryTracker}. A sender which falls behind
+ * publishes right away till it catches up, it does not slow the schedule
+ * down.
+ */
+public class LoadGenerator {
+
+  public static final String RATE_KEY = "load.rate";
+  public static final int DEFAULT_RATE = 10000;
+  public static final String THREADS_KEY = "load.threads";
+  public static final int DEFAULT_THREADS = 4;
+  public static final String TOPICS_KEY = "load.topics";
+  public static final int DEFAULT_TOPICS = 1;
+  public static final String MESSAGE_SIZE_KEY = "load.message.size";
+  public static final int DEFAULT_MESSAGE_SIZE = 512;
+  public static final String DURATION_SECONDS_KEY = "load.duration.seconds";
+  public static final int DEFAULT_DURATION_SECONDS = 30;
+
+  private final int rate;
+  private final int numThreads;
+  private final String[] topics;
+  private final int messageSize;
+  private final int durationSeconds;
+
+  public LoadGenerator(ClientConfig config) {
+    this.rate = config.getInteger(RATE_KEY, DEFAULT_RATE);
+    this.numThreads = config.getInteger(THREADS_KEY, DEFAULT_THREADS);
+    this.messageSize = Math.max(DeliveryTracker.HEADER_SIZE,
+        config.getInteger(MESSAGE_SIZE_KEY, DEFAULT_MESSAGE_SIZE));
+    this.durationSeconds = config.getInteger(DURATION_SECONDS_KEY,
+        DEFAULT_DURATION_SECONDS);
+    this.topics = new String[config.getInteger(TOPICS_KEY, DEFAULT_TOPICS)];
+    for (int i = 0; i < topics.length; i++) {
+      topics[i] = BenchmarkUtil.TOPIC + i;
+    }
+  }
+
+  public String[] getTopics() {
+    return topics;
+  }
+
+  public int getMessageSize() {
+    return messageSize;
+  }
+
+  /**
+   * Publishes for the configured duration.
+   *
+   * @return the number of messages published
+   */
+  public long run(AbstractMessagePublisher publisher)
+      throws InterruptedException {
+    long intervalNanos = TimeUnit.SECONDS.toNanos(1) * numThreads / rate;
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+    Sender[] senders = new Sender[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      senders[i] = new Sender(publisher, i, start + i * intervalNanos
+          / numThreads, end, intervalNanos);
+      senders[i].start();
+    }
+    long sent = 0;
+    for (Sender sender : senders) {
+      sender.join();
+      sent += sender.sent;
+    }
+    return sent;
+  }
+
+  public Map<String, Object> getSettings() {
+    Map<String, Object> settings = new LinkedHashMap<String, Object>();
+    settings.put("rate", rate);
+    settings.put("threads", numThreads);
+    settings.put("topics", topics.length);
+    settings.put("messageSize", messageSize);
+    settings.put("durationSeconds", durationSeconds);
+    return settings;
+  }
+
+  private class Sender extends Thread {
+    private final AbstractMessagePublisher publisher;
+    private final int index;
+    private final long start;
+    private final long end;
+    private final long intervalNanos;
+    private long sent = 0;
+
+    Sender(AbstractMessagePublisher publisher, int index, long start,
+        long end, long intervalNanos) {
+      super("load-sender-" + index);
+      this.publisher = publisher;
+      this.index = index;
+      this.start = start;
+      this.end = end;
+      this.intervalNanos = intervalNanos;
+    }
+
+    @Override
+    public void run() {
+      byte[] template = BenchmarkUtil.payload(messageSize);
+      for (long i = 0;; i++) {
+        long scheduled = start + i * intervalNanos;
+        if (scheduled >= end) {
+          break;
+        }
+        long now;
+        while ((now = System.nanoTime()) < scheduled) {
+          LockSupport.parkNanos(scheduled - now);
+        }
+        long seq = i * numThreads + index;
+        ByteBuffer data = ByteBuffer.wrap(template.clone());
+        DeliveryTracker.writeHeader(data, seq, scheduled);
+        publisher.publish(topics[(int) (seq % topics.length)],
+            new Message(data));
+        sent++;
+      }
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import com.inmobi.databus.readers.CollectorStreamReader;
+import com.inmobi.databus.readers.DatabusStreamReader;
+import com.inmobi.databus.readers.LocalStreamCollectorReader;
+import com.inmobi.messaging.consumer.databus.StreamType;
+import com.inmobi.messaging.consumer.util.DatabusUtil;
+
+/**
+ * Emulates a databus collector and its local and merged streams on the
+ * local file system, as a {@link ScribeSink.Listener}.
+ *
+ * Entries are written as base64 lines into the collector file of the
+ * current minute, data/[topic]/[collector]/[topic]-yyyy-MM-dd-HH-mm_00000,
+ * with the name of the file being written in [topic]_current. The files
+ * are flushed every flushMillis.
+ *
+ * When the minute changes the file is closed and committed, gzipped, into
+ * the minute directory of the commit time in both streams_local/[topic]
+ * and streams/[topic], as [collector]-[collector file].gz. The collector
+ * file is removed one minute after being committed, so readers of the
+ * collector stream move over to the local stream as with databus. A
+ * minute directory is created for every minute, with or without data, so
+ * that readers of the local and merged streams can tell which minutes are
+ * complete.
+ */
+public class LocalDatabus implements ScribeSink.Listener {
+
+  private static final Log LOG = LogFactory.getLog(LocalDatabus.class);
+
+  public static final String DEFAULT_COLLECTOR = "collector1";
+
+  private final FileSystem fs;
+  private final Path rootDir;
+  private final String collectorName;
+  private final ConcurrentMap<String, StreamWriter> writers =
+      new ConcurrentHashMap<String, StreamWriter>();
+  private final ScheduledExecutorService flusher;
+
+  public LocalDatabus(Path rootDir, String collectorName, long flushMillis)
+      throws IOException {
+    // no checksum files, so that files being written can be read
+    this.fs = FileSystem.getLocal(new Configuration()).getRaw();
+    this.rootDir = rootDir;
+    this.collectorName = collectorName;
+    this.flusher = Executors.newSingleThreadScheduledExecutor();
+    flusher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        for (StreamWriter writer : writers.values()) {
+          try {
+            writer.flush();
+          } catch (IOException e) {
+            LOG.warn("Could not flush stream " + writer.streamName, e);
+          }
+        }
+      }
+    }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public Path getRootDir() {
+    return rootDir;
+  }
+
+  /**
+   * Creates the directories of the stream. Consumers of the collector stream
+   * only pick up the collectors present when they start.
+   */
+  public void createStream(String streamName) throws IOException {
+    getWriter(streamName);
+  }
+
+  @Override
+  public void received(String category, byte[] message) {
+    try {
+      getWriter(category).write(message);
+    } catch (IOException e) {
+      LOG.warn("Could not write message of stream " + category, e);
+    }
+  }
+
+  private StreamWriter getWriter(String streamName) throws IOException {
+    StreamWriter writer = writers.get(streamName);
+    if (writer == null) {
+      writer = new StreamWriter(streamName);
+      StreamWriter existing = writers.putIfAbsent(streamName, writer);
+      if (existing != null) {
+        writer = existing;
+      }
+    }
+    return writer;
+  }
+
+  /**
+   * Commits the files being written and publishes the next minute, so that
+   * readers can read everything received.
+   */
+  public void close() throws IOException {
+    flusher.shutdownNow();
+    for (StreamWriter writer : writers.values()) {
+      writer.close();
+    }
+  }
+
+  private static Date getMinute(long time) {
+    Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(time);
+    cal.set(Calendar.SECOND, 0);
+    cal.set(Calendar.MILLISECOND, 0);
+    return cal.getTime();
+  }
+
+  private static Date nextMinute(Date minute) {
+    return new Date(minute.getTime() + TimeUnit.MINUTES.toMillis(1));
+  }
+
+  private class StreamWriter {
+    private final String streamName;
+    private final Path collectorDir;
+    private final Path localStreamDir;
+    private final Path mergedStreamDir;
+
+    private String currentFileName;
+    private Date currentMinute;
+    private FSDataOutputStream out;
+    private Path pendingDelete;
+    private Date lastPublishedMinute;
+
+    StreamWriter(String streamName) throws IOException {
+      this.streamName = streamName;
+      this.collectorDir = DatabusUtil.getCollectorStreamDir(rootDir,
+          streamName, collectorName);
+      this.localStreamDir = DatabusUtil.getStreamDir(StreamType.LOCAL,
+          rootDir, streamName);
+      this.mergedStreamDir = DatabusUtil.getStreamDir(StreamType.MERGED,
+          rootDir, streamName);
+      fs.mkdirs(collectorDir);
+      publishMinutes(getMinute(System.currentTimeMillis()));
+    }
+
+    synchronized void write(byte[] message) throws IOException {
+      Date minute = getMinute(System.currentTimeMillis());
+      if (out == null || !minute.equals(currentMinute)) {
+        roll(minute);
+        open(minute);
+      }
+      out.write(Base64.encodeBase64(message));
+      out.write('\n');
+    }
+
+    synchronized void flush() throws IOException {
+      Date minute = getMinute(System.currentTimeMillis());
+      if (out != null) {
+        if (minute.equals(currentMinute)) {
+          out.flush();
+        } else {
+          roll(minute);
+        }
+      }
+      publishMinutes(minute);
+    }
+
+    synchronized void close() throws IOException {
+      Date minute = getMinute(System.currentTimeMillis());
+      roll(minute);
+      publishMinutes(nextMinute(minute));
+    }
+
+    private void open(Date minute) throws IOException {
+      currentMinute = minute;
+      currentFileName = CollectorStreamReader.getCollectorFileName(streamName,
+          minute);
+      out = fs.create(new Path(collectorDir, currentFileName));
+      FSDataOutputStream current = fs.create(new Path(collectorDir,
+          streamName + "_current"));
+      try {
+        current.write(currentFileName.getBytes());
+        current.write('\n');
+      } finally {
+        current.close();
+      }
+    }
+
+    /**
+     * Closes the current file, if any, and commits it into the minute
+     * directory of the commit time.
+     */
+    private void roll(Date commitMinute) throws IOException {
+      if (out == null) {
+        return;
+      }
+      out.close();
+      out = null;
+      publishMinutes(commitMinute);
+      Path collectorFile = new Path(collectorDir, currentFileName);
+      String streamFileName = LocalStreamCollectorReader
+          .getDatabusStreamFileName(collectorName, currentFileName);
+      commit(collectorFile, new Path(DatabusStreamReader.getMinuteDirPath(
+          localStreamDir, commitMinute), streamFileName));
+      commit(collectorFile, new Path(DatabusStreamReader.getMinuteDirPath(
+          mergedStreamDir, commitMinute), streamFileName));
+      if (pendingDelete != null) {
+        fs.delete(pendingDelete, false);
+      }
+      pendingDelete = collectorFile;
+    }
+
+    private void commit(Path src, Path target) throws IOException {
+      // readers should never see a partial file
+      Path tmp = new Path(new Path(rootDir, "_tmp"), target.getName());
+      InputStream in = fs.open(src);
+      OutputStream gzip = new GZIPOutputStream(fs.create(tmp));
+      try {
+        IOUtils.copyBytes(in, gzip, 64 * 1024);
+      } finally {
+        in.close();
+        gzip.close();
+      }
+      fs.rename(tmp, target);
+      LOG.debug("Committed " + src + " to " + target);
+    }
+
+    /**
+     * Creates the minute directories of both the streams up to the minute.
+     */
+    private void publishMinutes(Date minute) throws IOException {
+      Date next = lastPublishedMinute == null ? minute
+          : nextMinute(lastPublishedMinute);
+      while (!next.after(minute)) {
+        fs.mkdirs(DatabusStreamReader.getMinuteDirPath(localStreamDir, next));
+        fs.mkdirs(DatabusStreamReader.getMinuteDirPath(mergedStreamDir, next));
+        lastPublishedMinute = next;
+        next = nextMinute(next);
+      }
+    }
+  }
+}
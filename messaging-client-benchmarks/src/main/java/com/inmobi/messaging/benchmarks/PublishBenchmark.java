@@ -0,0 +1,96 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.inmobi.audit.thrift.AuditMessage;
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.publisher.AbstractMessagePublisher;
+import com.inmobi.messaging.publisher.MessagePublisher;
+import com.inmobi.messaging.publisher.MessagePublisherFactory;
+
+/**
+ * Cost of AbstractMessagePublisher.publish, i.e. of the checks, stats and
+ * audit done for every message, with and without audit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark {
+
+  @Param({"100", "1024", "10240" })
+  private int messageSize;
+
+  @Param({"false", "true" })
+  private boolean audit;
+
+  private MessagePublisher publisher;
+  private byte[] payload;
+  private AuditMessage thriftObject;
+
+  @Setup
+  public void setup() throws IOException {
+    ClientConfig config = new ClientConfig();
+    config.set(AbstractMessagePublisher.AUDIT_ENABLED_KEY,
+        Boolean.toString(audit));
+    publisher = MessagePublisherFactory.create(config,
+        DiscardingPublisher.class.getName());
+    payload = BenchmarkUtil.payload(messageSize);
+    thriftObject = new AuditMessage();
+    thriftObject.setTopic(BenchmarkUtil.TOPIC);
+    thriftObject.setHostname(new String(payload));
+  }
+
+  @TearDown
+  public void tearDown() {
+    publisher.close();
+  }
+
+  @Benchmark
+  public void publishMessage() {
+    publisher.publish(BenchmarkUtil.TOPIC, new Message(payload));
+  }
+
+  @Benchmark
+  public void publishThriftObject() throws TException {
+    publisher.publish(BenchmarkUtil.TOPIC, thriftObject);
+  }
+}
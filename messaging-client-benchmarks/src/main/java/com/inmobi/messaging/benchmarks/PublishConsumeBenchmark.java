@@ -0,0 +1,202 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.databus.DatabusConsumer;
+import com.inmobi.messaging.consumer.databus.DatabusConsumerConfig;
+import com.inmobi.messaging.consumer.databus.StreamType;
+import com.inmobi.messaging.publisher.AbstractMessagePublisher;
+
+/**
+ * Measures the publish to consume path end to end, through a
+ * {@link ScribeSink} writing into a {@link LocalDatabus} which is read by a
+ * {@link DatabusConsumer} per topic.
+ *
+ * The load is generated by {@link LoadGenerator}. The latency of a message
+ * is taken from the time it was scheduled to be published at till it is
+ * consumed, and messages lost or consumed more than once are counted by
+ * their sequence numbers. Files reach the local and merged streams when
+ * they are committed at the end of their minute, so the latency through
+ * those streams is in minutes.
+ *
+ * Usage: PublishConsumeBenchmark [conf file] [result file]
+ *
+ * The conf file holds the publisher, consumer, load.* and sink.* settings.
+ * e2e.stream.type is the stream the consumers read, COLLECTOR by default,
+ * and e2e.idle.seconds is how long to wait for more messages once
+ * publishing is done.
+ */
+public class PublishConsumeBenchmark {
+
+  private static final Log LOG = LogFactory.getLog(
+      PublishConsumeBenchmark.class);
+
+  public static final String STREAM_TYPE_KEY = "e2e.stream.type";
+  public static final String DEFAULT_STREAM_TYPE = StreamType.COLLECTOR.name();
+  public static final String IDLE_SECONDS_KEY = "e2e.idle.seconds";
+  public static final int DEFAULT_IDLE_SECONDS = 30;
+  public static final String FLUSH_MILLIS_KEY = "e2e.flush.millis";
+  public static final long DEFAULT_FLUSH_MILLIS = 100;
+
+  private final ClientConfig config;
+  private final LoadGenerator load;
+  private final DeliveryTracker tracker = new DeliveryTracker();
+  private final int idleSeconds;
+  private volatile boolean publishingDone = false;
+  private volatile long sent = Long.MAX_VALUE;
+
+  public PublishConsumeBenchmark(ClientConfig config) {
+    this.config = config;
+    this.load = new LoadGenerator(config);
+    this.idleSeconds = config.getInteger(IDLE_SECONDS_KEY,
+        DEFAULT_IDLE_SECONDS);
+  }
+
+  public Map<String, Object> run() throws Exception {
+    Path rootDir = new Path(Files.createTempDirectory("local-databus")
+        .toUri());
+    LocalDatabus databus = new LocalDatabus(rootDir,
+        LocalDatabus.DEFAULT_COLLECTOR, config.getLong(FLUSH_MILLIS_KEY,
+            DEFAULT_FLUSH_MILLIS));
+    for (String topic : load.getTopics()) {
+      databus.createStream(topic);
+    }
+    ScribeSink sink = PublisherLoadHarness.createSink(config, databus);
+    sink.start(0);
+
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDir.toString());
+    config.set(DatabusConsumerConfig.databusStreamType, config.getString(
+        STREAM_TYPE_KEY, DEFAULT_STREAM_TYPE));
+    config.set(DatabusConsumerConfig.checkpointDirConfig,
+        new Path(rootDir, "checkpoint").toString());
+    setIfAbsent(DatabusConsumerConfig.waitTimeForFileCreateConfig, "100");
+    setIfAbsent(DatabusConsumerConfig.waitTimeForFlushConfig, "100");
+    Date startTime = new Date();
+    ConsumerThread[] consumers = new ConsumerThread[load.getTopics().length];
+    for (int i = 0; i < consumers.length; i++) {
+      DatabusConsumer consumer = new DatabusConsumer();
+      consumer.init(load.getTopics()[i], "e2e", startTime, config);
+      consumers[i] = new ConsumerThread(consumer);
+      consumers[i].start();
+    }
+
+    AbstractMessagePublisher publisher =
+        PublisherLoadHarness.createPublisher(config, sink);
+    long start = System.nanoTime();
+    long published = load.run(publisher);
+    publisher.close();
+    sink.stop();
+    databus.close();
+    sent = published;
+    publishingDone = true;
+    for (ConsumerThread consumer : consumers) {
+      consumer.join();
+    }
+    long end = System.nanoTime();
+    FileSystem.getLocal(new Configuration()).delete(rootDir, true);
+
+    double totalSeconds = (end - start) / 1e9;
+    long received = tracker.getUniqueCount();
+    Map<String, Object> settings = load.getSettings();
+    settings.put("streamType", config.getString(
+        DatabusConsumerConfig.databusStreamType));
+    settings.put("publisher", publisher.getClass().getName());
+
+    Map<String, Object> result = new LinkedHashMap<String, Object>();
+    result.put("settings", settings);
+    result.putAll(tracker.report(published));
+    result.put("totalSeconds", totalSeconds);
+    result.put("throughput", received / totalSeconds);
+    result.put("publisherStats", PublisherLoadHarness.publisherStats(
+        publisher, load.getTopics()));
+    result.put("sink", PublisherLoadHarness.sinkStats(sink));
+    return result;
+  }
+
+  private void setIfAbsent(String key, String value) {
+    if (config.getString(key) == null) {
+      config.set(key, value);
+    }
+  }
+
+  /**
+   * Consumes till everything published is consumed, or nothing is consumed
+   * for idleSeconds after publishing is done.
+   */
+  private class ConsumerThread extends Thread {
+    private final DatabusConsumer consumer;
+
+    ConsumerThread(DatabusConsumer consumer) {
+      super("e2e-consumer-" + consumer.getTopicName());
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void run() {
+      long idleSince = -1;
+      try {
+        while (tracker.getUniqueCount() < sent) {
+          Message msg = consumer.next(1, TimeUnit.SECONDS);
+          if (msg != null) {
+            tracker.delivered(msg.getData());
+            idleSince = -1;
+          } else if (publishingDone) {
+            long now = System.nanoTime();
+            if (idleSince == -1) {
+              idleSince = now;
+            } else if (now - idleSince
+                > TimeUnit.SECONDS.toNanos(idleSeconds)) {
+              break;
+            }
+          }
+        }
+      } catch (Exception e) {
+        LOG.warn("Consumer of " + consumer.getTopicName() + " failed", e);
+      } finally {
+        consumer.close();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    ClientConfig config = args.length > 0 ? ClientConfig.load(args[0])
+        : new ClientConfig();
+    PublisherLoadHarness.writeResult(
+        new PublishConsumeBenchmark(config).run(),
+        args.length > 1 ? args[1] : null);
+    System.exit(0);
+  }
+}
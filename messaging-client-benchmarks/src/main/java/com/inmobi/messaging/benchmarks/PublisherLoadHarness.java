@@ -0,0 +1,204 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+import com.inmobi.messaging.netty.ScribeMessagePublisher;
+import com.inmobi.messaging.netty.ScribePublisherConfiguration;
+import com.inmobi.messaging.publisher.AbstractMessagePublisher;
+import com.inmobi.messaging.publisher.MessagePublisherFactory;
+
+/**
+ * Drives a publisher at a target rate against an in-process
+ * {@link ScribeSink} and reports throughput, loss and latency as JSON.
+ *
+ * The load is generated by {@link LoadGenerator} and the latency of a
+ * message is taken from the time it was scheduled to be published at till
+ * the sink receives it, see {@link DeliveryTracker}.
+ *
+ * Usage: PublisherLoadHarness [conf file] [result file]
+ *
+ * The conf file is a messaging client configuration, passed on to the
+ * publisher along with the load.* and sink.* settings of the harness.
+ * scribe.host and scribe.port are pointed at the sink. The result goes to
+ * stdout if no result file is given.
+ */
+public class PublisherLoadHarness {
+
+  public static final String SINK_LATENCY_MILLIS_KEY = "sink.latency.millis";
+  public static final long DEFAULT_SINK_LATENCY_MILLIS = 0;
+  public static final String SINK_JITTER_MILLIS_KEY = "sink.jitter.millis";
+  public static final long DEFAULT_SINK_JITTER_MILLIS = 0;
+  public static final String SINK_TRY_LATER_RATIO_KEY = "sink.trylater.ratio";
+  public static final String DEFAULT_SINK_TRY_LATER_RATIO = "0";
+  public static final String SINK_DISCONNECT_EVERY_KEY =
+      "sink.disconnect.every";
+  public static final long DEFAULT_SINK_DISCONNECT_EVERY = 0;
+
+  private final ClientConfig config;
+  private final LoadGenerator load;
+  private final DeliveryTracker tracker = new DeliveryTracker();
+  private final ScribeSink sink;
+
+  public PublisherLoadHarness(ClientConfig config) {
+    this.config = config;
+    this.load = new LoadGenerator(config);
+    this.sink = createSink(config, new ScribeSink.Listener() {
+      @Override
+      public void received(String category, byte[] message) {
+        tracker.delivered(ByteBuffer.wrap(message));
+      }
+    });
+  }
+
+  /**
+   * Creates a sink with the fault injection of the sink.* settings.
+   */
+  static ScribeSink createSink(ClientConfig config,
+      ScribeSink.Listener listener) {
+    ScribeSink sink = new ScribeSink(listener);
+    sink.setLatency(
+        config.getLong(SINK_LATENCY_MILLIS_KEY, DEFAULT_SINK_LATENCY_MILLIS),
+        config.getLong(SINK_JITTER_MILLIS_KEY, DEFAULT_SINK_JITTER_MILLIS));
+    sink.setTryLaterRatio(Double.parseDouble(config.getString(
+        SINK_TRY_LATER_RATIO_KEY, DEFAULT_SINK_TRY_LATER_RATIO)));
+    sink.setDisconnectEvery(config.getLong(SINK_DISCONNECT_EVERY_KEY,
+        DEFAULT_SINK_DISCONNECT_EVERY));
+    return sink;
+  }
+
+  /**
+   * Creates the configured publisher, scribe by default, publishing to the
+   * sink.
+   */
+  static AbstractMessagePublisher createPublisher(ClientConfig config,
+      ScribeSink sink) throws Exception {
+    config.set(ScribePublisherConfiguration.hostNameConfig, "localhost");
+    config.set(ScribePublisherConfiguration.portConfig,
+        String.valueOf(sink.getPort()));
+    String publisherClass = config.getString(
+        MessagePublisherFactory.PUBLISHER_CLASS_NAME_KEY,
+        ScribeMessagePublisher.class.getName());
+    return (AbstractMessagePublisher) MessagePublisherFactory.create(config,
+        publisherClass);
+  }
+
+  public Map<String, Object> run() throws Exception {
+    sink.start(0);
+    AbstractMessagePublisher publisher = createPublisher(config, sink);
+
+    long start = System.nanoTime();
+    long sent = load.run(publisher);
+    long sendEnd = System.nanoTime();
+    publisher.close();
+    long closeEnd = System.nanoTime();
+    sink.stop();
+
+    double totalSeconds = (closeEnd - start) / 1e9;
+    long received = tracker.getUniqueCount();
+    Map<String, Object> settings = load.getSettings();
+    settings.put("publisher", publisher.getClass().getName());
+
+    Map<String, Object> result = new LinkedHashMap<String, Object>();
+    result.put("settings", settings);
+    result.putAll(tracker.report(sent));
+    result.put("sendSeconds", (sendEnd - start) / 1e9);
+    result.put("totalSeconds", totalSeconds);
+    result.put("throughput", received / totalSeconds);
+    result.put("throughputMBps", received * load.getMessageSize()
+        / totalSeconds / (1024 * 1024));
+    result.put("publisherStats", publisherStats(publisher, load.getTopics()));
+    result.put("sink", sinkStats(sink));
+    return result;
+  }
+
+  static Map<String, Object> publisherStats(
+      AbstractMessagePublisher publisher, String[] topics) {
+    long success = 0;
+    long lost = 0;
+    long retries = 0;
+    long graceful = 0;
+    long reconnects = 0;
+    long exceptions = 0;
+    for (String topic : topics) {
+      PintailTimingAccumulator stats = publisher.getStats(topic);
+      if (stats == null) {
+        continue;
+      }
+      success += stats.getSuccessCount();
+      lost += stats.getLostCount();
+      retries += stats.getRetryCount();
+      graceful += stats.getGracefulTerminates();
+      reconnects += stats.getReconnectionCount();
+      exceptions += stats.getUnhandledExceptionCount();
+    }
+    Map<String, Object> publisherStats = new LinkedHashMap<String, Object>();
+    publisherStats.put("success", success);
+    publisherStats.put("lost", lost);
+    publisherStats.put("retries", retries);
+    publisherStats.put("gracefulTerminates", graceful);
+    publisherStats.put("reconnects", reconnects);
+    publisherStats.put("unhandledExceptions", exceptions);
+    return publisherStats;
+  }
+
+  static Map<String, Object> sinkStats(ScribeSink sink) {
+    Map<String, Object> sinkStats = new LinkedHashMap<String, Object>();
+    sinkStats.put("calls", sink.getCalls());
+    sinkStats.put("entries", sink.getEntries());
+    sinkStats.put("tryLater", sink.getTryLaters());
+    sinkStats.put("disconnects", sink.getDisconnects());
+    return sinkStats;
+  }
+
+  static void writeResult(Map<String, Object> result, String resultFile)
+      throws Exception {
+    String json = BenchmarkUtil.toJson(result);
+    if (resultFile != null) {
+      Writer out = new OutputStreamWriter(new FileOutputStream(resultFile),
+          "UTF-8");
+      try {
+        out.write(json);
+        out.write('\n');
+      } finally {
+        out.close();
+      }
+    } else {
+      System.out.println(json);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    ClientConfig config = args.length > 0 ? ClientConfig.load(args[0])
+        : new ClientConfig();
+    writeResult(new PublisherLoadHarness(config).run(),
+        args.length > 1 ? args[1] : null);
+    System.exit(0);
+  }
+}
@@ -0,0 +1,316 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+
+import scribe.thrift.ResultCode;
+
+/**
+ * An in-process scribe server for load testing publishers.
+ *
+ * Accepted entries are handed to the {@link Listener}. The sink can delay
+ * its replies, answer a ratio of the Log calls with TRY_LATER and drop the
+ * connection after every so many Log calls. A dropped connection loses the
+ * reply of the call, but the entries of the call are still handed to the
+ * listener, as happens when a scribe agent goes away after logging.
+ *
+ * Replies on a connection are sent in the order of the calls, as the
+ * publisher matches acks to messages by order.
+ */
+public class ScribeSink {
+
+  private static final Log LOG = LogFactory.getLog(ScribeSink.class);
+
+  private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * Receives the entries accepted by the sink, from the netty worker
+   * threads.
+   */
+  public interface Listener {
+    void received(String category, byte[] message);
+  }
+
+  private final Listener listener;
+  private long latencyNanos = 0;
+  private long jitterNanos = 0;
+  private double tryLaterRatio = 0;
+  private long disconnectEvery = 0;
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong entries = new AtomicLong();
+  private final AtomicLong tryLaters = new AtomicLong();
+  private final AtomicLong disconnects = new AtomicLong();
+
+  private final ChannelGroup channels = new DefaultChannelGroup("scribe-sink");
+  private ServerBootstrap bootstrap;
+  private ScheduledExecutorService replyScheduler;
+  private int port;
+
+  public ScribeSink(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Delays every reply by latencyMillis plus a uniformly random jitter of up
+   * to jitterMillis.
+   */
+  public void setLatency(long latencyMillis, long jitterMillis) {
+    this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+    this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+  }
+
+  /**
+   * Answers the given ratio of Log calls, between 0 and 1, with TRY_LATER.
+   */
+  public void setTryLaterRatio(double tryLaterRatio) {
+    this.tryLaterRatio = tryLaterRatio;
+  }
+
+  /**
+   * Closes each connection after every given number of Log calls on it,
+   * without replying to the last one. 0 never closes connections.
+   */
+  public void setDisconnectEvery(long disconnectEvery) {
+    this.disconnectEvery = disconnectEvery;
+  }
+
+  /**
+   * Starts listening on the given port, 0 for an ephemeral port.
+   */
+  public synchronized void start(int port) {
+    replyScheduler = Executors.newSingleThreadScheduledExecutor();
+    bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+        Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+    bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+      @Override
+      public ChannelPipeline getPipeline() {
+        ChannelPipeline pipeline = Channels.pipeline();
+        pipeline.addLast("frameDecoder", new LengthFieldBasedFrameDecoder(
+            MAX_FRAME_SIZE, 0, 4, 0, 4));
+        pipeline.addLast("frameEncoder", new LengthFieldPrepender(4));
+        pipeline.addLast("handler", new SinkHandler());
+        return pipeline;
+      }
+    });
+    Channel server = bootstrap.bind(new InetSocketAddress(port));
+    channels.add(server);
+    this.port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+    LOG.info("Scribe sink listening on port " + this.port);
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public synchronized void stop() {
+    if (bootstrap == null) {
+      return;
+    }
+    channels.close().awaitUninterruptibly();
+    replyScheduler.shutdownNow();
+    bootstrap.releaseExternalResources();
+    bootstrap = null;
+  }
+
+  public long getCalls() {
+    return calls.get();
+  }
+
+  public long getEntries() {
+    return entries.get();
+  }
+
+  public long getTryLaters() {
+    return tryLaters.get();
+  }
+
+  public long getDisconnects() {
+    return disconnects.get();
+  }
+
+  private class SinkHandler extends SimpleChannelUpstreamHandler {
+    private final Random random = new Random();
+    private long callsOnChannel = 0;
+    private long lastReplyDue = 0;
+
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) {
+      channels.add(e.getChannel());
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+        throws TException {
+      ChannelBuffer frame = (ChannelBuffer) e.getMessage();
+      byte[] bytes = new byte[frame.readableBytes()];
+      frame.readBytes(bytes);
+      TBinaryProtocol proto = new TBinaryProtocol(
+          new TMemoryInputTransport(bytes));
+      TMessage msg = proto.readMessageBegin();
+      calls.incrementAndGet();
+
+      ResultCode result = ResultCode.OK;
+      if (tryLaterRatio > 0 && random.nextDouble() < tryLaterRatio) {
+        result = ResultCode.TRY_LATER;
+        tryLaters.incrementAndGet();
+      } else {
+        readLogArgs(proto);
+      }
+
+      callsOnChannel++;
+      if (disconnectEvery > 0 && callsOnChannel % disconnectEvery == 0) {
+        disconnects.incrementAndGet();
+        e.getChannel().close();
+        return;
+      }
+      reply(e.getChannel(), msg.seqid, result);
+    }
+
+    private void readLogArgs(TBinaryProtocol proto) throws TException {
+      proto.readStructBegin();
+      while (true) {
+        TField field = proto.readFieldBegin();
+        if (field.type == TType.STOP) {
+          break;
+        }
+        if (field.id == 1 && field.type == TType.LIST) {
+          TList list = proto.readListBegin();
+          for (int i = 0; i < list.size; i++) {
+            readLogEntry(proto);
+          }
+          proto.readListEnd();
+        } else {
+          TProtocolUtil.skip(proto, field.type);
+        }
+        proto.readFieldEnd();
+      }
+      proto.readStructEnd();
+    }
+
+    private void readLogEntry(TBinaryProtocol proto) throws TException {
+      String category = null;
+      byte[] message = null;
+      proto.readStructBegin();
+      while (true) {
+        TField field = proto.readFieldBegin();
+        if (field.type == TType.STOP) {
+          break;
+        }
+        if (field.id == 1 && field.type == TType.STRING) {
+          category = proto.readString();
+        } else if (field.id == 2 && field.type == TType.STRING) {
+          ByteBuffer binary = proto.readBinary();
+          message = new byte[binary.remaining()];
+          binary.get(message);
+        } else {
+          TProtocolUtil.skip(proto, field.type);
+        }
+        proto.readFieldEnd();
+      }
+      proto.readStructEnd();
+      entries.incrementAndGet();
+      listener.received(category, message);
+    }
+
+    private void reply(final Channel channel, int seqid, ResultCode result)
+        throws TException {
+      final ChannelBuffer reply = encodeReply(seqid, result);
+      if (latencyNanos == 0 && jitterNanos == 0) {
+        channel.write(reply);
+        return;
+      }
+      long now = System.nanoTime();
+      long due = now + latencyNanos;
+      if (jitterNanos > 0) {
+        due += (long) (random.nextDouble() * jitterNanos);
+      }
+      // keep the replies in order on the connection
+      due = Math.max(due, lastReplyDue);
+      lastReplyDue = due;
+      replyScheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          channel.write(reply);
+        }
+      }, due - now, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+      LOG.warn("Closing connection on error", e.getCause());
+      e.getChannel().close();
+    }
+  }
+
+  private static ChannelBuffer encodeReply(int seqid, ResultCode result)
+      throws TException {
+    TMemoryBuffer buffer = new TMemoryBuffer(32);
+    TBinaryProtocol proto = new TBinaryProtocol(buffer);
+    proto.writeMessageBegin(new TMessage("Log", TMessageType.REPLY, seqid));
+    proto.writeStructBegin(new TStruct("Log_result"));
+    proto.writeFieldBegin(new TField("success", TType.I32, (short) 0));
+    proto.writeI32(result.getValue());
+    proto.writeFieldEnd();
+    proto.writeFieldStop();
+    proto.writeStructEnd();
+    proto.writeMessageEnd();
+    return ChannelBuffers.wrappedBuffer(buffer.getArray(), 0, buffer.length());
+  }
+}
@@ -0,0 +1,250 @@
+package com.inmobi.messaging.benchmarks;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.inmobi.databus.files.CollectorFile;
+import com.inmobi.databus.readers.DatabusStreamReader;
+import com.inmobi.databus.readers.LocalStreamCollectorReader;
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.consumer.databus.StreamType;
+import com.inmobi.messaging.consumer.util.DatabusUtil;
+
+/**
+ * Writes a synthetic databus dataset for a topic onto any hadoop file
+ * system, for sizing consumers.
+ *
+ * The dataset spans gen.duration.minutes minutes ending at the current
+ * minute, with gen.files.per.minute files per collector for each minute.
+ * Files of the last gen.collector.minutes minutes are in the collector
+ * stream as base64 lines. Older files are committed, gzipped, into the
+ * minute directory following their own in the local and merged streams,
+ * as databus does. The hadoop layout holds the same gzipped files with the
+ * raw messages as lines, under hadoop/[topic], for {@link
+ * com.inmobi.messaging.consumer.hadoop.HadoopConsumer} with the text input
+ * format.
+ *
+ * Usage: SyntheticDatasetGenerator [conf file]
+ */
+public class SyntheticDatasetGenerator {
+
+  private static final Log LOG = LogFactory.getLog(
+      SyntheticDatasetGenerator.class);
+
+  public static final String ROOT_DIR_KEY = "gen.root.dir";
+  public static final String TOPIC_KEY = "gen.topic";
+  public static final String DEFAULT_TOPIC = BenchmarkUtil.TOPIC;
+  public static final String COLLECTORS_KEY = "gen.collectors";
+  public static final int DEFAULT_COLLECTORS = 2;
+  public static final String DURATION_MINUTES_KEY = "gen.duration.minutes";
+  public static final int DEFAULT_DURATION_MINUTES = 60;
+  public static final String COLLECTOR_MINUTES_KEY = "gen.collector.minutes";
+  public static final int DEFAULT_COLLECTOR_MINUTES = 5;
+  public static final String FILES_PER_MINUTE_KEY = "gen.files.per.minute";
+  public static final int DEFAULT_FILES_PER_MINUTE = 1;
+  public static final String MESSAGES_PER_FILE_KEY = "gen.messages.per.file";
+  public static final int DEFAULT_MESSAGES_PER_FILE = 1000;
+  public static final String MESSAGE_SIZE_KEY = "gen.message.size";
+  public static final int DEFAULT_MESSAGE_SIZE = 512;
+
+  public static final String HADOOP_DIR = "hadoop";
+
+  private final Path rootDir;
+  private final FileSystem fs;
+  private final String topic;
+  private final int numCollectors;
+  private final int durationMinutes;
+  private final int collectorMinutes;
+  private final int filesPerMinute;
+  private final int messagesPerFile;
+  private final int messageSize;
+  private final byte[] rawLine;
+  private final byte[] encodedLine;
+
+  private long filesWritten = 0;
+  private long bytesWritten = 0;
+
+  public SyntheticDatasetGenerator(ClientConfig config) throws IOException {
+    String rootDirStr = config.getString(ROOT_DIR_KEY);
+    if (rootDirStr == null) {
+      throw new IllegalArgumentException("Missing root dir configuration: "
+          + ROOT_DIR_KEY);
+    }
+    this.rootDir = new Path(rootDirStr);
+    this.fs = rootDir.getFileSystem(new Configuration());
+    this.topic = config.getString(TOPIC_KEY, DEFAULT_TOPIC);
+    this.numCollectors = config.getInteger(COLLECTORS_KEY,
+        DEFAULT_COLLECTORS);
+    this.durationMinutes = config.getInteger(DURATION_MINUTES_KEY,
+        DEFAULT_DURATION_MINUTES);
+    this.collectorMinutes = config.getInteger(COLLECTOR_MINUTES_KEY,
+        DEFAULT_COLLECTOR_MINUTES);
+    this.filesPerMinute = config.getInteger(FILES_PER_MINUTE_KEY,
+        DEFAULT_FILES_PER_MINUTE);
+    this.messagesPerFile = config.getInteger(MESSAGES_PER_FILE_KEY,
+        DEFAULT_MESSAGES_PER_FILE);
+    this.messageSize = config.getInteger(MESSAGE_SIZE_KEY,
+        DEFAULT_MESSAGE_SIZE);
+    this.rawLine = BenchmarkUtil.payload(messageSize);
+    this.encodedLine = DatabusDataGenerator.encodedLine(messageSize, false);
+  }
+
+  public static String getCollectorName(int index) {
+    return "collector" + (index + 1);
+  }
+
+  public static Path getHadoopStreamDir(Path rootDir, String topic) {
+    return new Path(new Path(rootDir, HADOOP_DIR), topic);
+  }
+
+  /**
+   * @return the first minute of the dataset
+   */
+  public Date getStartTime() {
+    return new Date(getCurrentMinute() - TimeUnit.MINUTES.toMillis(
+        durationMinutes - 1));
+  }
+
+  private static long getCurrentMinute() {
+    long now = System.currentTimeMillis();
+    return now - now % TimeUnit.MINUTES.toMillis(1);
+  }
+
+  /**
+   * Writes the dataset.
+   *
+   * @return what got written
+   */
+  public Map<String, Object> generate() throws IOException {
+    long start = System.nanoTime();
+    Path localDir = DatabusUtil.getStreamDir(StreamType.LOCAL, rootDir, topic);
+    Path mergedDir = DatabusUtil.getStreamDir(StreamType.MERGED, rootDir,
+        topic);
+    Path hadoopDir = getHadoopStreamDir(rootDir, topic);
+    long currentMinute = getCurrentMinute();
+    long firstMinute = getStartTime().getTime();
+    long firstCollectorMinute = currentMinute
+        - TimeUnit.MINUTES.toMillis(Math.max(0, collectorMinutes) - 1);
+
+    for (int c = 0; c < numCollectors; c++) {
+      fs.mkdirs(DatabusUtil.getCollectorStreamDir(rootDir, topic,
+          getCollectorName(c)));
+    }
+    for (long minute = firstMinute; minute <= currentMinute;
+        minute += TimeUnit.MINUTES.toMillis(1)) {
+      // files of the collector minutes are not committed yet
+      List<Path> commitDirs = new ArrayList<Path>();
+      if (minute < firstCollectorMinute) {
+        Date commitTime = new Date(minute + TimeUnit.MINUTES.toMillis(1));
+        for (Path streamDir : new Path[] {localDir, mergedDir, hadoopDir }) {
+          Path minuteDir = DatabusStreamReader.getMinuteDirPath(streamDir,
+              commitTime);
+          fs.mkdirs(minuteDir);
+          commitDirs.add(minuteDir);
+        }
+      }
+      for (int c = 0; c < numCollectors; c++) {
+        String collector = getCollectorName(c);
+        Path collectorDir = DatabusUtil.getCollectorStreamDir(rootDir, topic,
+            collector);
+        for (int f = 0; f < filesPerMinute; f++) {
+          String fileName = new CollectorFile(topic, new Date(minute), f)
+              .toString();
+          if (commitDirs.isEmpty()) {
+            writeFile(new Path(collectorDir, fileName), encodedLine, false);
+            continue;
+          }
+          String streamFileName = LocalStreamCollectorReader
+              .getDatabusStreamFileName(collector, fileName);
+          writeFile(new Path(commitDirs.get(0), streamFileName), encodedLine,
+              true);
+          writeFile(new Path(commitDirs.get(1), streamFileName), encodedLine,
+              true);
+          writeFile(new Path(commitDirs.get(2), streamFileName), rawLine,
+              true);
+        }
+      }
+    }
+    // the minute directory after the last commit marks it as complete
+    long lastCommitted = Math.min(currentMinute,
+        firstCollectorMinute - TimeUnit.MINUTES.toMillis(1));
+    Date marker = new Date(lastCommitted + TimeUnit.MINUTES.toMillis(2));
+    for (Path streamDir : new Path[] {localDir, mergedDir, hadoopDir }) {
+      fs.mkdirs(DatabusStreamReader.getMinuteDirPath(streamDir, marker));
+    }
+
+    Map<String, Object> result = new LinkedHashMap<String, Object>();
+    result.put("rootDir", rootDir.toString());
+    result.put("topic", topic);
+    result.put("startTime", getStartTime().getTime());
+    result.put("collectors", numCollectors);
+    result.put("durationMinutes", durationMinutes);
+    result.put("collectorMinutes", collectorMinutes);
+    result.put("filesPerMinute", filesPerMinute);
+    result.put("messagesPerFile", messagesPerFile);
+    result.put("messageSize", messageSize);
+    result.put("filesWritten", filesWritten);
+    result.put("bytesWritten", bytesWritten);
+    result.put("seconds", (System.nanoTime() - start) / 1e9);
+    return result;
+  }
+
+  private void writeFile(Path file, byte[] line, boolean gzip)
+      throws IOException {
+    FSDataOutputStream fileOut = fs.create(file);
+    OutputStream out = gzip ? new GZIPOutputStream(fileOut, 64 * 1024)
+        : fileOut;
+    try {
+      for (int i = 0; i < messagesPerFile; i++) {
+        out.write(line);
+        out.write('\n');
+      }
+    } finally {
+      out.close();
+    }
+    filesWritten++;
+    bytesWritten += fileOut.getPos();
+    LOG.debug("Wrote " + file);
+  }
+
+  public static void main(String[] args) throws Exception {
+    ClientConfig config = args.length > 0 ? ClientConfig.load(args[0])
+        : new ClientConfig();
+    System.out.println(BenchmarkUtil.toJson(
+        new SyntheticDatasetGenerator(config).generate()));
+  }
+}
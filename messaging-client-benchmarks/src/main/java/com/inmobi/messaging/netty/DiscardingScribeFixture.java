@@ -0,0 +1,89 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.inmobi.messaging.benchmarks.DiscardingChannel;
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+
+/**
+ * A {@link ScribeTopicPublisher} writing to a {@link DiscardingChannel}.
+ *
+ * The publisher connects to a local socket which accepts connections and
+ * never reads them, then its channel is swapped for the discarding one.
+ * Retries are disabled as no acks arrive on the discarding channel, so a
+ * message is done with once it is written.
+ */
+class DiscardingScribeFixture {
+
+  private final ServerSocket sink;
+  private final List<Socket> accepted = new ArrayList<Socket>();
+  private final ScribeTopicPublisher publisher = new ScribeTopicPublisher();
+  private final PintailTimingAccumulator stats = new PintailTimingAccumulator();
+
+  DiscardingScribeFixture(String topic, int msgQueueSize) throws IOException {
+    sink = new ServerSocket(0);
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Socket socket = sink.accept();
+            synchronized (accepted) {
+              accepted.add(socket);
+            }
+          }
+        } catch (IOException e) {
+          // sink is closed
+        }
+      }
+    }, "discarding-scribe-sink");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    publisher.init(topic, "localhost", sink.getLocalPort(), 5, 600, stats,
+        false, false, 10, msgQueueSize, 1000, 0);
+    publisher.new ChannelSetter().setChannel(
+        new DiscardingChannel().getChannel());
+  }
+
+  ScribeTopicPublisher getPublisher() {
+    return publisher;
+  }
+
+  PintailTimingAccumulator getStats() {
+    return stats;
+  }
+
+  void close() throws IOException {
+    publisher.close();
+    sink.close();
+    synchronized (accepted) {
+      for (Socket socket : accepted) {
+        socket.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scribe.thrift.ResultCode;
+
+import com.inmobi.messaging.benchmarks.BenchmarkUtil;
+
+/**
+ * Cost of decoding a scribe Log reply in {@link ScribeHandler} and
+ * accounting the ack in the topic publisher.
+ *
+ * In production the acks of a connection are decoded by a single netty
+ * worker; running this with more threads measures contention on the
+ * publisher stats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScribeAckDecodeBenchmark {
+
+  private DiscardingScribeFixture fixture;
+  private HashedWheelTimer timer;
+  private ScribeHandler handler;
+  private MessageEvent ackEvent;
+
+  @Setup
+  public void setup() throws IOException, TException {
+    fixture = new DiscardingScribeFixture(BenchmarkUtil.TOPIC, 1000);
+    ScribeTopicPublisher publisher = fixture.getPublisher();
+    timer = new HashedWheelTimer();
+    handler = new ScribeHandler(fixture.getStats(),
+        publisher.new ChannelSetter(), 5, timer, publisher);
+    ackEvent = new UpstreamMessageEvent(
+        publisher.new ChannelSetter().getCurrentChannel(),
+        ChannelBuffers.wrappedBuffer(encodeReply(ResultCode.OK)), null);
+  }
+
+  private static byte[] encodeReply(ResultCode resultCode)
+      throws TException {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TBinaryProtocol proto = new TBinaryProtocol(buffer);
+    proto.writeMessageBegin(new TMessage("Log", TMessageType.REPLY, 0));
+    proto.writeStructBegin(new TStruct("Log_result"));
+    proto.writeFieldBegin(new TField("success", TType.I32, (short) 0));
+    proto.writeI32(resultCode.getValue());
+    proto.writeFieldEnd();
+    proto.writeFieldStop();
+    proto.writeStructEnd();
+    proto.writeMessageEnd();
+    return Arrays.copyOf(buffer.getArray(), buffer.length());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fixture.close();
+    timer.stop();
+  }
+
+  @Benchmark
+  public void decodeAck() throws Exception {
+    handler.messageReceived(null, ackEvent);
+  }
+}
@@ -0,0 +1,95 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-benchmarks
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.benchmarks.BenchmarkUtil;
+
+/**
+ * Cost of queueing messages in {@link ScribeTopicPublisher} and draining the
+ * send queue onto the channel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScribeTopicPublisherBenchmark {
+
+  private static final int BATCH = 64;
+
+  @Param({"100", "1024", "10240" })
+  private int messageSize;
+
+  private DiscardingScribeFixture fixture;
+  private ScribeTopicPublisher publisher;
+  private Message message;
+
+  @Setup
+  public void setup() throws IOException {
+    fixture = new DiscardingScribeFixture(BenchmarkUtil.TOPIC, 1 << 20);
+    publisher = fixture.getPublisher();
+    message = new Message(BenchmarkUtil.payload(messageSize));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fixture.close();
+  }
+
+  /**
+   * Queue a message and send it right away when no other thread is sending.
+   */
+  @Benchmark
+  public void publish() {
+    publisher.publish(message);
+  }
+
+  /**
+   * Queue a batch of messages, then drain the send queue.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public boolean enqueueAndDrain() {
+    for (int i = 0; i < BATCH; i++) {
+      publisher.enqueue(message);
+    }
+    return publisher.drain();
+  }
+}
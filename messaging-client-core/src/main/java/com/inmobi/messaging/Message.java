@@ -34,7 +34,10 @@ public final class Message implements MessageBase {
   }
 
   /**
-   * Create new message with {@link ByteBuffer}
+   * Create new message with {@link ByteBuffer}. The message data is the bytes
+   * between the position and the limit of the buffer, which can be a slice
+   * of a larger buffer or a direct buffer. The buffer is not copied and its
+   * position and limit are not modified while publishing.
    *
    * @param data The {@link ByteBuffer}
    */
@@ -51,6 +54,17 @@ public final class Message implements MessageBase {
     this.data = ByteBuffer.wrap(data);
   }
 
+  /**
+   * Create new message with a range of the byte array, without copying it.
+   *
+   * @param data The byte array.
+   * @param offset The offset of the message data in the array
+   * @param length The length of the message data
+   */
+  public Message(byte[] data, int offset, int length) {
+    this.data = ByteBuffer.wrap(data, offset, length);
+  }
+
   /**
    * Get the data associated with message.
    *
@@ -68,8 +82,27 @@ public final class Message implements MessageBase {
     data.clear();
   }
 
+  /**
+   * @return number of bytes between the position and the limit of the data
+   */
   public long getSize() {
-    return data.limit();
+    return data.remaining();
+  }
+
+  /**
+   * Get the message data as a byte array. The backing array is returned as
+   * is when it holds exactly the message data, otherwise the data is copied.
+   *
+   * @return byte array holding the data
+   */
+  public byte[] getBytes() {
+    if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+        && data.remaining() == data.array().length) {
+      return data.array();
+    }
+    byte[] bytes = new byte[data.remaining()];
+    data.duplicate().get(bytes);
+    return bytes;
   }
 
   @Override
@@ -0,0 +1,82 @@
+package com.inmobi.messaging.checkpoint;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base class for checkpoint providers, implementing the batch methods by
+ * calling the single key ones for every key.
+ *
+ * The static methods read and store a batch through any provider, in one
+ * call for a {@link BatchCheckpointProvider} and key by key otherwise.
+ */
+public abstract class AbstractCheckpointProvider implements
+    BatchCheckpointProvider {
+
+  @Override
+  public Map<String, byte[]> read(Collection<String> keys) {
+    return readEach(this, keys);
+  }
+
+  @Override
+  public void checkpoint(Map<String, byte[]> checkpoints) {
+    checkpointEach(this, checkpoints);
+  }
+
+  public static Map<String, byte[]> readAll(CheckpointProvider provider,
+      Collection<String> keys) {
+    if (provider instanceof BatchCheckpointProvider) {
+      return ((BatchCheckpointProvider) provider).read(keys);
+    }
+    return readEach(provider, keys);
+  }
+
+  public static void checkpointAll(CheckpointProvider provider,
+      Map<String, byte[]> checkpoints) {
+    if (provider instanceof BatchCheckpointProvider) {
+      ((BatchCheckpointProvider) provider).checkpoint(checkpoints);
+    } else {
+      checkpointEach(provider, checkpoints);
+    }
+  }
+
+  private static Map<String, byte[]> readEach(CheckpointProvider provider,
+      Collection<String> keys) {
+    Map<String, byte[]> checkpoints = new HashMap<String, byte[]>();
+    for (String key : keys) {
+      byte[] checkpoint = provider.read(key);
+      if (checkpoint != null) {
+        checkpoints.put(key, checkpoint);
+      }
+    }
+    return checkpoints;
+  }
+
+  private static void checkpointEach(CheckpointProvider provider,
+      Map<String, byte[]> checkpoints) {
+    for (Map.Entry<String, byte[]> entry : checkpoints.entrySet()) {
+      provider.checkpoint(entry.getKey(), entry.getValue());
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.inmobi.messaging.checkpoint;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.Map;
+
+/*
+ * A checkpoint provider which can read and store several checkpoints in one
+ * call. See AbstractCheckpointProvider for implementations looping over the
+ * single key methods.
+ */
+public interface BatchCheckpointProvider extends CheckpointProvider {
+
+  /*
+   * Reads the checkpoints for the given keys. Keys for which no checkpoint is
+   * found are left out of the returned map.
+   */
+  Map<String, byte[]> read(Collection<String> keys);
+
+  /*
+   * Stores the checkpoints for all the keys of the given map.
+   */
+  void checkpoint(Map<String, byte[]> checkpoints);
+}
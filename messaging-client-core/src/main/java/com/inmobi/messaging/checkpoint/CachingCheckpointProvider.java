@@ -0,0 +1,123 @@
+package com.inmobi.messaging.checkpoint;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write through cache in front of another checkpoint provider.
+ *
+ * Remembers the bytes last read or stored for every key and skips storing
+ * bytes equal to them, so marking a consumer which did not move costs no
+ * call to the underlying provider. Reads always go to the underlying
+ * provider. Checkpoints changed by someone else after they were read or
+ * stored here are not noticed; the wrapped provider must not be shared with
+ * other writers of the same keys.
+ */
+public class CachingCheckpointProvider extends AbstractCheckpointProvider {
+  private final CheckpointProvider provider;
+  private final Map<String, byte[]> cache =
+      new ConcurrentHashMap<String, byte[]>();
+  private final AtomicLong skippedWrites = new AtomicLong(0);
+
+  public CachingCheckpointProvider(CheckpointProvider provider) {
+    this.provider = provider;
+  }
+
+  public CheckpointProvider getProvider() {
+    return provider;
+  }
+
+  @Override
+  public byte[] read(String key) {
+    byte[] checkpoint = provider.read(key);
+    remember(key, checkpoint);
+    return checkpoint;
+  }
+
+  @Override
+  public Map<String, byte[]> read(Collection<String> keys) {
+    Map<String, byte[]> checkpoints = readAll(provider, keys);
+    for (String key : keys) {
+      remember(key, checkpoints.get(key));
+    }
+    return checkpoints;
+  }
+
+  @Override
+  public void checkpoint(String key, byte[] checkpoint) {
+    if (isUnchanged(key, checkpoint)) {
+      skippedWrites.incrementAndGet();
+      return;
+    }
+    provider.checkpoint(key, checkpoint);
+    remember(key, checkpoint);
+  }
+
+  @Override
+  public void checkpoint(Map<String, byte[]> checkpoints) {
+    Map<String, byte[]> changed = new LinkedHashMap<String, byte[]>();
+    for (Map.Entry<String, byte[]> entry : checkpoints.entrySet()) {
+      if (isUnchanged(entry.getKey(), entry.getValue())) {
+        skippedWrites.incrementAndGet();
+      } else {
+        changed.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (changed.isEmpty()) {
+      return;
+    }
+    checkpointAll(provider, changed);
+    for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+      remember(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Returns the number of writes skipped because the bytes were unchanged.
+   */
+  public long getSkippedWrites() {
+    return skippedWrites.get();
+  }
+
+  private boolean isUnchanged(String key, byte[] checkpoint) {
+    return Arrays.equals(cache.get(key), checkpoint);
+  }
+
+  private void remember(String key, byte[] checkpoint) {
+    if (checkpoint == null) {
+      cache.remove(key);
+    } else {
+      cache.put(key, checkpoint.clone());
+    }
+  }
+
+  @Override
+  public void close() {
+    cache.clear();
+    provider.close();
+  }
+}
@@ -24,7 +24,9 @@ import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import com.inmobi.messaging.ClientConfig;
@@ -93,6 +95,35 @@ public abstract class AbstractMessageConsumer implements MessageConsumer {
   protected abstract Message getNext(long timeout, TimeUnit timeunit)
       throws InterruptedException, EndOfStreamException;
 
+  /**
+   * Reads up to <code>maxMessages</code> messages, waiting up to the timeout
+   * only for the first one.
+   *
+   * The default implementation calls {@link #getNext(long, TimeUnit)}
+   * repeatedly; consumers backed by a queue should override it to drain
+   * the queue in one go.
+   */
+  protected List<Message> getNext(int maxMessages, long timeout,
+      TimeUnit timeunit) throws InterruptedException, EndOfStreamException {
+    List<Message> messages = new ArrayList<Message>();
+    try {
+      Message msg = getNext(timeout, timeunit);
+      while (msg != null) {
+        messages.add(msg);
+        if (messages.size() == maxMessages) {
+          break;
+        }
+        msg = getNext(0, timeunit);
+      }
+    } catch (EndOfStreamException e) {
+      // hand out what was read; the next call hits the end of stream again
+      if (messages.isEmpty()) {
+        throw e;
+      }
+    }
+    return messages;
+  }
+
   public synchronized Message next()
       throws InterruptedException, EndOfStreamException {
     Message msg = getNext();
@@ -111,6 +142,21 @@ public abstract class AbstractMessageConsumer implements MessageConsumer {
     return msg;
   }
 
+  public synchronized List<Message> next(int maxMessages, long timeout,
+      TimeUnit timeunit) throws InterruptedException, EndOfStreamException {
+    if (maxMessages <= 0) {
+      throw new IllegalArgumentException("maxMessages should be positive: "
+          + maxMessages);
+    }
+    List<Message> messages = getNext(maxMessages, timeout, timeunit);
+    if (!messages.isEmpty()) {
+      metrics.addMessagesConsumed(messages.size());
+    } else {
+      metrics.incrementTimeOutsOnNext();
+    }
+    return messages;
+  }
+
   public synchronized void mark() throws IOException {
     if (isMarkSupported()) {
       doMark();
@@ -21,6 +21,7 @@ package com.inmobi.messaging.consumer;
  */
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import com.inmobi.messaging.Message;
@@ -57,6 +58,30 @@ public interface MessageConsumer {
   public Message next(long timeout, TimeUnit timeunit)
       throws InterruptedException, EndOfStreamException;
 
+  /**
+   * Reads up to <code>maxMessages</code> messages in a single call.
+   *
+   * Waits up to the specified timeout for the first message and then returns
+   * it along with whatever further messages are already available, without
+   * waiting any longer. Messages are returned in the order <code>next</code>
+   * would have returned them, and <code>mark</code> after this call covers
+   * every message in the returned list.
+   *
+   * If the end of the stream is reached after some messages were read, those
+   * messages are returned and the following call throws
+   * {@link EndOfStreamException}.
+   *
+   * @param maxMessages maximum number of messages to return, should be
+   *  positive
+   * @return List of {@link Message} objects, empty if no message was
+   *         available within timeout
+   * @throws InterruptedException if interrupted while waiting for Message
+   * @throws EndOfStreamException When consumer consumed all messages in the
+   *  stream
+   */
+  public List<Message> next(int maxMessages, long timeout, TimeUnit timeunit)
+      throws InterruptedException, EndOfStreamException;
+
   /**
    * Tells if this interface supports <code>mark</code> and <code>reset</code>
    * methods
@@ -0,0 +1,51 @@
+package com.inmobi.messaging.consumer;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.inmobi.messaging.Message;
+
+/**
+ * Callback interface for consumers which push messages instead of being
+ * iterated with <code>next</code>.
+ *
+ * Messages of a partition are delivered in order on a single thread, while
+ * messages of different partitions can be delivered concurrently. So the
+ * implementation should be thread safe.
+ */
+public interface MessageListener {
+
+  /**
+   * Called for every message of the stream.
+   *
+   * The message is taken as processed when this method returns, and only
+   * processed messages are covered by a subsequent <code>mark</code>. If it
+   * throws, delivery stops, the message is not marked and the next
+   * <code>mark</code> throws an IOException caused by the exception.
+   *
+   * @param msg {@link Message} object
+   */
+  public void onMessage(Message msg);
+
+  /**
+   * Called once when all messages till the stop time were delivered.
+   */
+  public void onEndOfStream();
+}
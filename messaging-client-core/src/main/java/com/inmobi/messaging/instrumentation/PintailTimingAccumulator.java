@@ -20,8 +20,10 @@ package com.inmobi.messaging.instrumentation;
  * #L%
  */
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -55,6 +57,20 @@ public class PintailTimingAccumulator {
   private final AtomicLong lostCount = new AtomicLong(0);
   private final AtomicLong reconnectCount = new AtomicLong(0);
   private final AtomicLong exceededMsgSizeCount = new AtomicLong(0);
+  private final AtomicLong reservedBytes = new AtomicLong(0);
+  private final AtomicLong peakReservedBytes = new AtomicLong(0);
+  private final AtomicLong batchCount = new AtomicLong(0);
+  private final AtomicLong batchedMessages = new AtomicLong(0);
+  private final AtomicLong batchNanoseconds = new AtomicLong(0);
+  private final AtomicLong throttleCount = new AtomicLong(0);
+  private final AtomicLong congestionWindow = new AtomicLong(0);
+  // number of threads waiting in awaitSettled
+  private volatile int settleWaiters = 0;
+  private final AtomicLong assignedSequences = new AtomicLong(0);
+  // sequences below the watermark are settled; the bits mark the settled
+  // sequences from the watermark on. Guarded by this.
+  private long settledWatermark = 0;
+  private BitSet settledAbove = new BitSet();
 
   /**
    * The number of times something was invoked.
@@ -74,6 +90,48 @@ public class PintailTimingAccumulator {
     reconnectCount.incrementAndGet();
   }
 
+  /**
+   * The publisher slowed down sending on a congestion signal.
+   */
+  public void accumulateThrottle() {
+    throttleCount.incrementAndGet();
+  }
+
+  /**
+   * Number of messages currently allowed in flight by congestion control.
+   */
+  public void setCongestionWindow(long window) {
+    congestionWindow.set(window);
+  }
+
+  /**
+   * Bytes held in the in-memory queues of the publisher.
+   * Increment when a message is queued, decrement once it leaves the queues.
+   */
+  public void accumulateReservedBytes(long bytes) {
+    long current = reservedBytes.addAndGet(bytes);
+    long peak;
+    while (current > (peak = peakReservedBytes.get())) {
+      if (peakReservedBytes.compareAndSet(peak, current)) {
+        break;
+      }
+    }
+  }
+
+  public void accumulateReleasedBytes(long bytes) {
+    reservedBytes.addAndGet(-bytes);
+  }
+
+  /**
+   * A batch carrying numMessages messages of this topic was sent, taking
+   * nanos to complete irrespective of its outcome.
+   */
+  public void accumulateBatch(long numMessages, long nanos) {
+    batchCount.incrementAndGet();
+    batchedMessages.addAndGet(numMessages);
+    batchNanoseconds.addAndGet(nanos);
+  }
+
   /**
    * Accumulator for time spent in a call
    * Usually incremented only on successful returns
@@ -144,6 +202,90 @@ public class PintailTimingAccumulator {
     }
   }
 
+  /**
+   * Assigns the next sequence number to a message entering the publisher.
+   * Every assigned sequence has to be passed to {@link #settle(long)}
+   * exactly once, when the message is acked, dropped or rejected.
+   */
+  public long assignSequence() {
+    return assignedSequences.getAndIncrement();
+  }
+
+  /**
+   * Number of sequences assigned so far, which is also the next sequence.
+   */
+  public long getAssignedSequences() {
+    return assignedSequences.get();
+  }
+
+  /**
+   * Marks the message with the sequence as settled. Messages can settle in
+   * any order, e.g. after a resend.
+   */
+  public synchronized void settle(long sequence) {
+    if (sequence < settledWatermark) {
+      return;
+    }
+    settledAbove.set((int) (sequence - settledWatermark));
+    int advance = settledAbove.nextClearBit(0);
+    if (advance > 0) {
+      settledWatermark += advance;
+      settledAbove = settledAbove.get(advance, Math.max(advance,
+          settledAbove.length()));
+      if (settleWaiters > 0) {
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * All the sequences below the returned one are settled.
+   */
+  public synchronized long getSettledWatermark() {
+    return settledWatermark;
+  }
+
+  /**
+   * Number of messages with a sequence below the passed one which are not
+   * settled yet.
+   */
+  public synchronized long getUnsettledCount(long sequence) {
+    if (sequence <= settledWatermark) {
+      return 0;
+    }
+    int range = (int) (sequence - settledWatermark);
+    return range - settledAbove.get(0, range).cardinality();
+  }
+
+  /**
+   * Waits till all the messages with a sequence below the passed one are
+   * settled, irrespective of the order they settle in.
+   *
+   * @param sequence The sequence the watermark has to reach
+   * @param timeoutNanos Maximum time to wait in nanoseconds
+   * @return true if the watermark is reached, false if the timeout elapsed
+   * @throws InterruptedException
+   */
+  public boolean awaitSettled(long sequence, long timeoutNanos)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    synchronized (this) {
+      settleWaiters++;
+      try {
+        while (settledWatermark < sequence) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+      } finally {
+        settleWaiters--;
+      }
+    }
+  }
+
   public long getInvocationCount() {
     return invocationCount.get();
   }
@@ -179,6 +321,43 @@ public class PintailTimingAccumulator {
     return exceededMsgSizeCount.get();
   }
 
+  public long getReservedBytes() {
+    return reservedBytes.get();
+  }
+
+  public long getPeakReservedBytes() {
+    return peakReservedBytes.get();
+  }
+
+  public long getThrottleCount() {
+    return throttleCount.get();
+  }
+
+  public long getCongestionWindow() {
+    return congestionWindow.get();
+  }
+
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  public long getBatchedMessages() {
+    return batchedMessages.get();
+  }
+
+  public long getBatchNanoseconds() {
+    return batchNanoseconds.get();
+  }
+
+  /**
+   * Number of invocations which reached a final outcome i.e. success, lost,
+   * graceful terminate or exceeded message size.
+   */
+  public long getSettledCount() {
+    return getSuccessCount() + getLostCount() + getGracefulTerminates()
+        + getExceededMsgSizeCount();
+  }
+
   public long getInFlight() {
     /* We can either choose to maintain yet another variable
      * for counting any form of returns or add all the return counts.
@@ -196,8 +375,7 @@ public class PintailTimingAccumulator {
      * the values is allowed to fluctuate across readings in a busy system
      */
 
-    return getInvocationCount() - (getSuccessCount() + getLostCount()
-        + getGracefulTerminates());
+    return getInvocationCount() - getSettledCount();
   }
 
   @Override
@@ -223,6 +401,13 @@ public class PintailTimingAccumulator {
     hash.put("retryCount", getRetryCount());
     hash.put("reconnects", getReconnectionCount());
     hash.put("exceededMsgSizeCount", getExceededMsgSizeCount());
+    hash.put("reservedBytes", getReservedBytes());
+    hash.put("peakReservedBytes", getPeakReservedBytes());
+    hash.put("throttles", getThrottleCount());
+    hash.put("congestionWindow", getCongestionWindow());
+    hash.put("batchCount", getBatchCount());
+    hash.put("batchedMessages", getBatchedMessages());
+    hash.put("batchNanoseconds", getBatchNanoseconds());
     return hash;
   }
 }
@@ -21,13 +21,18 @@ package com.inmobi.messaging.publisher;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
 
 import com.inmobi.messaging.ClientConfig;
 import com.inmobi.messaging.Message;
@@ -59,6 +64,8 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
   private boolean isAuditEnabled;
   private final AuditService auditService = new AuditService(this);
   public static final String AUDIT_ENABLED_KEY = "audit.enabled";
+  public static final String MEMORY_BUDGET_BYTES_KEY =
+      "publisher.memory.budget.bytes";
   private volatile boolean closing = false;
 
   @Override
@@ -76,6 +83,32 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
     publish(topicName, m, false);
   }
 
+  @Override
+  public void publish(String topicName, TBase thriftObject)
+      throws TException {
+    if (topicName == null) {
+      throw new IllegalArgumentException("Cannot publish to null topic");
+    }
+    if (thriftObject == null) {
+      throw new IllegalArgumentException("Cannot publish null object");
+    }
+    if (closing) {
+      throw new IllegalStateException("publish cannot happen on closed "
+          + "publisher");
+    }
+    Long timestamp = null;
+    Message m;
+    if (isAuditEnabled) {
+      // encode behind the space for headers and write them in place
+      timestamp = new Date().getTime();
+      m = ThriftMessageEncoder.encode(thriftObject, AuditUtil.HEADER_LENGTH);
+      AuditUtil.writeHeadersInPlace(m, timestamp);
+    } else {
+      m = ThriftMessageEncoder.encode(thriftObject, 0);
+    }
+    publish(topicName, m, false, timestamp);
+  }
+
   void publish(String topicName, Message m,
       boolean isPublishedByAuditService) {
     Long timestamp = null;
@@ -85,6 +118,16 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
       AuditUtil.attachHeaders(m, timestamp);
 
     }
+    publish(topicName, m, isPublishedByAuditService, timestamp);
+  }
+
+  /**
+   * Publishes the message which already carries the audit headers, if any.
+   * The size limit applies to the message including the headers.
+   */
+  private void publish(String topicName, Message m,
+      boolean isPublishedByAuditService, Long timestamp) {
+    long sequence;
     // initialization should happen only by one thread
     synchronized (this) {
       if (getStats(topicName) == null) {
@@ -92,9 +135,12 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
         initTopicStats(topicName, stats);
       }
       getStats(topicName).accumulateInvocation();
+      // assigned under the lock, so that flush sees every message before it
+      sequence = getStats(topicName).assignSequence();
       if (m.getSize() > MAX_MSG_SIZE) {
         getStats(topicName).accumulateOutcome(Outcome.EXCEEDED_MSG_SIZE,
             new Date().getTime());
+        getStats(topicName).settle(sequence);
         throw new UnsupportedOperationException("Can not publish the message"
             + " as message size " + m.getSize() + " exceeded allowed max"
             + " msg size " + MAX_MSG_SIZE);
@@ -107,7 +153,49 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
     // TODO: generate headers
     Map<String, String> headers = new HashMap<String, String>();
     headers.put(HEADER_TOPIC, topicName);
-    publish(headers, m);
+    publish(headers, m, sequence);
+  }
+
+  @Override
+  public FlushResult flush(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    Map<PintailTimingAccumulator, long[]> marks =
+        new HashMap<PintailTimingAccumulator, long[]>();
+    synchronized (this) {
+      for (TopicStatsExposer exposer : statsExposers.values()) {
+        PintailTimingAccumulator stats = exposer.getTimingAccumulator();
+        marks.put(stats, new long[] {stats.getAssignedSequences(),
+            stats.getSuccessCount(), stats.getLostCount(),
+            stats.getGracefulTerminates(), stats.getRetryCount() });
+      }
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    boolean completed = true;
+    for (Entry<PintailTimingAccumulator, long[]> entry : marks.entrySet()) {
+      if (!entry.getKey().awaitSettled(entry.getValue()[0],
+          deadline - System.nanoTime())) {
+        completed = false;
+        break;
+      }
+    }
+    long pending = 0, success = 0, lost = 0, graceful = 0, retries = 0;
+    for (Entry<PintailTimingAccumulator, long[]> entry : marks.entrySet()) {
+      PintailTimingAccumulator stats = entry.getKey();
+      long[] mark = entry.getValue();
+      pending += stats.getUnsettledCount(mark[0]);
+      success += stats.getSuccessCount() - mark[1];
+      lost += stats.getLostCount() - mark[2];
+      graceful += stats.getGracefulTerminates() - mark[3];
+      retries += stats.getRetryCount() - mark[4];
+    }
+    FlushResult result = new FlushResult(completed, pending, success, lost,
+        graceful, retries);
+    if (completed) {
+      LOG.debug("Flushed the publisher " + result);
+    } else {
+      LOG.warn("Flush timed out " + result);
+    }
+    return result;
   }
 
   protected void initTopic(String topic, PintailTimingAccumulator stats) {
@@ -117,6 +205,16 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
 
   }
 
+  /**
+   * Closes all the passed topics. Closes them one after another by default;
+   * publishers can override this to close the topics concurrently.
+   */
+  protected void closeTopics(Collection<String> topics) {
+    for (String topic : topics) {
+      closeTopic(topic);
+    }
+  }
+
   /**
    * Initializes stats for the topic
    *
@@ -132,6 +230,23 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
 
   protected abstract void publish(Map<String, String> headers, Message m);
 
+  /**
+   * Publishes the message which got the passed sequence from the stats of
+   * its topic. The message is settled through
+   * {@link PintailTimingAccumulator#settle(long)} once this method returns;
+   * publishers which send messages asynchronously override this to settle
+   * the sequence once the message is acked, dropped or failed, which is what
+   * {@link #flush(long, TimeUnit)} waits for.
+   */
+  protected void publish(Map<String, String> headers, Message m,
+      long sequence) {
+    try {
+      publish(headers, m);
+    } finally {
+      getStats(headers.get(HEADER_TOPIC)).settle(sequence);
+    }
+  }
+
   MessagingClientStatBuilder getMetrics() {
     return statsEmitter;
   }
@@ -157,6 +272,11 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
       if (isAuditEnabled) {
         auditService.init(config);
       }
+      long memoryBudget = config.getLong(MEMORY_BUDGET_BYTES_KEY, -1L);
+      if (memoryBudget > 0
+          && PublisherMemoryBudget.getInstance().configure(memoryBudget)) {
+        LOG.info("Publisher memory budget is " + memoryBudget + " bytes");
+      }
       if (emitterConfig == null) {
         LOG.warn("Stat emitter is disabled as config "
             + MessagePublisherFactory.EMITTER_CONF_FILE_KEY + " is not set in"
@@ -174,24 +294,18 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
   public synchronized void close() {
     closing = true;
     LOG.info("Closing the topics and stat exposers");
-    for (Entry<String, TopicStatsExposer> entry : statsExposers.entrySet()) {
-      String topicName = entry.getKey();
-      if (topicName != AuditUtil.AUDIT_STREAM_TOPIC_NAME) {
-        closeTopic(topicName);
-        statsEmitter.remove(entry.getValue());
-      }
-    }
     if (isAuditEnabled) {
+      // flush the last audit packet before closing the topics, so that the
+      // _audit topic is closed along with the others. The audit counters are
+      // updated on publish, so closing the topics does not change them.
       auditService.close();
-      // check whether _audit topic exist in statsexposer to ensure that some
-      // messages has been published on _audit.There is a case where publisher
-      // has audit enabled but since no messages were published hence no audit
-      // would have been generated
-      if (statsExposers.containsKey(AuditUtil.AUDIT_STREAM_TOPIC_NAME)) {
-        closeTopic(AuditUtil.AUDIT_STREAM_TOPIC_NAME);
-        statsEmitter.remove(statsExposers
-            .get(AuditUtil.AUDIT_STREAM_TOPIC_NAME));
-      }
+    }
+    // _audit topic exists in statsexposer only if some audit messages have
+    // been published
+    Collection<String> topics = new ArrayList<String>(statsExposers.keySet());
+    closeTopics(topics);
+    for (String topicName : topics) {
+      statsEmitter.remove(statsExposers.get(topicName));
     }
   }
 
@@ -23,7 +23,6 @@ package com.inmobi.messaging.publisher;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -34,11 +33,9 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.thrift.TException;
-import org.apache.thrift.TSerializer;
 
 import com.inmobi.audit.thrift.AuditMessage;
 import com.inmobi.messaging.ClientConfig;
-import com.inmobi.messaging.Message;
 import com.inmobi.messaging.publisher.AuditCounterAccumulator.Counters;
 import com.inmobi.messaging.util.AuditUtil;
 
@@ -66,7 +63,6 @@ class AuditService {
   private String hostname;
 
   class AuditWorker implements Runnable {
-    private final TSerializer serializer = new TSerializer();
 
     @Override
     public void run() {
@@ -109,8 +105,8 @@ class AuditService {
     private void publishPacket(AuditMessage packet) {
       try {
         LOG.info("Publishing audit packet" + packet);
-        publisher.publish(AuditUtil.AUDIT_STREAM_TOPIC_NAME, new Message(
-            ByteBuffer.wrap(serializer.serialize(packet))), true);
+        publisher.publish(AuditUtil.AUDIT_STREAM_TOPIC_NAME,
+            ThriftMessageEncoder.encode(packet, 0), true);
       } catch (TException e) {
         LOG.error("Error while serializing the audit packet " + packet, e);
       }
@@ -0,0 +1,86 @@
+package com.inmobi.messaging.publisher;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Outcome of {@link MessagePublisher#flush(long, java.util.concurrent.TimeUnit)}.
+ *
+ * The outcome counts are the number of messages which reached that outcome
+ * while the flush was waiting, summed across all the topics.
+ */
+public class FlushResult {
+  private final boolean completed;
+  private final long pendingCount;
+  private final long successCount;
+  private final long lostCount;
+  private final long gracefulTerminates;
+  private final long retryCount;
+
+  FlushResult(boolean completed, long pendingCount, long successCount,
+      long lostCount, long gracefulTerminates, long retryCount) {
+    this.completed = completed;
+    this.pendingCount = pendingCount;
+    this.successCount = successCount;
+    this.lostCount = lostCount;
+    this.gracefulTerminates = gracefulTerminates;
+    this.retryCount = retryCount;
+  }
+
+  /**
+   * @return true if all the messages published before the flush were acked
+   * or failed, false if the flush timed out.
+   */
+  public boolean isCompleted() {
+    return completed;
+  }
+
+  /**
+   * @return Number of messages published before the flush which were neither
+   * acked nor failed when the flush returned.
+   */
+  public long getPendingCount() {
+    return pendingCount;
+  }
+
+  public long getSuccessCount() {
+    return successCount;
+  }
+
+  public long getLostCount() {
+    return lostCount;
+  }
+
+  public long getGracefulTerminates() {
+    return gracefulTerminates;
+  }
+
+  public long getRetryCount() {
+    return retryCount;
+  }
+
+  @Override
+  public String toString() {
+    return "FlushResult [completed=" + completed + ", pending=" + pendingCount
+        + ", success=" + successCount + ", lost=" + lostCount
+        + ", gracefulTerminates=" + gracefulTerminates + ", retries="
+        + retryCount + "]";
+  }
+}
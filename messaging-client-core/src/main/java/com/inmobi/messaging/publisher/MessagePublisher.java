@@ -20,6 +20,11 @@ package com.inmobi.messaging.publisher;
  * #L%
  */
 
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+
 import com.inmobi.messaging.Message;
 
 /**
@@ -39,6 +44,40 @@ public interface MessagePublisher {
    */
   public void publish(String topicName, Message m);
 
+  /**
+   * Encodes the thrift object with TBinaryProtocol and publishes it onto the
+   * configured concrete MessagePublisher.
+   *
+   * The object is encoded in a single pass into the free space of a per
+   * thread chunk and the message wraps the encoded bytes, without the copy
+   * out of a growing buffer which TSerializer makes. Objects which do not
+   * fit in the rest of the chunk are encoded again into a new one. The
+   * object can be modified once this method returns.
+   *
+   * @param topicName The topic on which the object should be published
+   * @param thriftObject The thrift object to be published
+   * @throws TException if the object could not be encoded
+   */
+  public void publish(String topicName, TBase thriftObject) throws TException;
+
+  /**
+   * Waits till all the messages published before this call, on all the
+   * topics, are either acked or failed. The publisher stays open and
+   * messages can be published while the flush is waiting.
+   *
+   * Every message gets a sequence number per topic when it is published and
+   * the flush waits till all the sequences before the call are settled, so
+   * a message resent on TRY_LATER is waited for even if messages published
+   * later complete first.
+   *
+   * @param timeout The maximum time to wait
+   * @param unit The unit of timeout
+   * @return {@link FlushResult} with the outcome counts
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public FlushResult flush(long timeout, TimeUnit unit)
+      throws InterruptedException;
+
   /**
    * Closes and cleans up any connections, file handles etc.
    *
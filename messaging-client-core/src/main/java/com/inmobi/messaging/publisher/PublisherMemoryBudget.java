@@ -0,0 +1,159 @@
+package com.inmobi.messaging.publisher;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * JVM wide budget of bytes which publishers can hold in their in-memory
+ * queues. The budget is shared across all topics and all publisher instances.
+ *
+ * Publishers reserve the size of the message before queueing it and release
+ * it once the message is acked, dropped or failed. A single message is always
+ * admitted when nothing is reserved, so that a message bigger than the budget
+ * does not block forever.
+ *
+ * The budget is unlimited by default; it is configured through
+ * {@value AbstractMessagePublisher#MEMORY_BUDGET_BYTES_KEY}.
+ */
+public class PublisherMemoryBudget {
+  private static final Log LOG = LogFactory.getLog(PublisherMemoryBudget.class);
+
+  private static final PublisherMemoryBudget instance =
+      new PublisherMemoryBudget(-1);
+
+  private volatile long capacity;
+  private boolean configured = false;
+  private final AtomicLong reserved = new AtomicLong(0);
+  private volatile int waiters = 0;
+
+  PublisherMemoryBudget(long capacity) {
+    this.capacity = capacity;
+  }
+
+  public static PublisherMemoryBudget getInstance() {
+    return instance;
+  }
+
+  /**
+   * Sets the number of bytes all the publishers in this JVM can hold.
+   *
+   * @param capacity The capacity in bytes; non positive value means unlimited
+   */
+  public synchronized void setCapacity(long capacity) {
+    if (this.capacity > 0 && this.capacity != capacity) {
+      LOG.warn("Changing the publisher memory budget from " + this.capacity
+          + " to " + capacity + " bytes");
+    }
+    this.capacity = capacity;
+    notifyAll();
+  }
+
+  /**
+   * Sets the capacity from the config of a publisher. The budget is shared by
+   * all the publishers in the JVM, so only the first configured value is
+   * applied; a different value from a later publisher is ignored with a
+   * warning. Use {@link #setCapacity(long)} to change it explicitly.
+   *
+   * @param capacity The capacity in bytes; non positive value means unlimited
+   * @return true if the capacity was applied
+   */
+  public synchronized boolean configure(long capacity) {
+    if (configured) {
+      if (this.capacity != capacity) {
+        LOG.warn("Ignoring publisher memory budget of " + capacity
+            + " bytes, it is already configured to " + this.capacity
+            + " bytes");
+      }
+      return false;
+    }
+    configured = true;
+    setCapacity(capacity);
+    return true;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public long getReservedBytes() {
+    return reserved.get();
+  }
+
+  /**
+   * Reserves the bytes if the budget has space for them.
+   *
+   * @return true if the bytes were reserved, false if the budget is exhausted
+   */
+  public boolean tryReserve(long bytes) {
+    long limit = capacity;
+    if (limit <= 0) {
+      reserved.addAndGet(bytes);
+      return true;
+    }
+    while (true) {
+      long current = reserved.get();
+      if (current > 0 && current + bytes > limit) {
+        return false;
+      }
+      if (reserved.compareAndSet(current, current + bytes)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Reserves the bytes, waiting till the budget has space for them.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void reserve(long bytes) throws InterruptedException {
+    if (tryReserve(bytes)) {
+      return;
+    }
+    synchronized (this) {
+      waiters++;
+      try {
+        while (!tryReserve(bytes)) {
+          wait();
+        }
+      } finally {
+        waiters--;
+      }
+    }
+  }
+
+  /**
+   * Releases the bytes reserved earlier through {@link #tryReserve(long)} or
+   * {@link #reserve(long)}.
+   */
+  public void release(long bytes) {
+    reserved.addAndGet(-bytes);
+    if (waiters > 0) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+}
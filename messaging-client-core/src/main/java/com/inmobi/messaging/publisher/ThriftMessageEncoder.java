@@ -0,0 +1,148 @@
+package com.inmobi.messaging.publisher;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransport;
+
+import com.inmobi.messaging.Message;
+
+/**
+ * Encodes thrift objects into messages with TBinaryProtocol.
+ *
+ * Every thread encodes into the free space of its own chunk, in a single
+ * pass, and the message wraps exactly the encoded bytes of the chunk. The
+ * next object is encoded behind it, so the encoded bytes are never copied
+ * and messages do not overlap. Once an object does not fit in what is left
+ * of the chunk, it is encoded again into a new chunk, large enough for it,
+ * and the old chunk is freed with the last message wrapping it. A chunk is
+ * therefore kept alive by any of its queued messages.
+ * Space for headers can be reserved in front of the encoded object so that
+ * they can be written in place.
+ */
+final class ThriftMessageEncoder {
+
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<ThriftMessageEncoder> encoders =
+      new ThreadLocal<ThriftMessageEncoder>() {
+    @Override
+    protected ThriftMessageEncoder initialValue() {
+      return new ThriftMessageEncoder();
+    }
+  };
+
+  private final ArrayTransport output = new ArrayTransport();
+  private final TProtocol protocol = new TBinaryProtocol(output);
+  private byte[] chunk = new byte[CHUNK_SIZE];
+  // start of the free space of the chunk
+  private int used = 0;
+
+  private ThriftMessageEncoder() {
+  }
+
+  /**
+   * Encodes the object into a new message.
+   *
+   * @param thriftObject The object to encode
+   * @param headroom Number of bytes reserved in front of the encoded object
+   * @return message of headroom plus encoded length bytes
+   * @throws TException if the object could not be encoded
+   */
+  static Message encode(TBase thriftObject, int headroom) throws TException {
+    return encoders.get().doEncode(thriftObject, headroom);
+  }
+
+  private Message doEncode(TBase thriftObject, int headroom)
+      throws TException {
+    int length = write(thriftObject, headroom);
+    while (used + length > chunk.length) {
+      // did not fit, encode into a new chunk which is large enough
+      chunk = new byte[Math.max(CHUNK_SIZE, length)];
+      used = 0;
+      length = write(thriftObject, headroom);
+    }
+    Message m = new Message(ByteBuffer.wrap(chunk, used, length).slice());
+    used += length;
+    return m;
+  }
+
+  /**
+   * Writes the object behind the headroom into the free space of the chunk.
+   *
+   * @return the length of headroom and encoded object, which did not fit if
+   * it is more than the free space
+   */
+  private int write(TBase thriftObject, int headroom) throws TException {
+    output.reset(chunk, used + headroom);
+    try {
+      thriftObject.write(protocol);
+      return output.position - used;
+    } finally {
+      output.reset(null, 0);
+    }
+  }
+
+  private abstract static class OutputTransport extends TTransport {
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      throw new UnsupportedOperationException("Output only transport");
+    }
+  }
+
+  private static class ArrayTransport extends OutputTransport {
+    private byte[] buf;
+    private int position;
+
+    void reset(byte[] buf, int position) {
+      this.buf = buf;
+      this.position = position;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+      // once the buffer is full only the length is counted, the caller
+      // encodes again into a larger buffer
+      if (position + length <= buf.length) {
+        System.arraycopy(buffer, offset, buf, position, length);
+      }
+      position += length;
+    }
+  }
+}
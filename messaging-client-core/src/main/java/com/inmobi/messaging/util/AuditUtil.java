@@ -40,27 +40,40 @@ public class AuditUtil {
   private static final int POSITION_OF_TIMESTAMP = 4;
 
   public static void attachHeaders(Message m, Long timestamp) {
-    byte[] b = m.getData().array();
-    int messageSize = b.length;
+    ByteBuffer data = m.getData().duplicate();
+    int messageSize = data.remaining();
     int totalSize = messageSize + HEADER_LENGTH;
     ByteBuffer buffer = ByteBuffer.allocate(totalSize);
 
+    writeHeaders(buffer, timestamp, messageSize);
+    // writing message
+    buffer.put(data);
+    buffer.rewind();
+    m.set(buffer);
+    // return new Message(buffer);
+
+  }
+
+  /**
+   * Writes the headers in place into the first HEADER_LENGTH bytes of a
+   * message which were reserved for them in front of the data.
+   */
+  public static void writeHeadersInPlace(Message m, Long timestamp) {
+    ByteBuffer buffer = m.getData().duplicate();
+    writeHeaders(buffer, timestamp, buffer.remaining() - HEADER_LENGTH);
+  }
+
+  private static void writeHeaders(ByteBuffer buffer, long timestamp,
+      int messageSize) {
     // writing version
     buffer.put((byte) currentVersion);
     // writing magic bytes
     buffer.put(magicBytes);
     // writing timestamp
-    long time = timestamp;
-    buffer.putLong(time);
+    buffer.putLong(timestamp);
 
     // writing message size
     buffer.putInt(messageSize);
-    // writing message
-    buffer.put(b);
-    buffer.rewind();
-    m.set(buffer);
-    // return new Message(buffer);
-
   }
 
   public static ByteBuffer removeHeader(byte[] data) {
@@ -72,6 +85,37 @@ public class AuditUtil {
     }
   }
 
+  /**
+   * Moves the position of data past the headers, if the bytes between its
+   * position and limit start with valid headers. Unlike
+   * {@link #removeHeader(byte[])} nothing is copied or allocated.
+   */
+  public static void skipHeader(ByteBuffer data) {
+    if (hasValidHeaders(data)) {
+      data.position(data.position() + HEADER_LENGTH);
+    }
+  }
+
+  private static boolean hasValidHeaders(ByteBuffer data) {
+    int start = data.position();
+    if (data.remaining() < HEADER_LENGTH) {
+      return false;
+    }
+    boolean validVersion = false;
+    for (byte version : versions) {
+      if (data.get(start) == version) {
+        validVersion = true;
+      }
+    }
+    return validVersion
+        && data.get(start + 1) == magicBytes[0]
+        && data.get(start + 2) == magicBytes[1]
+        && data.get(start + 3) == magicBytes[2]
+        && data.getLong(start + POSITION_OF_TIMESTAMP) >= BASE_TIME
+        && data.getInt(start + POSITION_OF_TIMESTAMP + 8)
+            == data.remaining() - HEADER_LENGTH;
+  }
+
   private static boolean isValidHeaders(byte[] data) {
     if (data.length < HEADER_LENGTH) {
       LOG.debug("Total size of data in message is less than length of headers");
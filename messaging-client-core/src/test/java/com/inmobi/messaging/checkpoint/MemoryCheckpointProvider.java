@@ -0,0 +1,50 @@
+package com.inmobi.messaging.checkpoint;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps checkpoints in memory and records the key of every write, so tests
+ * can check what reached the underlying provider.
+ */
+public class MemoryCheckpointProvider implements CheckpointProvider {
+  public final Map<String, byte[]> checkpoints = new HashMap<String, byte[]>();
+  public final List<String> written = new ArrayList<String>();
+
+  @Override
+  public byte[] read(String key) {
+    return checkpoints.get(key);
+  }
+
+  @Override
+  public void checkpoint(String key, byte[] checkpoint) {
+    checkpoints.put(key, checkpoint);
+    written.add(key);
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,79 @@
+package com.inmobi.messaging.checkpoint;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCachingCheckpointProvider {
+
+  @Test
+  public void testUnchangedWritesSkipped() {
+    MemoryCheckpointProvider memory = new MemoryCheckpointProvider();
+    CachingCheckpointProvider provider = new CachingCheckpointProvider(memory);
+    byte[] bytes = new byte[] {1, 2, 3};
+    provider.checkpoint("key", bytes);
+    // changing the passed array must not change the cached copy
+    bytes[0] = 4;
+    provider.checkpoint("key", new byte[] {1, 2, 3});
+    provider.checkpoint("key", new byte[] {1, 2, 4});
+    Assert.assertEquals(memory.written, Arrays.asList("key", "key"));
+    Assert.assertEquals(provider.getSkippedWrites(), 1);
+    Assert.assertEquals(memory.read("key"), new byte[] {1, 2, 4});
+  }
+
+  @Test
+  public void testReadPopulatesCache() {
+    MemoryCheckpointProvider memory = new MemoryCheckpointProvider();
+    memory.checkpoints.put("key", new byte[] {5});
+    CachingCheckpointProvider provider = new CachingCheckpointProvider(memory);
+    Assert.assertEquals(provider.read("key"), new byte[] {5});
+    provider.checkpoint("key", new byte[] {5});
+    Assert.assertTrue(memory.written.isEmpty());
+
+    // reads are not served from the cache
+    memory.checkpoints.put("key", new byte[] {6});
+    Assert.assertEquals(provider.read("key"), new byte[] {6});
+  }
+
+  @Test
+  public void testBatch() {
+    MemoryCheckpointProvider memory = new MemoryCheckpointProvider();
+    memory.checkpoints.put("a", new byte[] {1});
+    CachingCheckpointProvider provider = new CachingCheckpointProvider(memory);
+    Map<String, byte[]> read = provider.read(Arrays.asList("a", "b"));
+    Assert.assertEquals(read.size(), 1);
+    Assert.assertEquals(read.get("a"), new byte[] {1});
+
+    Map<String, byte[]> checkpoints = new HashMap<String, byte[]>();
+    checkpoints.put("a", new byte[] {1});
+    checkpoints.put("b", new byte[] {2});
+    provider.checkpoint(checkpoints);
+    Assert.assertEquals(memory.written, Arrays.asList("b"));
+    provider.checkpoint(checkpoints);
+    Assert.assertEquals(memory.written, Arrays.asList("b"));
+    Assert.assertEquals(provider.getSkippedWrites(), 3);
+  }
+}
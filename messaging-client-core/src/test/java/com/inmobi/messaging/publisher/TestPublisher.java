@@ -28,6 +28,7 @@ import java.util.concurrent.CountDownLatch;
 
 import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -211,6 +212,41 @@ public class TestPublisher {
 
   }
 
+  @Test
+  public void testPublishThriftObject() throws IOException, TException {
+    AuditMessage audit = new AuditMessage();
+    audit.setTopic("topic");
+    audit.setHostname("localhost");
+    byte[] expected = new TSerializer().serialize(audit);
+    String topic = "thrift";
+
+    ClientConfig conf = new ClientConfig();
+    AbstractMessagePublisher publisher =
+        (AbstractMessagePublisher) MessagePublisherFactory.create(conf,
+            MockPublisher.class.getName());
+    publisher.publish(topic, audit);
+    Assert.assertEquals(MockPublisher.getMsg(topic),
+        new Message(expected));
+    Assert.assertEquals(publisher.getStats(topic).getSuccessCount(), 1);
+    MockPublisher.reset(topic);
+    publisher.close();
+
+    // headers are written in front of the encoded object
+    conf.set(AbstractMessagePublisher.AUDIT_ENABLED_KEY, "true");
+    publisher = (AbstractMessagePublisher) MessagePublisherFactory.create(conf,
+        MockPublisher.class.getName());
+    publisher.publish(topic, audit);
+    // the message wraps a slice of the encoder's chunk
+    byte[] published = MockPublisher.getMsg(topic).getBytes();
+    Assert.assertEquals(published.length,
+        expected.length + AuditUtil.HEADER_LENGTH);
+    Assert.assertTrue(AuditUtil.getTimestamp(published) > 0);
+    Assert.assertEquals(AuditUtil.removeHeader(published),
+        ByteBuffer.wrap(expected));
+    MockPublisher.reset(topic);
+    publisher.close();
+  }
+
   private void doTest(AbstractMessagePublisher publisher) {
     String topic1 = "test1";
     String topic2 = "test2";
@@ -224,7 +260,7 @@ public class TestPublisher {
     String nullTopic = null;
     // publish null message
     try {
-      publisher.publish(topic, null);
+      publisher.publish(topic, (Message) null);
     } catch (Throwable t) {
       th = t;
     }
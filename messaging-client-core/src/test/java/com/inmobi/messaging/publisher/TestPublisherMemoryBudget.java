@@ -0,0 +1,104 @@
+package com.inmobi.messaging.publisher;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+
+public class TestPublisherMemoryBudget {
+
+  @Test
+  public void testTryReserve() {
+    PublisherMemoryBudget budget = new PublisherMemoryBudget(100);
+    Assert.assertTrue(budget.tryReserve(60));
+    Assert.assertFalse(budget.tryReserve(60));
+    Assert.assertTrue(budget.tryReserve(40));
+    Assert.assertEquals(budget.getReservedBytes(), 100);
+    budget.release(60);
+    Assert.assertTrue(budget.tryReserve(60));
+    budget.release(100);
+    Assert.assertEquals(budget.getReservedBytes(), 0);
+    // a message bigger than the budget is admitted when nothing is reserved
+    Assert.assertTrue(budget.tryReserve(500));
+    Assert.assertFalse(budget.tryReserve(1));
+    budget.release(500);
+  }
+
+  @Test
+  public void testUnlimited() {
+    PublisherMemoryBudget budget = new PublisherMemoryBudget(-1);
+    Assert.assertTrue(budget.tryReserve(Integer.MAX_VALUE));
+    Assert.assertTrue(budget.tryReserve(Integer.MAX_VALUE));
+    Assert.assertEquals(budget.getReservedBytes(), 2L * Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void testConfigureOnce() {
+    PublisherMemoryBudget budget = new PublisherMemoryBudget(-1);
+    Assert.assertTrue(budget.configure(100));
+    // a later publisher with a different value does not shrink the budget
+    Assert.assertFalse(budget.configure(10));
+    Assert.assertFalse(budget.configure(100));
+    Assert.assertEquals(budget.getCapacity(), 100);
+    budget.setCapacity(200);
+    Assert.assertEquals(budget.getCapacity(), 200);
+  }
+
+  @Test
+  public void testReserveWaitsForRelease() throws Exception {
+    final PublisherMemoryBudget budget = new PublisherMemoryBudget(100);
+    Assert.assertTrue(budget.tryReserve(100));
+    final CountDownLatch reserved = new CountDownLatch(1);
+    Thread waiter = new Thread() {
+      public void run() {
+        try {
+          budget.reserve(50);
+          reserved.countDown();
+        } catch (InterruptedException e) {
+          // test fails on latch timeout
+        }
+      }
+    };
+    waiter.start();
+    Assert.assertFalse(reserved.await(200, TimeUnit.MILLISECONDS));
+    budget.release(60);
+    Assert.assertTrue(reserved.await(10, TimeUnit.SECONDS));
+    waiter.join();
+    Assert.assertEquals(budget.getReservedBytes(), 90);
+  }
+
+  @Test
+  public void testReservedBytesStats() {
+    PintailTimingAccumulator stats = new PintailTimingAccumulator();
+    stats.accumulateReservedBytes(10);
+    stats.accumulateReservedBytes(20);
+    stats.accumulateReleasedBytes(25);
+    stats.accumulateReservedBytes(5);
+    Assert.assertEquals(stats.getReservedBytes(), 10);
+    Assert.assertEquals(stats.getPeakReservedBytes(), 30);
+    Assert.assertEquals(stats.getMap().get("peakReservedBytes"), 30L);
+  }
+}
@@ -25,6 +25,8 @@ import java.util.Calendar;
 
 import org.testng.annotations.Test;
 
+import com.inmobi.messaging.Message;
+
 public class AuditUtilTest {
 
   @Test
@@ -41,6 +43,28 @@ public class AuditUtilTest {
     assert (returned.capacity() + AuditUtil.HEADER_LENGTH == buffer.capacity());
   }
 
+  @Test
+  public void testSkipHeader() {
+    String data = "test data";
+    byte[] array = new byte[data.length() + AuditUtil.HEADER_LENGTH + 10];
+    ByteBuffer buffer = ByteBuffer.wrap(array);
+    buffer.put((byte) 1);
+    buffer.put(AuditUtil.magicBytes);
+    buffer.putLong(System.currentTimeMillis());
+    buffer.putInt(data.length());
+    buffer.put(data.getBytes());
+    buffer.flip();
+    AuditUtil.skipHeader(buffer);
+    assert (buffer.position() == AuditUtil.HEADER_LENGTH);
+    assert (buffer.remaining() == data.length());
+
+    // no headers, the data is left as is
+    buffer.limit(buffer.limit() - 1);
+    buffer.position(AuditUtil.HEADER_LENGTH);
+    AuditUtil.skipHeader(buffer);
+    assert (buffer.position() == AuditUtil.HEADER_LENGTH);
+  }
+
   @Test
   public void testRemoveHeadersInvalidVersion() {
     String data = "test data";
@@ -114,4 +138,29 @@ public class AuditUtilTest {
     assert (returned.array().equals(buffer.array()));
   }
 
+  @Test
+  public void testAttachHeadersToSlice() {
+    byte[] data = "xxtest datayy".getBytes();
+    long timestamp = System.currentTimeMillis();
+    Message slice = new Message(data, 2, 9);
+    assert (slice.getSize() == 9);
+    AuditUtil.attachHeaders(slice, timestamp);
+    assert (slice.getSize() == 9 + AuditUtil.HEADER_LENGTH);
+    byte[] withHeaders = slice.getBytes();
+    assert (AuditUtil.getTimestamp(withHeaders) == timestamp);
+    assert (AuditUtil.removeHeader(withHeaders).equals(
+        ByteBuffer.wrap("test data".getBytes())));
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data);
+    direct.position(2);
+    direct.limit(11);
+    Message directMsg = new Message(direct);
+    AuditUtil.attachHeaders(directMsg, timestamp);
+    assert (AuditUtil.removeHeader(directMsg.getBytes()).equals(
+        ByteBuffer.wrap("test data".getBytes())));
+    // the source buffer is not consumed
+    assert (direct.position() == 2);
+  }
+
 }
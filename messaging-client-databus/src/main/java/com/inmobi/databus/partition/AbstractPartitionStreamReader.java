@@ -25,6 +25,7 @@ import java.io.IOException;
 import com.inmobi.databus.files.StreamFile;
 import com.inmobi.databus.readers.StreamReader;
 import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.databus.MessagePool;
 
 public abstract class AbstractPartitionStreamReader implements
      PartitionStreamReader {
@@ -69,4 +70,11 @@ public abstract class AbstractPartitionStreamReader implements
     return reader.readLine();
   }
 
+  @Override
+  public void setMessagePool(MessagePool messagePool) {
+    if (reader != null) {
+      reader.setMessagePool(messagePool);
+    }
+  }
+
 }
@@ -34,6 +34,7 @@ import com.inmobi.databus.readers.CollectorStreamReader;
 import com.inmobi.databus.readers.LocalStreamCollectorReader;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
+import com.inmobi.messaging.consumer.databus.MessagePool;
 import com.inmobi.messaging.metrics.CollectorReaderStatsExposer;
 
 public class CollectorReader extends AbstractPartitionStreamReader {
@@ -84,6 +85,14 @@ public class CollectorReader extends AbstractPartitionStreamReader {
         conf, noNewFiles, stopTime, isLocalStreamAvailable);
   }
 
+  @Override
+  public void setMessagePool(MessagePool messagePool) {
+    if (lReader != null) {
+      lReader.setMessagePool(messagePool);
+    }
+    cReader.setMessagePool(messagePool);
+  }
+
   private void initializeCurrentFileFromTimeStamp(Date timestamp)
       throws IOException, InterruptedException {
     if (lReader.initializeCurrentFile(timestamp)) {
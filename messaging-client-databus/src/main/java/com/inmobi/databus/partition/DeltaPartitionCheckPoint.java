@@ -26,28 +26,112 @@ import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Checkpoint of a message read from a minute directory stream: the position
+ * of the message in its minute plus the checkpoints of the minutes the
+ * reader moved across since the previous message.
+ *
+ * A checkpoint is created for every message while most of them are never
+ * marked, so the position is kept as the stream file and line number and
+ * the per minute map is only built when {@link #getDeltaCheckpoint()} is
+ * called. The map is not allocated at all while the reader stays within a
+ * file.
+ */
 public class DeltaPartitionCheckPoint implements MessageCheckpoint {
-  private final Map<Integer, PartitionCheckpoint> deltaCheckpoint =
-      new HashMap<Integer, PartitionCheckpoint>();
+  // minutes other than the one of the current position, null if none
+  private Map<Integer, PartitionCheckpoint> deltaCheckpoint;
+  private StreamFile streamFile;
+  private long lineNum;
+  private Integer minId;
 
   public DeltaPartitionCheckPoint(StreamFile streamFile, long lineNum,
       Integer minId, Map<Integer, PartitionCheckpoint> deltaCheckpoint) {
-    this.deltaCheckpoint.putAll(deltaCheckpoint);
-    this.deltaCheckpoint.put(minId,
-        new PartitionCheckpoint(streamFile, lineNum));
+    if (!deltaCheckpoint.isEmpty()) {
+      this.deltaCheckpoint =
+          new HashMap<Integer, PartitionCheckpoint>(deltaCheckpoint);
+    }
+    this.streamFile = streamFile;
+    this.lineNum = lineNum;
+    this.minId = minId;
   }
 
   public DeltaPartitionCheckPoint(
       Map<Integer, PartitionCheckpoint> deltaCheckpoint) {
-    this.deltaCheckpoint.putAll(deltaCheckpoint);
+    this.deltaCheckpoint =
+        new HashMap<Integer, PartitionCheckpoint>(deltaCheckpoint);
+  }
+
+  /**
+   * Creates a copy which can be extended with {@link #add} without changing
+   * the passed checkpoint.
+   */
+  public DeltaPartitionCheckPoint(DeltaPartitionCheckPoint other) {
+    if (other.deltaCheckpoint != null) {
+      this.deltaCheckpoint =
+          new HashMap<Integer, PartitionCheckpoint>(other.deltaCheckpoint);
+    }
+    this.streamFile = other.streamFile;
+    this.lineNum = other.lineNum;
+    this.minId = other.minId;
+  }
+
+  /**
+   * Moves this checkpoint past the next checkpoint of the same partition.
+   * The result is the same as putting all minutes of next into
+   * {@link #getDeltaCheckpoint()}, but a PartitionCheckpoint is created only
+   * when the position moves to another minute.
+   */
+  public void add(DeltaPartitionCheckPoint next) {
+    if (next.deltaCheckpoint != null) {
+      flushPosition();
+      if (deltaCheckpoint == null) {
+        deltaCheckpoint =
+            new HashMap<Integer, PartitionCheckpoint>(next.deltaCheckpoint);
+      } else {
+        deltaCheckpoint.putAll(next.deltaCheckpoint);
+      }
+    }
+    if (next.minId != null) {
+      if (minId != null && !minId.equals(next.minId)) {
+        flushPosition();
+      }
+      streamFile = next.streamFile;
+      lineNum = next.lineNum;
+      minId = next.minId;
+    }
+  }
+
+  private void flushPosition() {
+    if (minId == null) {
+      return;
+    }
+    if (deltaCheckpoint == null) {
+      deltaCheckpoint = new HashMap<Integer, PartitionCheckpoint>();
+    }
+    deltaCheckpoint.put(minId, new PartitionCheckpoint(streamFile, lineNum));
+    streamFile = null;
+    minId = null;
+  }
+
+  /**
+   * Returns the file of the current position, null if there is none or it
+   * was already moved into {@link #getDeltaCheckpoint()}.
+   */
+  public StreamFile getStreamFile() {
+    return streamFile;
   }
 
   @Override
   public String toString() {
-    return this.deltaCheckpoint.toString();
+    // on a copy, moving the position into the map would clear the stream file
+    return new DeltaPartitionCheckPoint(this).getDeltaCheckpoint().toString();
   }
 
   public Map<Integer, PartitionCheckpoint> getDeltaCheckpoint() {
+    flushPosition();
+    if (deltaCheckpoint == null) {
+      deltaCheckpoint = new HashMap<Integer, PartitionCheckpoint>();
+    }
     return deltaCheckpoint;
   }
 
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,7 +36,9 @@ import com.inmobi.databus.files.StreamFile;
 import com.inmobi.messaging.EOFMessage;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
+import com.inmobi.messaging.consumer.databus.MessagePool;
 import com.inmobi.messaging.consumer.databus.QueueEntry;
+import com.inmobi.messaging.consumer.databus.QueueEntrySink;
 import com.inmobi.messaging.metrics.CollectorReaderStatsExposer;
 import com.inmobi.messaging.metrics.PartitionReaderStatsExposer;
 
@@ -44,7 +47,7 @@ public class PartitionReader {
   private static final Log LOG = LogFactory.getLog(PartitionReader.class);
 
   private final PartitionId partitionId;
-  private final BlockingQueue<QueueEntry> buffer;
+  private final QueueEntrySink buffer;
   private PartitionStreamReader reader;
 
   private Thread thread;
@@ -59,6 +62,18 @@ public class PartitionReader {
       Date startTime, long waitTimeForFlush,
       long waitTimeForFileCreate, PartitionReaderStatsExposer prMetrics, Date stopTime)
           throws IOException {
+    this(partitionId, partitionCheckpoint, conf, fs, collectorDataDir,
+        streamsLocalDir, asSink(buffer), streamName, startTime,
+        waitTimeForFlush, waitTimeForFileCreate, prMetrics, false, stopTime);
+  }
+
+  public PartitionReader(PartitionId partitionId,
+      PartitionCheckpoint partitionCheckpoint, Configuration conf,
+      FileSystem fs, Path collectorDataDir,
+      Path streamsLocalDir, QueueEntrySink buffer, String streamName,
+      Date startTime, long waitTimeForFlush,
+      long waitTimeForFileCreate, PartitionReaderStatsExposer prMetrics, Date stopTime)
+          throws IOException {
     this(partitionId, partitionCheckpoint, conf, fs, collectorDataDir,
         streamsLocalDir, buffer, streamName, startTime,
         waitTimeForFlush, waitTimeForFileCreate, prMetrics, false, stopTime);
@@ -72,6 +87,19 @@ public class PartitionReader {
       PartitionReaderStatsExposer prMetrics, Set<Integer> partitionMinList,
       Date stopTime)
           throws IOException {
+    this(partitionId, partitionCheckpointList, fs, asSink(buffer), streamDir,
+        conf, inputFormatClass, startTime, waitTimeForFileCreate, isDatabusData,
+        prMetrics, false, partitionMinList, stopTime);
+  }
+
+  public PartitionReader(PartitionId partitionId,
+      PartitionCheckpointList partitionCheckpointList, FileSystem fs,
+      QueueEntrySink buffer, Path streamDir,
+      Configuration conf, String inputFormatClass,
+      Date startTime, long waitTimeForFileCreate, boolean isDatabusData,
+      PartitionReaderStatsExposer prMetrics, Set<Integer> partitionMinList,
+      Date stopTime)
+          throws IOException {
     this(partitionId, partitionCheckpointList, fs, buffer, streamDir,
         conf, inputFormatClass, startTime, waitTimeForFileCreate, isDatabusData,
         prMetrics, false, partitionMinList, stopTime);
@@ -86,6 +114,21 @@ public class PartitionReader {
       long waitTimeForFlush, long waitTimeForFileCreate,
       PartitionReaderStatsExposer prMetrics, boolean noNewFiles, Date stopTime)
           throws IOException {
+    this(partitionId, partitionCheckpoint, conf, fs, collectorDataDir,
+        streamLocalDir, asSink(buffer), streamName, startTime,
+        waitTimeForFlush, waitTimeForFileCreate, prMetrics, noNewFiles,
+        stopTime);
+  }
+
+  PartitionReader(PartitionId partitionId,
+      PartitionCheckpoint partitionCheckpoint, Configuration conf,
+      FileSystem fs,
+      Path collectorDataDir,
+      Path streamLocalDir,
+      QueueEntrySink buffer, String streamName, Date startTime,
+      long waitTimeForFlush, long waitTimeForFileCreate,
+      PartitionReaderStatsExposer prMetrics, boolean noNewFiles, Date stopTime)
+          throws IOException {
     this(partitionId, partitionCheckpoint, buffer, startTime, prMetrics);
     reader = new CollectorReader(partitionId, partitionCheckpoint, fs,
         streamName, collectorDataDir, streamLocalDir, conf,
@@ -106,6 +149,19 @@ public class PartitionReader {
       PartitionReaderStatsExposer prMetrics, boolean noNewFiles,
       Set<Integer> partitionMinList, Date stopTime)
           throws IOException {
+    this(partitionId, partitionCheckpointList, fs, asSink(buffer), streamDir,
+        conf, inputFormatClass, startTime, waitTimeForFileCreate, isDatabusData,
+        prMetrics, noNewFiles, partitionMinList, stopTime);
+  }
+
+  PartitionReader(PartitionId partitionId,
+      PartitionCheckpointList partitionCheckpointList, FileSystem fs,
+      QueueEntrySink buffer, Path streamDir,
+      Configuration conf, String inputFormatClass,
+      Date startTime, long waitTimeForFileCreate, boolean isDatabusData,
+      PartitionReaderStatsExposer prMetrics, boolean noNewFiles,
+      Set<Integer> partitionMinList, Date stopTime)
+          throws IOException {
     this(partitionId, partitionCheckpointList, buffer, startTime, prMetrics);
     reader = new ClusterReader(partitionId, partitionCheckpointList,
         fs, streamDir, conf, inputFormatClass, startTime,
@@ -120,7 +176,7 @@ public class PartitionReader {
 
   private PartitionReader(PartitionId partitionId,
       MessageCheckpoint msgCheckpoint,
-      BlockingQueue<QueueEntry> buffer, Date startTime,
+      QueueEntrySink buffer, Date startTime,
       PartitionReaderStatsExposer prMetrics)
           throws IOException {
     this.partitionId = partitionId;
@@ -128,6 +184,29 @@ public class PartitionReader {
     this.prMetrics = prMetrics;
   }
 
+  /**
+   * Puts the entries of a reader created with a plain queue into it.
+   */
+  private static QueueEntrySink asSink(final BlockingQueue<QueueEntry> queue) {
+    return new QueueEntrySink() {
+      @Override
+      public void put(QueueEntry entry) throws InterruptedException {
+        queue.put(entry);
+      }
+
+      @Override
+      public boolean offer(QueueEntry entry) {
+        return queue.offer(entry);
+      }
+
+      @Override
+      public boolean offer(QueueEntry entry, long timeout, TimeUnit unit)
+          throws InterruptedException {
+        return queue.offer(entry, timeout, unit);
+      }
+    };
+  }
+
   public synchronized void start(String readerNameSuffix) {
     Runnable runnable = new Runnable() {
       @Override
@@ -208,6 +287,14 @@ public class PartitionReader {
     return reader;
   }
 
+  /**
+   * Decode the messages of this partition into messages taken from the given
+   * pool. Must be called before the reader is started.
+   */
+  public void setMessagePool(MessagePool messagePool) {
+    reader.setMessagePool(messagePool);
+  }
+
   /**
    * Execute reads messages from the stream and adds them to the consumer buffer,
    * until no more messages are present or any exception occurs while reading
@@ -25,6 +25,7 @@ import java.io.IOException;
 import com.inmobi.databus.files.StreamFile;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
+import com.inmobi.messaging.consumer.databus.MessagePool;
 
 public interface PartitionStreamReader {
 
@@ -45,4 +46,6 @@ public interface PartitionStreamReader {
   MessageCheckpoint getMessageCheckpoint();
 
   MessageCheckpoint buildStartPartitionCheckpoints();
+
+  void setMessagePool(MessagePool messagePool);
 }
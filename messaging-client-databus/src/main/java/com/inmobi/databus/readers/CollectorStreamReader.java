@@ -23,6 +23,7 @@ package com.inmobi.databus.readers;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.TreeMap;
 
@@ -56,6 +57,9 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
   private boolean moveToNext = false;
   private CollectorReaderStatsExposer collectorMetrics;
   private StringBuilder builder = new StringBuilder();
+  // partial line read so far, used instead of builder with a message pool
+  private byte[] lineBytes = new byte[256];
+  private int lineLength = 0;
   private boolean isS3Fs = false;
   private boolean isLocalStreamAvailable;
 
@@ -182,6 +186,9 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
   }
 
   protected Message readRawLine() throws IOException {
+    if (messagePool != null) {
+      return readPooledLine();
+    }
     int next = reader.read();
     while ((char) next != '\n') {
       if (next == -1) {
@@ -200,6 +207,30 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
     }
   }
 
+  /**
+   * Same as the default path of {@link #readRawLine()}, but the line is kept
+   * in a reused byte array and decoded into a recycled message.
+   */
+  private Message readPooledLine() throws IOException {
+    int next = reader.read();
+    while ((char) next != '\n') {
+      if (next == -1) {
+        LOG.info("reading EOF before a line feed ");
+        return null;
+      }
+      if (lineLength == lineBytes.length) {
+        lineBytes = Arrays.copyOf(lineBytes, lineLength * 2);
+      }
+      // base64 lines are ascii
+      lineBytes[lineLength++] = (byte) next;
+      next = reader.read();
+    }
+    Message msg = messagePool.acquire();
+    DatabusUtil.decodeMessage(lineBytes, 0, lineLength, msg);
+    lineLength = 0;
+    return msg;
+  }
+
   @Override
   protected Date getTimeStampFromCollectorStreamFile(FileStatus file) {
     try {
@@ -229,6 +260,10 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
       LOG.warn("Discarding partial message " + builder.toString());
       builder.setLength(0);
     }
+    if (lineLength != 0) {
+      LOG.warn("Discarding partial message of " + lineLength + " bytes");
+      lineLength = 0;
+    }
   }
 
   protected void skipOldData()
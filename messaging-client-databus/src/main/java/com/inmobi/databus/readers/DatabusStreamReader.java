@@ -51,6 +51,7 @@ import com.inmobi.databus.files.StreamFile;
 import com.inmobi.databus.partition.PartitionId;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.InvalidCheckpointException;
+import com.inmobi.messaging.consumer.databus.mapred.DatabusRecordReader;
 import com.inmobi.messaging.metrics.PartitionReaderStatsExposer;
 
 public abstract class DatabusStreamReader<T extends StreamFile>
@@ -135,6 +136,10 @@ public abstract class DatabusStreamReader<T extends StreamFile>
         recordReader = input.getRecordReader(currentFileSplit, new JobConf(conf),
             Reporter.NULL);
         metrics.incrementNumberRecordReaders();
+        if (messagePool != null
+            && recordReader instanceof DatabusRecordReader) {
+          ((DatabusRecordReader) recordReader).setReuseValues(true);
+        }
         msgKey = recordReader.createKey();
         msgValue = recordReader.createValue();
         if (msgValue instanceof Writable) {
@@ -164,7 +169,8 @@ public abstract class DatabusStreamReader<T extends StreamFile>
   protected Message readRawLine() throws IOException {
     if (recordReader != null) {
       if (!needsSerialize) {
-        msgValue = recordReader.createValue();
+        msgValue = messagePool != null ? messagePool.acquire()
+            : recordReader.createValue();
       }
       boolean ret = recordReader.next(msgKey, msgValue);
       if (ret) {
@@ -37,6 +37,7 @@ import com.inmobi.databus.files.StreamFile;
 import com.inmobi.databus.partition.PartitionCheckpoint;
 import com.inmobi.databus.partition.PartitionId;
 import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.databus.MessagePool;
 import com.inmobi.messaging.metrics.PartitionReaderStatsExposer;
 
 import org.apache.hadoop.fs.PathFilter;
@@ -58,7 +59,11 @@ public abstract class StreamReader<T extends StreamFile> {
   protected volatile boolean closed = false;
   protected boolean noNewFiles = false; // this is purely for tests
   protected FileStatus currentFile;
+  private FileStatus currentStreamFileStatus;
+  private T currentStreamFile;
   protected long currentLineNum = 0;
+  // messages are decoded into recycled ones if set
+  protected MessagePool messagePool;
 
   protected StreamReader(PartitionId partitionId, FileSystem fs,
       Path streamDir, long waitTimeForCreate,
@@ -79,6 +84,10 @@ public abstract class StreamReader<T extends StreamFile> {
     return true;
   }
 
+  public void setMessagePool(MessagePool messagePool) {
+    this.messagePool = messagePool;
+  }
+
   public boolean openStream() throws IOException {
     return openCurrentFile(false);
   }
@@ -211,7 +220,13 @@ public abstract class StreamReader<T extends StreamFile> {
     if (currentFile == null) {
       return null;
     }
-    return getStreamFile(currentFile);
+    // called by the reader thread for every message; parse the file name
+    // only once per file
+    if (currentFile != currentStreamFileStatus) {
+      currentStreamFile = getStreamFile(currentFile);
+      currentStreamFileStatus = currentFile;
+    }
+    return currentStreamFile;
   }
 
   public long getCurrentLineNum() {
@@ -20,25 +20,49 @@ package com.inmobi.messaging.checkpoint;
  * #L%
  */
 
-import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
 /**
  * Stores the Checkpoint in the filesystem
+ *
+ * Each key is a file which is read in a single call. Batches of keys are
+ * read and written in parallel, as every file costs a few round trips to the
+ * filesystem.
  */
-public class FSCheckpointProvider implements CheckpointProvider {
+public class FSCheckpointProvider extends AbstractCheckpointProvider {
   private static final Log LOG = LogFactory.getLog(FSCheckpointProvider.class);
+  private static final int MAX_THREADS = 8;
+  private static final long IDLE_SECONDS = 60;
 
   private final FileSystem fs;
   private final Path baseDir;
+  // created on the first batch of more than one key
+  private ExecutorService executor;
 
   public FSCheckpointProvider(String dir) {
     this.baseDir = new Path(dir);
@@ -57,32 +81,24 @@ public class FSCheckpointProvider implements CheckpointProvider {
   @Override
   public byte[] read(String key) {
     Path currentCheckpoint = getCheckpointPath(key);
-    BufferedInputStream in=null;
-    byte[] buffer = null;
+    LOG.info("checkpoint path:" + currentCheckpoint);
+    FSDataInputStream in = null;
     try {
-      LOG.info("checkpoint path:" + currentCheckpoint);
-      if (!fs.exists(currentCheckpoint)) {
+      FileStatus status;
+      try {
+        status = fs.getFileStatus(currentCheckpoint);
+      } catch (FileNotFoundException e) {
         LOG.info("No checkpoint to read");
         return null;
       }
-      in = new BufferedInputStream(
-      fs.open(currentCheckpoint));
-      ArrayList<Byte> tempList = new ArrayList<Byte>();
-      int next = in.read();
-      while(next!=-1){
-        tempList.add((byte)next);
-        next = in.read();
-      }
-      Byte[] bytes = tempList.toArray(new Byte[tempList.size()]);
-      buffer = new byte[tempList.size()];
-      for (int i = 0; i < buffer.length; i++) {
-        buffer[i] = bytes[i].byteValue();
-      }
+      byte[] buffer = new byte[(int) status.getLen()];
+      in = fs.open(currentCheckpoint);
+      in.readFully(buffer);
+      return buffer;
     } catch (IOException e) {
       LOG.warn("Could not read checkpoint ", e);
       throw new RuntimeException(e);
-    }
-    finally {
+    } finally {
       try {
         if (in != null)
           in.close();
@@ -91,7 +107,30 @@ public class FSCheckpointProvider implements CheckpointProvider {
         throw new RuntimeException(e);
       }
     }
-    return buffer;
+  }
+
+  @Override
+  public Map<String, byte[]> read(Collection<String> keys) {
+    List<String> keyList = new ArrayList<String>(keys);
+    List<Callable<byte[]>> reads = new ArrayList<Callable<byte[]>>();
+    for (final String key : keyList) {
+      reads.add(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          return read(key);
+        }
+      });
+    }
+    List<byte[]> results = runAll(reads);
+    Map<String, byte[]> checkpoints = new HashMap<String, byte[]>();
+    Iterator<byte[]> it = results.iterator();
+    for (String key : keyList) {
+      byte[] checkpoint = it.next();
+      if (checkpoint != null) {
+        checkpoints.put(key, checkpoint);
+      }
+    }
+    return checkpoints;
   }
 
   private Path getCheckpointPath(String key) {
@@ -106,13 +145,8 @@ public class FSCheckpointProvider implements CheckpointProvider {
   public void checkpoint(String key, byte[] checkpoint) {
     Path newCheckpoint = getNewCheckpointPath(key);
     try {
-
-      if (fs.exists(newCheckpoint)) {
-        LOG.info("Old Temporary checkpoint file exists. Deleting [" +
-        newCheckpoint +"]");
-        fs.delete(newCheckpoint, true);
-      }
-      FSDataOutputStream out = fs.create(newCheckpoint);
+      // overwrites a temporary file left over by a failed checkpoint
+      FSDataOutputStream out = fs.create(newCheckpoint, true);
       try {
         out.write(checkpoint);
       }
@@ -130,7 +164,96 @@ public class FSCheckpointProvider implements CheckpointProvider {
   }
 
   @Override
-  public void close() {
+  public void checkpoint(Map<String, byte[]> checkpoints) {
+    List<Callable<byte[]>> writes = new ArrayList<Callable<byte[]>>();
+    for (final Map.Entry<String, byte[]> entry : checkpoints.entrySet()) {
+      writes.add(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          checkpoint(entry.getKey(), entry.getValue());
+          return null;
+        }
+      });
+    }
+    runAll(writes);
+  }
+
+  /**
+   * Runs the tasks on the executor, or in the calling thread if there is
+   * only one, and returns their results in order. The first failure is
+   * thrown after all the tasks completed.
+   */
+  private List<byte[]> runAll(List<Callable<byte[]>> tasks) {
+    List<byte[]> results = new ArrayList<byte[]>(tasks.size());
+    if (tasks.isEmpty()) {
+      return results;
+    }
+    if (tasks.size() == 1) {
+      try {
+        results.add(tasks.get(0).call());
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return results;
+    }
+    List<Future<byte[]>> futures;
+    try {
+      futures = getExecutor().invokeAll(tasks);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    RuntimeException failure = null;
+    for (Future<byte[]> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        results.add(null);
+        if (failure == null) {
+          failure = e.getCause() instanceof RuntimeException ?
+              (RuntimeException) e.getCause() : new RuntimeException(
+                  e.getCause());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return results;
+  }
+
+  private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger count = new AtomicInteger(0);
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS,
+          MAX_THREADS, IDLE_SECONDS, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "FSCheckpointProvider-"
+                  + count.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      // checkpoints are written once in a while, do not keep idle threads
+      pool.allowCoreThreadTimeOut(true);
+      executor = pool;
+    }
+    return executor;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
   }
 
 }
@@ -22,13 +22,14 @@ package com.inmobi.messaging.consumer.databus;
 
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
@@ -37,13 +38,17 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.security.SecurityUtil;
 import org.apache.hadoop.security.UserGroupInformation;
 
+import com.inmobi.databus.partition.DeltaPartitionCheckPoint;
 import com.inmobi.databus.partition.PartitionId;
 import com.inmobi.databus.partition.PartitionReader;
 import com.inmobi.messaging.ClientConfig;
 import com.inmobi.messaging.Message;
+import com.inmobi.messaging.checkpoint.CachingCheckpointProvider;
 import com.inmobi.messaging.checkpoint.CheckpointProvider;
 import com.inmobi.messaging.consumer.AbstractMessageConsumer;
+import com.inmobi.messaging.consumer.BaseMessageConsumerStatsExposer;
 import com.inmobi.messaging.consumer.EndOfStreamException;
+import com.inmobi.messaging.consumer.MessageListener;
 import com.inmobi.messaging.instrumentation.AbstractMessagingClientStatsExposer;
 import com.inmobi.messaging.metrics.DatabusConsumerStatsExposer;
 
@@ -53,11 +58,15 @@ public abstract class AbstractMessagingDatabusConsumer
       AbstractMessagingDatabusConsumer.class);
   protected static final long ONE_MINUTE_IN_MILLIS = 1 * 60 * 1000;
 
-  protected BlockingQueue<QueueEntry> buffer;
+  protected PartitionedBuffer buffer;
+  protected MessagePool messagePool;
 
   protected final Map<PartitionId, PartitionReader> readers =
       new HashMap<PartitionId, PartitionReader>();
 
+  // checkpoints of consumed messages, applied to currentCheckpoint on mark
+  private final Map<PartitionId, MessageCheckpoint> pendingCheckpoints =
+      new HashMap<PartitionId, MessageCheckpoint>();
   protected Map<PartitionId, Boolean> messageConsumedMap = new HashMap
       <PartitionId, Boolean>();
 
@@ -65,14 +74,32 @@ public abstract class AbstractMessagingDatabusConsumer
   protected ConsumerCheckpoint currentCheckpoint;
   protected long waitTimeForFileCreate;
   protected int bufferSize;
+  protected int bufferBytes;
+  protected boolean orderedMerge;
+  protected long orderedMergeIdleTimeout;
   protected String retentionInHours;
   protected int consumerNumber;
   protected int totalConsumers;
+  protected boolean checkpointMinuteKeys;
   protected Set<Integer> partitionMinList;
   protected String relativeStartTimeStr;
   protected Date stopTime;
   protected Boolean startOfStream;
   private int closedReadercount;
+  protected int listenerThreads;
+  private MessageListener listener;
+  private MessageDispatcher dispatcher;
+  protected boolean selectiveAck;
+  protected boolean asyncCheckpoint;
+  private CheckpointCommitter committer;
+  private final Object ackLock = new Object();
+  // guarded by ackLock
+  private final Map<PartitionId, PartitionAckTracker> ackTrackers =
+      new HashMap<PartitionId, PartitionAckTracker>();
+  private final Map<Message, PendingAck> pendingAcks =
+      new IdentityHashMap<Message, PendingAck>();
+  private final Map<PartitionId, MessageCheckpoint> ackedCheckpoints =
+      new HashMap<PartitionId, MessageCheckpoint>();
   protected Configuration conf;
   public String[] clusterNames;
 
@@ -154,13 +181,29 @@ public abstract class AbstractMessagingDatabusConsumer
         DEFAULT_CHECKPOINT_DIR);
     this.checkpointProvider = createCheckpointProvider(
         chkpointProviderClassName, databusCheckpointDir);
+    if (config.getBoolean(checkpointCacheConfig, DEFAULT_CHECKPOINT_CACHE)) {
+      // marks of a consumer which did not move are not written again
+      this.checkpointProvider = new CachingCheckpointProvider(
+          checkpointProvider);
+    }
 
+    checkpointMinuteKeys = config.getBoolean(checkpointMinuteKeysConfig,
+        DEFAULT_CHECKPOINT_MINUTE_KEYS);
     createCheckpoint();
     currentCheckpoint.read(checkpointProvider, getChkpointKey());
 
-    //create buffer
+    //create buffer, its capacity is split between the partitions
     bufferSize = config.getInteger(queueSizeConfig, DEFAULT_QUEUE_SIZE);
-    buffer = new LinkedBlockingQueue<QueueEntry>(bufferSize);
+    bufferBytes = config.getInteger(bufferBytesConfig, DEFAULT_BUFFER_BYTES);
+    orderedMerge = config.getBoolean(orderedMergeConfig,
+        DEFAULT_ORDERED_MERGE);
+    orderedMergeIdleTimeout = config.getLong(orderedMergeIdleTimeoutConfig,
+        DEFAULT_ORDERED_MERGE_IDLE_TIMEOUT);
+    buffer = createBuffer();
+    if (config.getBoolean(recycleMessagesConfig, DEFAULT_RECYCLE_MESSAGES)) {
+      messagePool = new MessagePool(bufferSize, config.getBoolean(
+          leakDetectionConfig, DEFAULT_LEAK_DETECTION));
+    }
 
     // initialize other common configuration
     waitTimeForFileCreate = config.getLong(waitTimeForFileCreateConfig,
@@ -184,6 +227,18 @@ public abstract class AbstractMessagingDatabusConsumer
     startOfStream = config.getBoolean(startOfStreamConfig,
         DEFAULT_START_OF_STREAM);
     closedReadercount = 0;
+
+    listenerThreads = config.getInteger(listenerThreadsConfig,
+        DEFAULT_LISTENER_THREADS);
+    selectiveAck = config.getBoolean(selectiveAckConfig,
+        DEFAULT_SELECTIVE_ACK);
+    asyncCheckpoint = config.getBoolean(asyncCheckpointConfig,
+        DEFAULT_ASYNC_CHECKPOINT);
+  }
+
+  private PartitionedBuffer createBuffer() {
+    return new PartitionedBuffer(bufferSize, bufferBytes, orderedMerge,
+        orderedMergeIdleTimeout);
   }
 
   protected boolean isValidConfiguration() {
@@ -209,7 +264,11 @@ public abstract class AbstractMessagingDatabusConsumer
     return conf;
   }
 
+  /**
+   * @return the checkpoint including the messages returned by next so far
+   */
   public ConsumerCheckpoint getCurrentCheckpoint() {
+    applyPendingCheckpoints();
     return currentCheckpoint;
   }
 
@@ -229,7 +288,9 @@ public abstract class AbstractMessagingDatabusConsumer
     PartitionId id = entry.getPartitionId();
     messageConsumedMap.put(id, true);
     if (entry.getMessageChkpoint() != null) {
-      setMessageCheckpoint(entry.getPartitionId(), entry.getMessageChkpoint());
+      // the checkpoint structures are built only on mark, most per message
+      // checkpoints are superseded before that
+      addCheckpoint(pendingCheckpoints, id, entry.getMessageChkpoint());
     }
   }
 
@@ -237,6 +298,14 @@ public abstract class AbstractMessagingDatabusConsumer
     currentCheckpoint.set(id, msgchk);
   }
 
+  private void applyPendingCheckpoints() {
+    for (Map.Entry<PartitionId, MessageCheckpoint> chk : pendingCheckpoints
+        .entrySet()) {
+      setMessageCheckpoint(chk.getKey(), chk.getValue());
+    }
+    pendingCheckpoints.clear();
+  }
+
   /**
    * @throws throws an EndOfStreamException When consumer consumed all messages
    *  till stopTime
@@ -251,6 +320,7 @@ public abstract class AbstractMessagingDatabusConsumer
 
   private Message getMessage(long timeout, TimeUnit timeunit)
       throws EndOfStreamException, InterruptedException {
+    checkNoListener();
     // check whether it consumed all messages till stopTime
     checkClosedReaders();
     QueueEntry entry = null;
@@ -263,8 +333,15 @@ public abstract class AbstractMessagingDatabusConsumer
       } else {
         entry = buffer.take();
       }
-      setMessageCheckpoint(entry);
+      if (selectiveAck) {
+        addForAck(entry);
+      } else {
+        setMessageCheckpoint(entry);
+      }
       if (entry.getMessage() instanceof Message) {
+        if (messagePool != null) {
+          messagePool.track((Message) entry.getMessage());
+        }
         break;
       } else { // if (entry.getMessage() instanceof EOFMessage)
         closedReadercount++;
@@ -274,6 +351,236 @@ public abstract class AbstractMessagingDatabusConsumer
     return (Message) entry.getMessage();
   }
 
+  /**
+   * Drains up to maxMessages entries from the buffer with a single wait for
+   * the first one. The wait is bounded by the timeout as a whole, even if the
+   * first entries drained are end of stream markers of some readers. A
+   * timeout of -1 waits till a message is available, like
+   * {@link #getNext(long, TimeUnit)}.
+   *
+   * @throws throws an EndOfStreamException When consumer consumed all messages
+   *  till stopTime and no message is left to return
+   * @return List of messages available on the stream, empty if no message is
+   *         available for a given timeout
+   */
+  @Override
+  protected List<Message> getNext(int maxMessages, long timeout,
+      TimeUnit timeunit) throws InterruptedException, EndOfStreamException {
+    checkNoListener();
+    checkClosedReaders();
+    List<Message> messages = new ArrayList<Message>();
+    List<QueueEntry> entries = new ArrayList<QueueEntry>();
+    long deadline = timeout == -1 ? 0
+        : System.nanoTime() + timeunit.toNanos(timeout);
+    // loop only while the drained entries were all EOFMessages
+    while (messages.isEmpty() && closedReadercount < readers.size()) {
+      QueueEntry entry;
+      if (timeout == -1) {
+        entry = buffer.take();
+      } else {
+        entry = buffer.poll(deadline - System.nanoTime(),
+            TimeUnit.NANOSECONDS);
+      }
+      if (entry == null) {
+        break;
+      }
+      entries.add(entry);
+      buffer.drainTo(entries, maxMessages - 1);
+      for (QueueEntry queueEntry : entries) {
+        if (selectiveAck) {
+          addForAck(queueEntry);
+        } else {
+          setMessageCheckpoint(queueEntry);
+        }
+        if (queueEntry.getMessage() instanceof Message) {
+          Message msg = (Message) queueEntry.getMessage();
+          if (messagePool != null) {
+            messagePool.track(msg);
+          }
+          messages.add(msg);
+        } else { // if (entry.getMessage() instanceof EOFMessage)
+          closedReadercount++;
+        }
+      }
+      entries.clear();
+    }
+    if (messages.isEmpty()) {
+      checkClosedReaders();
+    }
+    return messages;
+  }
+
+  /**
+   * Records msgChk as the latest checkpoint of the partition in the passed
+   * map. The partition is added even for a null checkpoint, to tell it was
+   * consumed.
+   */
+  static void addCheckpoint(Map<PartitionId, MessageCheckpoint> checkpoints,
+      PartitionId id, MessageCheckpoint msgChk) {
+    MessageCheckpoint previous = checkpoints.get(id);
+    if (msgChk == null) {
+      if (previous == null) {
+        checkpoints.put(id, null);
+      }
+      return;
+    }
+    if (msgChk instanceof DeltaPartitionCheckPoint) {
+      // deltas of different entries can cover different minutes, so merge
+      // them in order instead of keeping only the last one
+      if (previous == null) {
+        checkpoints.put(id,
+            new DeltaPartitionCheckPoint((DeltaPartitionCheckPoint) msgChk));
+      } else {
+        ((DeltaPartitionCheckPoint) previous).add(
+            (DeltaPartitionCheckPoint) msgChk);
+      }
+    } else {
+      checkpoints.put(id, msgChk);
+    }
+  }
+
+  private void addForAck(QueueEntry entry) {
+    synchronized (ackLock) {
+      PartitionAckTracker tracker = ackTrackers.get(entry.getPartitionId());
+      if (tracker == null) {
+        tracker = new PartitionAckTracker(entry.getPartitionId());
+        ackTrackers.put(entry.getPartitionId(), tracker);
+      }
+      long seq = tracker.add(entry.getMessageChkpoint());
+      if (entry.getMessage() instanceof Message) {
+        pendingAcks.put((Message) entry.getMessage(),
+            new PendingAck(tracker, seq));
+      } else {
+        // nobody processes an EOFMessage, it is done once delivered
+        tracker.ack(seq, ackedCheckpoints);
+      }
+    }
+  }
+
+  /**
+   * Acknowledges that a message returned by <code>next</code> is processed.
+   * Needs selectiveAckConfig to be enabled.
+   *
+   * With selective ack, mark() checkpoints each partition only up to the last
+   * message for which it and all earlier messages of the partition were
+   * acknowledged, so messages can be processed asynchronously and out of
+   * order while marking.
+   *
+   * @param msg Message returned by <code>next</code>
+   * @return true if the message was waiting for an ack, false if it was
+   *         already acknowledged or delivered before the last reset
+   */
+  public boolean ack(Message msg) {
+    if (!selectiveAck) {
+      throw new IllegalStateException(selectiveAckConfig + " is not enabled");
+    }
+    synchronized (ackLock) {
+      PendingAck pending = pendingAcks.remove(msg);
+      if (pending == null) {
+        return false;
+      }
+      return pending.tracker.ack(pending.seq, ackedCheckpoints);
+    }
+  }
+
+  /**
+   * Hands a message returned by <code>next</code> or passed to the listener
+   * back to the consumer for reuse, when recycleMessagesConfig is enabled.
+   * Neither the message nor its data may be used once it is released; with
+   * selective ack, the message has to be acknowledged before it is released.
+   * Does nothing if recycling is not enabled.
+   *
+   * @param msg Message returned by <code>next</code>
+   */
+  public void release(Message msg) {
+    if (messagePool != null) {
+      messagePool.release(msg);
+    }
+  }
+
+  /**
+   * @return the pool of recycled messages, null if recycleMessagesConfig is
+   *         not enabled
+   */
+  public MessagePool getMessagePool() {
+    return messagePool;
+  }
+
+  /**
+   * @return number of messages returned by <code>next</code> which are not
+   *         covered by the acknowledged watermark of their partition
+   */
+  public long getOutstandingAcks() {
+    synchronized (ackLock) {
+      long outstanding = 0;
+      for (PartitionAckTracker tracker : ackTrackers.values()) {
+        outstanding += tracker.getOutstanding();
+      }
+      return outstanding;
+    }
+  }
+
+  private static final class PendingAck {
+    private final PartitionAckTracker tracker;
+    private final long seq;
+
+    PendingAck(PartitionAckTracker tracker, long seq) {
+      this.tracker = tracker;
+      this.seq = seq;
+    }
+  }
+
+  private void checkNoListener() {
+    if (listener != null) {
+      throw new IllegalStateException("Messages are pushed to the listener,"
+          + " next() can not be called",
+          dispatcher == null ? null : dispatcher.getFailure());
+    }
+  }
+
+  /**
+   * Starts pushing messages to the passed listener instead of returning them
+   * from <code>next</code>.
+   *
+   * Messages are processed on listenerThreadsConfig worker threads. All
+   * messages of a partition are processed in order on the same worker, and
+   * mark() checkpoints only the messages for which the listener returned.
+   *
+   * If the listener throws, delivery stops and every later mark() throws an
+   * IOException caused by the exception of the listener, after having
+   * checkpointed the messages processed till then.
+   *
+   * @param listener {@link MessageListener} to push messages to
+   */
+  public synchronized void setMessageListener(MessageListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("listener can not be null");
+    }
+    if (this.listener != null) {
+      throw new IllegalStateException("A listener is already set");
+    }
+    this.listener = listener;
+    startDispatcher();
+  }
+
+  private void startDispatcher() {
+    int numWorkers = Math.max(1, Math.min(listenerThreads, readers.size()));
+    dispatcher = new MessageDispatcher(buffer, listener, messagePool,
+        (BaseMessageConsumerStatsExposer) getMetrics(),
+        readers.size() - closedReadercount, numWorkers,
+        Math.max(1, bufferSize / numWorkers),
+        getReaderNameSuffix());
+    dispatcher.start();
+  }
+
+  private void stopDispatcher() {
+    if (dispatcher != null) {
+      dispatcher.close();
+      dispatcher = null;
+    }
+    listener = null;
+  }
+
   private void checkClosedReaders() throws EndOfStreamException {
     if (closedReadercount == readers.size()) {
       throw new EndOfStreamException();
@@ -283,6 +590,9 @@ public abstract class AbstractMessagingDatabusConsumer
   protected synchronized void start() throws IOException {
     createPartitionReaders();
     for (PartitionReader reader : readers.values()) {
+      if (messagePool != null) {
+        reader.setMessagePool(messagePool);
+      }
       reader.start(getReaderNameSuffix());
     }
   }
@@ -352,18 +662,91 @@ public abstract class AbstractMessagingDatabusConsumer
   protected void doReset() throws IOException {
     // restart the service, consumer will start streaming from the last saved
     // checkpoint
+    MessageListener resetListener = listener;
     close();
     currentCheckpoint.read(checkpointProvider, getChkpointKey());
     LOG.info("Resetting to checkpoint:" + currentCheckpoint);
-    buffer = new LinkedBlockingQueue<QueueEntry>(bufferSize);
+    buffer = createBuffer();
     start();
+    if (resetListener != null) {
+      listener = resetListener;
+      startDispatcher();
+    }
   }
 
   @Override
   protected void doMark() throws IOException {
+    applyPendingCheckpoints();
+    if (dispatcher != null) {
+      Map<PartitionId, MessageCheckpoint> completed =
+          new HashMap<PartitionId, MessageCheckpoint>();
+      dispatcher.drainCompleted(completed);
+      setConsumedCheckpoints(completed);
+    }
+    if (selectiveAck) {
+      synchronized (ackLock) {
+        setConsumedCheckpoints(ackedCheckpoints);
+        ackedCheckpoints.clear();
+      }
+    }
     checkAndCreateCheckpoint();
-    currentCheckpoint.write(checkpointProvider, getChkpointKey());
-    LOG.info("Committed checkpoint:" + currentCheckpoint);
+    DatabusConsumerStatsExposer metrics =
+        (DatabusConsumerStatsExposer) getMetrics();
+    if (asyncCheckpoint) {
+      if (committer == null) {
+        committer = new CheckpointCommitter(checkpointProvider, metrics,
+            getReaderNameSuffix());
+      }
+      committer.submit(CheckpointCommitter.snapshot(currentCheckpoint,
+          getChkpointKey()));
+      LOG.debug("Submitted checkpoint:" + currentCheckpoint);
+    } else {
+      long start = System.currentTimeMillis();
+      try {
+        currentCheckpoint.write(checkpointProvider, getChkpointKey());
+      } catch (IOException e) {
+        metrics.incrementCheckpointCommitFailures();
+        throw e;
+      }
+      metrics.addCheckpointCommit(System.currentTimeMillis() - start);
+      LOG.info("Committed checkpoint:" + currentCheckpoint);
+    }
+    if (dispatcher != null && dispatcher.getFailure() != null) {
+      throw new IOException("Listener failed, message delivery is stopped",
+          dispatcher.getFailure());
+    }
+  }
+
+  /**
+   * Same as mark(), but returns only once the checkpoint is committed to
+   * the checkpoint provider, also when asyncCheckpointConfig is enabled.
+   *
+   * @throws IOException if the checkpoint could not be committed
+   */
+  public void markSync() throws IOException {
+    CheckpointCommitter current;
+    long seq;
+    synchronized (this) {
+      mark();
+      current = committer;
+      if (current == null) {
+        return;
+      }
+      seq = current.getSubmitted();
+    }
+    // wait without holding the consumer lock, next() can go on meanwhile
+    current.await(seq);
+  }
+
+  private void setConsumedCheckpoints(
+      Map<PartitionId, MessageCheckpoint> checkpoints) {
+    for (Map.Entry<PartitionId, MessageCheckpoint> chk : checkpoints
+        .entrySet()) {
+      messageConsumedMap.put(chk.getKey(), true);
+      if (chk.getValue() != null) {
+        setMessageCheckpoint(chk.getKey(), chk.getValue());
+      }
+    }
   }
 
   private void checkAndCreateCheckpoint() {
@@ -382,6 +765,11 @@ public abstract class AbstractMessagingDatabusConsumer
 
   @Override
   public synchronized void close() {
+    stopDispatcher();
+    if (committer != null) {
+      // a reset reads the checkpoint back, so commit the pending one first
+      committer.close();
+    }
     for (PartitionReader reader : readers.values()) {
       reader.close();
     }
@@ -391,9 +779,24 @@ public abstract class AbstractMessagingDatabusConsumer
     }
     readers.clear();
     if (buffer != null) {
+      if (messagePool != null) {
+        // messages never handed out go back to the pool
+        QueueEntry entry;
+        while ((entry = buffer.poll()) != null) {
+          if (entry.getMessage() instanceof Message) {
+            messagePool.recycle((Message) entry.getMessage());
+          }
+        }
+      }
       buffer.clear();
     }
     messageConsumedMap.clear();
+    pendingCheckpoints.clear();
+    synchronized (ackLock) {
+      ackTrackers.clear();
+      pendingAcks.clear();
+      ackedCheckpoints.clear();
+    }
     if (currentCheckpoint != null) {
       currentCheckpoint.clear();
     }
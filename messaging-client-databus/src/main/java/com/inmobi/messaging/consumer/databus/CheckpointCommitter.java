@@ -0,0 +1,235 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.inmobi.messaging.checkpoint.AbstractCheckpointProvider;
+import com.inmobi.messaging.checkpoint.CheckpointProvider;
+import com.inmobi.messaging.metrics.DatabusConsumerStatsExposer;
+
+/**
+ * Commits consumer checkpoints to a {@link CheckpointProvider} on a
+ * background thread.
+ *
+ * mark() only serializes the checkpoint in memory and submits it. The
+ * committer writes the latest submitted snapshot; a snapshot submitted
+ * before the previous one was picked up is merged into it key by key, the
+ * later bytes of a key replacing the earlier ones, so a burst of marks costs
+ * a single write of every key. A snapshot which fails to commit is retried
+ * along with the keys submitted after it.
+ */
+class CheckpointCommitter implements Runnable {
+  private static final Log LOG = LogFactory.getLog(CheckpointCommitter.class);
+  private static final long RETRY_MILLIS = 1000;
+
+  private final CheckpointProvider checkpointProvider;
+  private final DatabusConsumerStatsExposer metrics;
+  private final String name;
+  private Thread thread;
+  private boolean stopped;
+  // latest snapshot not picked up by the thread yet
+  private Map<String, byte[]> pending;
+  // sequence numbers of the latest submitted, committed and failed snapshots
+  private long submitted = 0;
+  private long committed = 0;
+  private long failed = 0;
+  private Throwable failure;
+
+  CheckpointCommitter(CheckpointProvider checkpointProvider,
+      DatabusConsumerStatsExposer metrics, String name) {
+    this.checkpointProvider = checkpointProvider;
+    this.metrics = metrics;
+    this.name = name;
+  }
+
+  /**
+   * Serializes the checkpoint into a map of checkpoint keys to bytes,
+   * without writing anything to the provider.
+   */
+  static Map<String, byte[]> snapshot(ConsumerCheckpoint checkpoint,
+      String key) throws IOException {
+    final Map<String, byte[]> snapshot = new LinkedHashMap<String, byte[]>();
+    checkpoint.write(new CheckpointProvider() {
+      @Override
+      public byte[] read(String key) {
+        // a checkpoint reading back what it wrote sees the snapshot
+        return snapshot.get(key);
+      }
+
+      @Override
+      public void checkpoint(String key, byte[] checkpoint) {
+        snapshot.put(key, checkpoint);
+      }
+
+      @Override
+      public void close() {
+      }
+    }, key);
+    return snapshot;
+  }
+
+  /**
+   * Submits a snapshot for commit, starting the committer thread if needed.
+   *
+   * @return the sequence number of the snapshot, to wait on with
+   *         {@link #await(long)}
+   */
+  synchronized long submit(Map<String, byte[]> snapshot) {
+    if (pending != null) {
+      metrics.incrementCoalescedMarks();
+      pending.putAll(snapshot);
+    } else {
+      pending = new LinkedHashMap<String, byte[]>(snapshot);
+    }
+    submitted++;
+    if (thread == null) {
+      stopped = false;
+      thread = new Thread(this, "CheckpointCommitter-" + name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    notifyAll();
+    return submitted;
+  }
+
+  synchronized long getSubmitted() {
+    return submitted;
+  }
+
+  /**
+   * Waits until the snapshot with the given sequence number, or a later one,
+   * is committed.
+   *
+   * @throws IOException if committing it or a later snapshot failed before
+   */
+  synchronized void await(long seq) throws IOException {
+    while (committed < seq) {
+      if (failed >= seq) {
+        throw new IOException("Could not commit checkpoint", failure);
+      }
+      if (thread == null) {
+        throw new IOException("Checkpoint committer is closed");
+      }
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for commit");
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        Map<String, byte[]> snapshot;
+        long seq;
+        synchronized (this) {
+          while (pending == null && !stopped) {
+            wait();
+          }
+          if (pending == null) {
+            return;
+          }
+          snapshot = pending;
+          seq = submitted;
+          pending = null;
+        }
+        if (!commit(snapshot, seq)) {
+          synchronized (this) {
+            if (stopped) {
+              LOG.warn("Dropping checkpoint which could not be committed"
+                  + " before close");
+              return;
+            }
+            if (pending != null) {
+              // keys submitted meanwhile are newer than the failed ones
+              snapshot.putAll(pending);
+            }
+            pending = snapshot;
+            wait(RETRY_MILLIS);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("thread interrupted " + Thread.currentThread().getName(), e);
+    }
+  }
+
+  private boolean commit(Map<String, byte[]> snapshot, long seq) {
+    long start = System.currentTimeMillis();
+    try {
+      AbstractCheckpointProvider.checkpointAll(checkpointProvider, snapshot);
+    } catch (RuntimeException e) {
+      LOG.warn("Could not commit checkpoint", e);
+      metrics.incrementCheckpointCommitFailures();
+      synchronized (this) {
+        failed = seq;
+        failure = e;
+        notifyAll();
+      }
+      return false;
+    }
+    metrics.addCheckpointCommit(System.currentTimeMillis() - start);
+    synchronized (this) {
+      committed = seq;
+      notifyAll();
+    }
+    return true;
+  }
+
+  /**
+   * Commits the pending snapshot, if any, and stops the committer thread.
+   * A later submit starts it again.
+   */
+  void close() {
+    Thread current;
+    synchronized (this) {
+      stopped = true;
+      current = thread;
+      notifyAll();
+    }
+    if (current != null) {
+      try {
+        current.join();
+      } catch (InterruptedException e) {
+        LOG.warn("thread join interrupted " + current.getName(), e);
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      if (committed < submitted) {
+        LOG.warn("Closed with uncommitted checkpoint");
+      }
+      thread = null;
+      pending = null;
+      notifyAll();
+    }
+  }
+}
@@ -21,14 +21,24 @@ package com.inmobi.messaging.consumer.databus;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import com.inmobi.databus.partition.DeltaPartitionCheckPoint;
 import com.inmobi.databus.partition.PartitionCheckpoint;
 import com.inmobi.databus.partition.PartitionCheckpointList;
 import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.messaging.checkpoint.AbstractCheckpointProvider;
 import com.inmobi.messaging.checkpoint.CheckpointProvider;
 
 /**
@@ -37,16 +47,73 @@ import com.inmobi.messaging.checkpoint.CheckpointProvider;
  * set of segment ids and respective checkpoints.
  * This class also implements methods for writing the consumer checkpoint to the
  * file system and to read the consumer checkpoint from the file system.
+ *
+ * When created with the group membership of the consumer, the checkpoints
+ * of all the minutes owned by the consumer are written to a single key in
+ * {@link CheckpointListFormat}, and only when a minute changed since the
+ * last write. The group sizes the consumers of the key ran with are kept
+ * under a separate key, so after the size of the group changes each minute
+ * is read from the latest file holding it. Files are ordered by a sequence
+ * rather than by the clock of the host which wrote them: every write takes
+ * the next number after the highest one the consumer has read or written.
+ * Minutes found in no such file are read from the older per minute keys.
+ *
+ * The per minute keys can still be written, for a rolling upgrade or a
+ * rollback of a group. Then they are written along with the single key and
+ * take precedence over it on read, as older consumers of the group update
+ * only them.
  */
 public class CheckpointList implements ConsumerCheckpoint {
+  private static final Log LOG = LogFactory.getLog(CheckpointList.class);
+  // group sizes remembered to find the minutes owned before a change
+  private static final int MAX_LAYOUTS = 8;
 
   // map of static id to its checkpoint
   private final Map<Integer, Checkpoint> chkpoints =
       new TreeMap<Integer, Checkpoint>();
   private final Set<Integer> idList;
+  private final int consumerNumber;
+  private final int totalConsumers;
+  // minutes set since the last write
+  private final Set<Integer> dirty = new HashSet<Integer>();
+  // whether all minutes have to be written, e.g. after migrating them
+  private boolean rewrite = true;
+  private List<Integer> layouts;
+  private boolean layoutsChanged = false;
+  // whether the per minute keys are written and read as well
+  private final boolean minuteKeys;
+  // highest sequence read or written by this consumer
+  private long sequence = 0;
 
+  /**
+   * Creates a checkpoint list stored with a key per minute.
+   */
   public CheckpointList(Set<Integer> idList) {
+    this(idList, 0, 0);
+  }
+
+  /**
+   * Creates a checkpoint list stored with a single key for all the minutes
+   * of the consumer with the given group membership.
+   */
+  public CheckpointList(Set<Integer> idList, int consumerNumber,
+      int totalConsumers) {
+    this(idList, consumerNumber, totalConsumers, false);
+  }
+
+  /**
+   * Creates a checkpoint list stored with a single key for all the minutes
+   * of the consumer with the given group membership.
+   *
+   * @param minuteKeys whether the per minute keys are written and read as
+   *  well, for older consumers of the group
+   */
+  public CheckpointList(Set<Integer> idList, int consumerNumber,
+      int totalConsumers, boolean minuteKeys) {
     this.idList = idList;
+    this.consumerNumber = consumerNumber;
+    this.totalConsumers = totalConsumers;
+    this.minuteKeys = minuteKeys;
   }
 
   public Map<Integer, Checkpoint> getCheckpoints() {
@@ -59,6 +126,7 @@ public class CheckpointList implements ConsumerCheckpoint {
     for (Map.Entry<Integer, PartitionCheckpoint> entry :
       checkPoint.getDeltaCheckpoint().entrySet()) {
       setConsumerCheckpoint(pid, entry.getKey(), entry.getValue());
+      dirty.add(entry.getKey());
     }
   }
 
@@ -92,12 +160,53 @@ public class CheckpointList implements ConsumerCheckpoint {
     return superKey + "_" + id;
   }
 
+  /**
+   * Key of the single checkpoint of a consumer in a group of the given size.
+   */
+  static String getConsolidatedKey(String superKey, int consumerNumber,
+      int totalConsumers) {
+    return superKey + "_" + consumerNumber + "of" + totalConsumers;
+  }
+
+  static String getLayoutsKey(String superKey) {
+    return superKey + "_layouts";
+  }
+
+  private boolean isConsolidated() {
+    return totalConsumers > 0;
+  }
+
   public void write(CheckpointProvider checkpointProvider, String superKey)
       throws IOException {
-    for (Map.Entry<Integer, Checkpoint> entry : chkpoints.entrySet()) {
-      entry.getValue().write(checkpointProvider,
-          getChkpointKey(superKey, entry.getKey()));
+    if (isConsolidated() && dirty.isEmpty() && !rewrite && !layoutsChanged) {
+      return;
     }
+    Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+    if (!isConsolidated() || minuteKeys) {
+      for (Map.Entry<Integer, Checkpoint> entry : chkpoints.entrySet()) {
+        files.put(getChkpointKey(superKey, entry.getKey()),
+            entry.getValue().toBytes());
+      }
+    }
+    if (isConsolidated()) {
+      files.put(getConsolidatedKey(superKey, consumerNumber, totalConsumers),
+          CheckpointListFormat.encode(chkpoints, sequence + 1));
+      if (layoutsChanged) {
+        files.put(getLayoutsKey(superKey),
+            CheckpointListFormat.encodeLayouts(layouts));
+      }
+    }
+    try {
+      AbstractCheckpointProvider.checkpointAll(checkpointProvider, files);
+    } catch (Exception e) {
+      throw new IOException("Could not checkpoint. ", e);
+    }
+    if (isConsolidated()) {
+      sequence++;
+    }
+    dirty.clear();
+    rewrite = false;
+    layoutsChanged = false;
   }
 
   /**
@@ -116,19 +225,167 @@ public class CheckpointList implements ConsumerCheckpoint {
 
   public void read(CheckpointProvider checkpointProvider, String superKey)
       throws IOException {
+    if (!isConsolidated()) {
+      readMinutes(checkpointProvider, superKey, idList);
+      return;
+    }
+    readLayouts(checkpointProvider, superKey);
+    // the latest checkpoint of each minute across all the group sizes
+    Map<Integer, Long> sequences = new HashMap<Integer, Long>();
+    Set<String> keys = new HashSet<String>();
+    for (int layout : layouts) {
+      for (Integer id : idList) {
+        keys.add(getConsolidatedKey(superKey, (id % layout) + 1, layout));
+      }
+    }
+    Map<String, CheckpointListFormat.Decoded> files =
+        readConsolidated(checkpointProvider, keys);
+    for (int layout : layouts) {
+      for (Integer id : idList) {
+        CheckpointListFormat.Decoded decoded = files.get(getConsolidatedKey(
+            superKey, (id % layout) + 1, layout));
+        if (decoded == null || !decoded.checkpoints.containsKey(id)) {
+          continue;
+        }
+        // on a tie the current group size, which comes first, wins
+        Long latest = sequences.get(id);
+        if (latest == null || decoded.sequence > latest) {
+          sequences.put(id, decoded.sequence);
+          chkpoints.put(id, decoded.checkpoints.get(id));
+        }
+      }
+    }
+    for (CheckpointListFormat.Decoded decoded : files.values()) {
+      sequence = Math.max(sequence, decoded.sequence);
+    }
+    CheckpointListFormat.Decoded own = files.get(getConsolidatedKey(superKey,
+        consumerNumber, totalConsumers));
+    rewrite = own == null || sequences.size() < idList.size()
+        || own.sequence < maxOf(sequences);
+    if (minuteKeys) {
+      if (readNewerMinutes(checkpointProvider, superKey)) {
+        rewrite = true;
+      }
+      return;
+    }
+    Set<Integer> missing = new HashSet<Integer>(idList);
+    missing.removeAll(sequences.keySet());
+    if (!missing.isEmpty()) {
+      LOG.info("Reading per minute checkpoints of minutes " + missing);
+      readMinutes(checkpointProvider, superKey, missing);
+    }
+  }
+
+  /**
+   * Reads the per minute keys, which older consumers of the group may have
+   * moved past the single key, and takes them over the ones read so far.
+   *
+   * @return true if some minute differs from what was read before
+   */
+  private boolean readNewerMinutes(CheckpointProvider checkpointProvider,
+      String superKey) throws IOException {
+    Map<Integer, String> keys = new HashMap<Integer, String>();
+    for (Integer id : idList) {
+      keys.put(id, getChkpointKey(superKey, id));
+    }
+    Map<String, byte[]> files = readAll(checkpointProvider, keys.values());
+    boolean changed = false;
     for (Integer id : idList) {
-      Checkpoint checkpoint = new Checkpoint();
-      checkpoint.read(checkpointProvider, getChkpointKey(superKey, id));
-      chkpoints.put(id, checkpoint);
+      byte[] bytes = files.get(keys.get(id));
+      if (bytes == null) {
+        if (!chkpoints.containsKey(id)) {
+          chkpoints.put(id, new Checkpoint());
+        }
+        continue;
+      }
+      Checkpoint checkpoint = new Checkpoint(bytes);
+      if (!checkpoint.equals(chkpoints.get(id))) {
+        chkpoints.put(id, checkpoint);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  private void readMinutes(CheckpointProvider checkpointProvider,
+      String superKey, Set<Integer> ids) throws IOException {
+    Map<Integer, String> keys = new HashMap<Integer, String>();
+    for (Integer id : ids) {
+      keys.put(id, getChkpointKey(superKey, id));
+    }
+    Map<String, byte[]> files = readAll(checkpointProvider, keys.values());
+    for (Integer id : ids) {
+      byte[] bytes = files.get(keys.get(id));
+      chkpoints.put(id, bytes == null ? new Checkpoint() : new Checkpoint(
+          bytes));
+    }
+  }
+
+  private static long maxOf(Map<Integer, Long> sequences) {
+    long max = Long.MIN_VALUE;
+    for (long sequence : sequences.values()) {
+      max = Math.max(max, sequence);
+    }
+    return max;
+  }
+
+  /**
+   * Reads the group sizes the key was written with and puts the current one
+   * first.
+   */
+  private void readLayouts(CheckpointProvider checkpointProvider,
+      String superKey) throws IOException {
+    List<Integer> previous = new ArrayList<Integer>();
+    try {
+      byte[] bytes = checkpointProvider.read(getLayoutsKey(superKey));
+      if (bytes != null) {
+        previous = CheckpointListFormat.decodeLayouts(bytes);
+      }
+    } catch (Exception e) {
+      throw new IOException("Could not read checkpoint.", e);
+    }
+    layouts = new ArrayList<Integer>();
+    layouts.add(totalConsumers);
+    for (int layout : previous) {
+      if (layout != totalConsumers && layouts.size() < MAX_LAYOUTS) {
+        layouts.add(layout);
+      }
+    }
+    layoutsChanged = !layouts.equals(previous);
+  }
+
+  private static Map<String, CheckpointListFormat.Decoded> readConsolidated(
+      CheckpointProvider checkpointProvider, Set<String> keys)
+      throws IOException {
+    Map<String, CheckpointListFormat.Decoded> decoded =
+        new HashMap<String, CheckpointListFormat.Decoded>();
+    for (Map.Entry<String, byte[]> entry : readAll(checkpointProvider, keys)
+        .entrySet()) {
+      decoded.put(entry.getKey(), CheckpointListFormat.decode(
+          entry.getValue()));
+    }
+    return decoded;
+  }
+
+  private static Map<String, byte[]> readAll(
+      CheckpointProvider checkpointProvider, Collection<String> keys)
+      throws IOException {
+    try {
+      return AbstractCheckpointProvider.readAll(checkpointProvider, keys);
+    } catch (Exception e) {
+      throw new IOException("Could not read checkpoint.", e);
     }
   }
 
   @Override
   public void clear() {
     chkpoints.clear();
+    dirty.clear();
+    rewrite = true;
   }
 
   public void migrateCheckpoint(Map<PartitionId, PartitionId> defaultAndNewPidMap) {
+    rewrite = true;
     boolean migrateRequired = false;
     for (Map.Entry<Integer, Checkpoint> entry : chkpoints.entrySet()) {
       Checkpoint checkpoint = chkpoints.get(entry.getKey());
@@ -0,0 +1,363 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Binary format holding the checkpoints of all the minutes owned by a
+ * consumer in a single file.
+ *
+ * <pre>
+ * int     magic
+ * byte    version
+ * long    sequence of the write, see {@link CheckpointList}
+ * vint    number of dictionary entries, followed by each entry as
+ *           vint  index of its prefix entry plus one, 0 if none
+ *           utf   rest of the string, starting at a '/'
+ * vint    number of minutes, followed by each minute as
+ *           byte  minute
+ *           the {@link Checkpoint} of the minute, with every string
+ *           written as the vint index of its dictionary entry
+ * </pre>
+ *
+ * Strings are split at their last '/' into an entry for the prefix and the
+ * rest, recursively, so the paths of different partitions and minutes share
+ * the entries of their common directories.
+ */
+final class CheckpointListFormat {
+  static final int MAGIC = 0x44434b4c;
+  static final byte VERSION = 1;
+  static final int LAYOUTS_MAGIC = 0x44434b47;
+
+  private CheckpointListFormat() {
+  }
+
+  /**
+   * Minute checkpoints read from a single file along with the sequence the
+   * file was written with.
+   */
+  static class Decoded {
+    final long sequence;
+    final Map<Integer, Checkpoint> checkpoints;
+
+    Decoded(long sequence, Map<Integer, Checkpoint> checkpoints) {
+      this.sequence = sequence;
+      this.checkpoints = checkpoints;
+    }
+  }
+
+  static byte[] encode(Map<Integer, Checkpoint> checkpoints, long sequence)
+      throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream bodyOut = new DataOutputStream(body);
+    DictionaryOutput dictOut = new DictionaryOutput(bodyOut);
+    WritableUtils.writeVInt(bodyOut, checkpoints.size());
+    for (Map.Entry<Integer, Checkpoint> entry : checkpoints.entrySet()) {
+      bodyOut.writeByte(entry.getKey());
+      entry.getValue().write(dictOut);
+    }
+    bodyOut.flush();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + 64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeLong(sequence);
+    WritableUtils.writeVInt(out, dictOut.prefixes.size());
+    for (int i = 0; i < dictOut.prefixes.size(); i++) {
+      WritableUtils.writeVInt(out, dictOut.prefixes.get(i) + 1);
+      out.writeUTF(dictOut.suffixes.get(i));
+    }
+    body.writeTo(out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  static Decoded decode(byte[] bytes) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a consolidated checkpoint");
+    }
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported checkpoint version " + version);
+    }
+    long sequence = in.readLong();
+    int entries = WritableUtils.readVInt(in);
+    String[] dictionary = new String[entries];
+    for (int i = 0; i < entries; i++) {
+      int prefix = WritableUtils.readVInt(in) - 1;
+      String suffix = in.readUTF();
+      if (prefix >= i) {
+        throw new IOException("Invalid dictionary entry " + i);
+      }
+      dictionary[i] = prefix < 0 ? suffix : dictionary[prefix] + suffix;
+    }
+    DictionaryInput dictIn = new DictionaryInput(in, dictionary);
+    Map<Integer, Checkpoint> checkpoints = new TreeMap<Integer, Checkpoint>();
+    int minutes = WritableUtils.readVInt(in);
+    for (int i = 0; i < minutes; i++) {
+      int minute = in.readByte();
+      Checkpoint checkpoint = new Checkpoint();
+      checkpoint.readFields(dictIn);
+      checkpoints.put(minute, checkpoint);
+    }
+    return new Decoded(sequence, checkpoints);
+  }
+
+  /**
+   * Encodes the consumer group sizes the checkpoints were written with,
+   * latest first.
+   */
+  static byte[] encodeLayouts(List<Integer> layouts) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(LAYOUTS_MAGIC);
+    out.writeByte(VERSION);
+    WritableUtils.writeVInt(out, layouts.size());
+    for (int layout : layouts) {
+      WritableUtils.writeVInt(out, layout);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  static List<Integer> decodeLayouts(byte[] bytes) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    if (in.readInt() != LAYOUTS_MAGIC) {
+      throw new IOException("Not a checkpoint layout list");
+    }
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported checkpoint version " + version);
+    }
+    int size = WritableUtils.readVInt(in);
+    List<Integer> layouts = new ArrayList<Integer>(size);
+    for (int i = 0; i < size; i++) {
+      layouts.add(WritableUtils.readVInt(in));
+    }
+    return layouts;
+  }
+
+  /**
+   * Writes strings as dictionary indices and everything else as is.
+   */
+  private static class DictionaryOutput implements DataOutput {
+    private final DataOutput out;
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private final List<Integer> prefixes = new ArrayList<Integer>();
+    private final List<String> suffixes = new ArrayList<String>();
+
+    DictionaryOutput(DataOutput out) {
+      this.out = out;
+    }
+
+    private int idOf(String s) {
+      Integer id = ids.get(s);
+      if (id == null) {
+        int split = s.lastIndexOf('/');
+        int prefix = split > 0 ? idOf(s.substring(0, split)) : -1;
+        id = prefixes.size();
+        prefixes.add(prefix);
+        suffixes.add(split > 0 ? s.substring(split) : s);
+        ids.put(s, id);
+      }
+      return id;
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+      WritableUtils.writeVInt(out, idOf(s));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+      out.writeBoolean(v);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+      out.writeByte(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+      out.writeShort(v);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+      out.writeChar(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+      out.writeInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+      out.writeLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+      out.writeFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+      out.writeDouble(v);
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+      out.writeBytes(s);
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+      out.writeChars(s);
+    }
+  }
+
+  /**
+   * Reads strings from dictionary indices and everything else as is.
+   */
+  private static class DictionaryInput implements DataInput {
+    private final DataInput in;
+    private final String[] dictionary;
+
+    DictionaryInput(DataInput in, String[] dictionary) {
+      this.in = in;
+      this.dictionary = dictionary;
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+      int id = WritableUtils.readVInt(in);
+      if (id < 0 || id >= dictionary.length) {
+        throw new IOException("Invalid dictionary index " + id);
+      }
+      return dictionary[id];
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+      in.readFully(b);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+      in.readFully(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+      return in.skipBytes(n);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+      return in.readBoolean();
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+      return in.readByte();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+      return in.readUnsignedByte();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+      return in.readShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+      return in.readUnsignedShort();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+      return in.readChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+      return in.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+      return in.readLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+      return in.readFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+      return in.readDouble();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String readLine() throws IOException {
+      return in.readLine();
+    }
+  }
+}
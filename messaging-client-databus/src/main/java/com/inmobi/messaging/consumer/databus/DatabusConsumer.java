@@ -210,10 +210,13 @@ public class DatabusConsumer extends AbstractMessagingDatabusConsumer
           for (int c = 0; c < numList; c++) {
             collectorMetrics.incrementListOps();
           }
+          QueueEntrySink partitionBuffer =
+              buffer.getPartitionQueue(id);
+          collectorMetrics.setBufferOccupancy(buffer.getOccupancy(id));
           readers.put(id, new PartitionReader(id, pck, conf, fs,
-              new Path(streamDir, collector), streamsLocalDir, buffer, topicName,
-              partitionTimestamp, waitTimeForFlush, waitTimeForFileCreate,
-              collectorMetrics, stopTime));
+              new Path(streamDir, collector), streamsLocalDir, partitionBuffer,
+              topicName, partitionTimestamp, waitTimeForFlush,
+              waitTimeForFileCreate, collectorMetrics, stopTime));
           messageConsumedMap.put(id, false);
           numList = 0;
         }
@@ -229,8 +232,11 @@ public class DatabusConsumer extends AbstractMessagingDatabusConsumer
             new PartitionReaderStatsExposer(topicName, consumerName,
                 id.toString(), consumerNumber, fsuri);
         addStatsExposer(clusterMetrics);
+        QueueEntrySink partitionBuffer =
+            buffer.getPartitionQueue(id);
+        clusterMetrics.setBufferOccupancy(buffer.getOccupancy(id));
         readers.put(id, new PartitionReader(id,
-            partitionCheckpointList, fs, buffer, streamDir, conf,
+            partitionCheckpointList, fs, partitionBuffer, streamDir, conf,
             DatabusInputFormat.class.getCanonicalName(), partitionTimestamp,
             waitTimeForFileCreate, true, clusterMetrics, partitionMinList,
             stopTime));
@@ -252,7 +258,8 @@ public class DatabusConsumer extends AbstractMessagingDatabusConsumer
     if (streamType.equals(StreamType.COLLECTOR)) {
       currentCheckpoint = new Checkpoint();
     } else {
-      currentCheckpoint = new CheckpointList(partitionMinList);
+      currentCheckpoint = new CheckpointList(partitionMinList, consumerNumber,
+          totalConsumers, checkpointMinuteKeys);
     }
   }
 }
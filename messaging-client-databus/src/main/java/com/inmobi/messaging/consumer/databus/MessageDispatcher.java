@@ -0,0 +1,231 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.BaseMessageConsumerStatsExposer;
+import com.inmobi.messaging.consumer.MessageListener;
+
+/**
+ * Pushes the entries of the consumer buffer to a {@link MessageListener} on
+ * a pool of worker threads.
+ *
+ * Each partition is pinned to one worker, so messages of a partition reach
+ * the listener in order while different partitions are processed in
+ * parallel. Workers keep the checkpoint of the last message they completed
+ * for every partition; only those are handed out for the checkpoint on mark.
+ */
+class MessageDispatcher {
+  private static final Log LOG = LogFactory.getLog(MessageDispatcher.class);
+  private static final long POLL_MILLIS = 100;
+
+  private final BlockingQueue<QueueEntry> buffer;
+  private final MessageListener listener;
+  private final MessagePool messagePool;
+  private final BaseMessageConsumerStatsExposer metrics;
+  private final Worker[] workers;
+  private final Map<PartitionId, Worker> partitionWorkers =
+      new HashMap<PartitionId, Worker>();
+  private final AtomicInteger openPartitions;
+  private final Thread thread;
+  private volatile boolean stopped;
+  private volatile RuntimeException failure;
+  private int nextWorker = 0;
+
+  MessageDispatcher(BlockingQueue<QueueEntry> buffer, MessageListener listener,
+      MessagePool messagePool, BaseMessageConsumerStatsExposer metrics,
+      int numPartitions, int numWorkers, int workerQueueSize,
+      String nameSuffix) {
+    this.buffer = buffer;
+    this.listener = listener;
+    this.messagePool = messagePool;
+    this.metrics = metrics;
+    this.openPartitions = new AtomicInteger(numPartitions);
+    workers = new Worker[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      workers[i] = new Worker(workerQueueSize,
+          "MessageDispatcher-worker" + i + "-" + nameSuffix);
+    }
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        dispatch();
+      }
+    }, "MessageDispatcher-" + nameSuffix);
+  }
+
+  void start() {
+    for (Worker worker : workers) {
+      worker.thread.start();
+    }
+    thread.start();
+    LOG.info("Started " + thread.getName() + " with " + workers.length
+        + " workers");
+  }
+
+  /**
+   * Stops taking entries from the buffer and waits for the workers to finish
+   * the message at hand. Entries still queued to the workers are dropped.
+   */
+  void close() {
+    stopped = true;
+    join(thread);
+    for (Worker worker : workers) {
+      join(worker.thread);
+    }
+    LOG.info("Stopped " + thread.getName());
+  }
+
+  private void join(Thread t) {
+    try {
+      t.join();
+    } catch (InterruptedException ie) {
+      LOG.warn("thread join interrupted " + t.getName(), ie);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * Returns the exception the listener threw, null if it did not throw.
+   */
+  RuntimeException getFailure() {
+    return failure;
+  }
+
+  /**
+   * Moves the checkpoints of the messages completed since the last call into
+   * the passed map.
+   */
+  void drainCompleted(Map<PartitionId, MessageCheckpoint> checkpoints) {
+    for (Worker worker : workers) {
+      worker.drainCompleted(checkpoints);
+    }
+  }
+
+  private void dispatch() {
+    try {
+      while (!stopped) {
+        QueueEntry entry = buffer.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (entry == null) {
+          continue;
+        }
+        Worker worker = getWorker(entry.getPartitionId());
+        while (!stopped && !worker.queue.offer(entry, POLL_MILLIS,
+            TimeUnit.MILLISECONDS)) {
+          // worker is behind, wait for room in its queue
+        }
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("thread interrupted " + thread.getName(), e);
+    }
+  }
+
+  private Worker getWorker(PartitionId id) {
+    Worker worker = partitionWorkers.get(id);
+    if (worker == null) {
+      // round robin over first appearance keeps partitions evenly spread
+      worker = workers[nextWorker];
+      nextWorker = (nextWorker + 1) % workers.length;
+      partitionWorkers.put(id, worker);
+    }
+    return worker;
+  }
+
+  private class Worker implements Runnable {
+    private final BlockingQueue<QueueEntry> queue;
+    private final Thread thread;
+    // guarded by this
+    private final Map<PartitionId, MessageCheckpoint> completed =
+        new HashMap<PartitionId, MessageCheckpoint>();
+
+    Worker(int queueSize, String name) {
+      queue = new LinkedBlockingQueue<QueueEntry>(queueSize);
+      thread = new Thread(this, name);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopped) {
+          QueueEntry entry = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+          if (entry == null) {
+            continue;
+          }
+          if (entry.getMessage() instanceof Message) {
+            Message msg = (Message) entry.getMessage();
+            if (messagePool != null) {
+              messagePool.track(msg);
+            }
+            try {
+              listener.onMessage(msg);
+            } catch (RuntimeException e) {
+              LOG.error("Listener failed on a message of "
+                  + entry.getPartitionId() + ", stopping the delivery", e);
+              failure = e;
+              stopped = true;
+              return;
+            }
+            complete(entry);
+            // counted once the checkpoint is there for the next mark
+            metrics.incrementMessagesConsumed();
+          } else { // if (entry.getMessage() instanceof EOFMessage)
+            complete(entry);
+            if (openPartitions.decrementAndGet() == 0) {
+              listener.onEndOfStream();
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        LOG.warn("thread interrupted " + thread.getName(), e);
+      }
+    }
+
+    private synchronized void complete(QueueEntry entry) {
+      AbstractMessagingDatabusConsumer.addCheckpoint(completed,
+          entry.getPartitionId(), entry.getMessageChkpoint());
+    }
+
+    private synchronized void drainCompleted(
+        Map<PartitionId, MessageCheckpoint> checkpoints) {
+      for (Map.Entry<PartitionId, MessageCheckpoint> chk : completed
+          .entrySet()) {
+        AbstractMessagingDatabusConsumer.addCheckpoint(checkpoints,
+            chk.getKey(), chk.getValue());
+      }
+      completed.clear();
+    }
+  }
+}
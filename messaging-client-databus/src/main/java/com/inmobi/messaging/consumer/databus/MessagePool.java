@@ -0,0 +1,183 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.inmobi.messaging.Message;
+
+/**
+ * Pool of messages for the recycling mode of the consumer.
+ *
+ * Readers decode into messages taken from the pool, reusing the array that
+ * already backs a recycled message, and the application hands a message
+ * back with {@link #release(Message)} once it is done with it. Up to the
+ * capacity of the pool, released messages are kept for reuse; the others
+ * are left to the garbage collector.
+ *
+ * With leak detection, every message handed out to the application is
+ * tracked through a weak reference. A message collected without being
+ * released is logged with the stack trace of the call that handed it out,
+ * and releasing a message which is not handed out, e.g. twice, is logged
+ * and ignored. Leak detection captures a stack trace per message and is
+ * meant for debugging only.
+ */
+public class MessagePool {
+  private static final Log LOG = LogFactory.getLog(MessagePool.class);
+
+  private final BlockingQueue<Message> free;
+  private final boolean detectLeaks;
+  private final ReferenceQueue<Message> collected =
+      new ReferenceQueue<Message>();
+  // handed out messages by identity hash code, guarded by itself
+  private final Map<Integer, List<HandedOut>> handedOut =
+      new HashMap<Integer, List<HandedOut>>();
+  private final AtomicLong leaks = new AtomicLong(0);
+
+  public MessagePool(int capacity, boolean detectLeaks) {
+    this.free = new ArrayBlockingQueue<Message>(capacity);
+    this.detectLeaks = detectLeaks;
+  }
+
+  /**
+   * Returns a recycled message, or a new one if none is free.
+   */
+  public Message acquire() {
+    Message msg = free.poll();
+    return msg != null ? msg : new Message();
+  }
+
+  /**
+   * Gives back a message handed out to the application. The message and its
+   * data must not be used after it is released.
+   */
+  public void release(Message msg) {
+    if (detectLeaks && !untrack(msg)) {
+      LOG.warn("Ignoring release of a message which is not handed out,"
+          + " it may have been released already",
+          new Throwable("released here"));
+      return;
+    }
+    free.offer(msg);
+  }
+
+  /**
+   * Takes back a message which was never handed out to the application.
+   */
+  void recycle(Message msg) {
+    free.offer(msg);
+  }
+
+  /**
+   * Called when a message is handed out to the application.
+   */
+  void track(Message msg) {
+    if (!detectLeaks) {
+      return;
+    }
+    reportLeaks();
+    Integer key = System.identityHashCode(msg);
+    synchronized (handedOut) {
+      List<HandedOut> refs = handedOut.get(key);
+      if (refs == null) {
+        refs = new ArrayList<HandedOut>(1);
+        handedOut.put(key, refs);
+      }
+      refs.add(new HandedOut(msg, collected));
+    }
+  }
+
+  private boolean untrack(Message msg) {
+    Integer key = System.identityHashCode(msg);
+    synchronized (handedOut) {
+      List<HandedOut> refs = handedOut.get(key);
+      if (refs != null) {
+        for (int i = 0; i < refs.size(); i++) {
+          HandedOut ref = refs.get(i);
+          if (ref.get() == msg) {
+            ref.clear();
+            refs.remove(i);
+            if (refs.isEmpty()) {
+              handedOut.remove(key);
+            }
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private void reportLeaks() {
+    HandedOut ref;
+    while ((ref = (HandedOut) collected.poll()) != null) {
+      synchronized (handedOut) {
+        List<HandedOut> refs = handedOut.get(ref.key);
+        if (refs != null) {
+          refs.remove(ref);
+          if (refs.isEmpty()) {
+            handedOut.remove(ref.key);
+          }
+        }
+      }
+      leaks.incrementAndGet();
+      LOG.warn("A message was garbage collected without being released",
+          ref.trace);
+    }
+  }
+
+  /**
+   * Returns the number of messages found collected without being released.
+   * Always 0 without leak detection.
+   */
+  public long getLeakCount() {
+    if (detectLeaks) {
+      reportLeaks();
+    }
+    return leaks.get();
+  }
+
+  public int getFreeCount() {
+    return free.size();
+  }
+
+  private static final class HandedOut extends WeakReference<Message> {
+    private final Integer key;
+    private final Throwable trace;
+
+    HandedOut(Message msg, ReferenceQueue<Message> queue) {
+      super(msg, queue);
+      this.key = System.identityHashCode(msg);
+      this.trace = new Throwable("message handed out here");
+    }
+  }
+}
@@ -27,9 +27,25 @@ import com.inmobi.messaging.checkpoint.FSCheckpointProvider;
 
 public interface MessagingConsumerConfig {
 
+  /**
+   * Maximum number of messages buffered by the consumer. It is split evenly
+   * between the partitions, at least one message each.
+   */
   public static final String queueSizeConfig = "messaging.consumer.buffer.size";
   public static final int DEFAULT_QUEUE_SIZE = 5000;
 
+  /**
+   * Maximum size in bytes of the message payloads buffered by the consumer,
+   * split evenly between the partitions. If positive, buffered payloads are
+   * held off heap, which keeps a large backlog from being promoted to the
+   * old generation. Each payload is still allocated on heap when read and
+   * again when the message is returned, so it does not reduce heap
+   * allocation. 0 keeps them on heap, bounded by queueSizeConfig only.
+   */
+  public static final String bufferBytesConfig =
+      "messaging.consumer.buffer.bytes";
+  public static final int DEFAULT_BUFFER_BYTES = 0;
+
   public static final String chkProviderConfig =
       "messaging.consumer.chkpoint.provider.classname";
   public static final String DEFAULT_CHK_PROVIDER = FSCheckpointProvider.class
@@ -85,4 +101,83 @@ public interface MessagingConsumerConfig {
 
   public static final String clustersNameConfig =
       "messaging.consumer.clusternames";
+
+  /**
+   * Number of threads which push messages to a MessageListener. Partitions
+   * are spread over the threads, so more threads than partitions are not used.
+   */
+  public static final String listenerThreadsConfig =
+      "messaging.consumer.listener.threads";
+  public static final int DEFAULT_LISTENER_THREADS =
+      Runtime.getRuntime().availableProcessors();
+
+  /**
+   * If enabled, mark() checkpoints only messages acknowledged through ack()
+   * instead of all messages returned by next().
+   */
+  public static final String selectiveAckConfig =
+      "messaging.consumer.selective.ack";
+  public static final boolean DEFAULT_SELECTIVE_ACK = false;
+
+  /**
+   * If enabled, messages of different partitions are delivered in the order
+   * of the minute they were written in, instead of the order they were read.
+   */
+  public static final String orderedMergeConfig =
+      "messaging.consumer.ordered.merge";
+  public static final boolean DEFAULT_ORDERED_MERGE = false;
+
+  /**
+   * Time in milliseconds a partition without buffered messages holds back
+   * newer messages of other partitions, when orderedMergeConfig is enabled.
+   */
+  public static final String orderedMergeIdleTimeoutConfig =
+      "messaging.consumer.ordered.merge.idle.timeout.ms";
+  public static final long DEFAULT_ORDERED_MERGE_IDLE_TIMEOUT = 10000;
+
+  /**
+   * If enabled, messages are decoded into recycled messages and arrays. The
+   * application hands every message back through release() on the consumer
+   * once it is done with it.
+   */
+  public static final String recycleMessagesConfig =
+      "messaging.consumer.recycle.messages";
+  public static final boolean DEFAULT_RECYCLE_MESSAGES = false;
+
+  /**
+   * If enabled along with recycleMessagesConfig, messages collected without
+   * being released are logged with the stack trace that handed them out.
+   * Meant for debugging only.
+   */
+  public static final String leakDetectionConfig =
+      "messaging.consumer.recycle.leak.detection";
+  public static final boolean DEFAULT_LEAK_DETECTION = false;
+
+  /**
+   * If enabled, mark() only snapshots the checkpoint and a background thread
+   * commits the latest snapshot. Use markSync() to wait for the commit.
+   */
+  public static final String asyncCheckpointConfig =
+      "messaging.consumer.checkpoint.async";
+  public static final boolean DEFAULT_ASYNC_CHECKPOINT = false;
+
+  /**
+   * If enabled, checkpoints equal to the ones last read or written by the
+   * consumer are not written again. Disable it if other processes change the
+   * checkpoints of a running consumer.
+   */
+  public static final String checkpointCacheConfig =
+      "messaging.consumer.checkpoint.cache";
+  public static final boolean DEFAULT_CHECKPOINT_CACHE = true;
+
+  /**
+   * If enabled, the checkpoint of each minute is also written to and read
+   * from the per minute key used by earlier versions, so that a consumer
+   * group can run both versions during a rolling upgrade or a rollback.
+   * Enabled by default for this release; disable it once no member of the
+   * older version is left and no rollback to it is planned.
+   */
+  public static final String checkpointMinuteKeysConfig =
+      "messaging.consumer.checkpoint.minute.keys";
+  public static final boolean DEFAULT_CHECKPOINT_MINUTE_KEYS = true;
 }
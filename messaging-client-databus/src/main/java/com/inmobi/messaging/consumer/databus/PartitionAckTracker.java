@@ -0,0 +1,124 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+
+import com.inmobi.databus.partition.PartitionId;
+
+/**
+ * Tracks the messages of a partition handed out by the consumer and not yet
+ * acknowledged, to find the contiguous acknowledged prefix.
+ *
+ * Messages get increasing sequence numbers in delivery order. The
+ * checkpoints of outstanding messages are kept in a ring indexed by the
+ * sequence number, which grows when the outstanding window is full. The
+ * watermark moves past a message only when it and all earlier messages of
+ * the partition are acknowledged.
+ */
+class PartitionAckTracker {
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final PartitionId partitionId;
+  private MessageCheckpoint[] checkpoints;
+  private boolean[] acked;
+  private int mask;
+  // all messages with sequence below watermark are acknowledged
+  private long watermark = 0;
+  private long nextSeq = 0;
+
+  PartitionAckTracker(PartitionId partitionId) {
+    this.partitionId = partitionId;
+    checkpoints = new MessageCheckpoint[INITIAL_CAPACITY];
+    acked = new boolean[INITIAL_CAPACITY];
+    mask = INITIAL_CAPACITY - 1;
+  }
+
+  PartitionId getPartitionId() {
+    return partitionId;
+  }
+
+  /**
+   * Adds a delivered message with its checkpoint.
+   *
+   * @return sequence number to acknowledge the message with
+   */
+  long add(MessageCheckpoint msgChk) {
+    if (nextSeq - watermark == checkpoints.length) {
+      grow();
+    }
+    int slot = (int) (nextSeq & mask);
+    checkpoints[slot] = msgChk;
+    acked[slot] = false;
+    return nextSeq++;
+  }
+
+  /**
+   * Acknowledges the message and records the checkpoint of the new watermark,
+   * if it moved, in the passed map.
+   *
+   * @return false if the message was already acknowledged
+   */
+  boolean ack(long seq, Map<PartitionId, MessageCheckpoint> committed) {
+    if (seq < watermark || seq >= nextSeq) {
+      return false;
+    }
+    int slot = (int) (seq & mask);
+    if (acked[slot]) {
+      return false;
+    }
+    acked[slot] = true;
+    while (watermark < nextSeq) {
+      slot = (int) (watermark & mask);
+      if (!acked[slot]) {
+        break;
+      }
+      AbstractMessagingDatabusConsumer.addCheckpoint(committed, partitionId,
+          checkpoints[slot]);
+      checkpoints[slot] = null;
+      watermark++;
+    }
+    return true;
+  }
+
+  /**
+   * @return number of delivered messages not covered by the watermark
+   */
+  long getOutstanding() {
+    return nextSeq - watermark;
+  }
+
+  private void grow() {
+    int capacity = checkpoints.length;
+    MessageCheckpoint[] newCheckpoints = new MessageCheckpoint[capacity * 2];
+    boolean[] newAcked = new boolean[capacity * 2];
+    int newMask = capacity * 2 - 1;
+    for (long seq = watermark; seq < nextSeq; seq++) {
+      int slot = (int) (seq & mask);
+      int newSlot = (int) (seq & newMask);
+      newCheckpoints[newSlot] = checkpoints[slot];
+      newAcked[newSlot] = acked[slot];
+    }
+    checkpoints = newCheckpoints;
+    acked = newAcked;
+    mask = newMask;
+  }
+}
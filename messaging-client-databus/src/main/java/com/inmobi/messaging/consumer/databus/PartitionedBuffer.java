@@ -0,0 +1,843 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.inmobi.databus.files.CollectorFile;
+import com.inmobi.databus.files.DatabusStreamFile;
+import com.inmobi.databus.files.HadoopStreamFile;
+import com.inmobi.databus.files.StreamFile;
+import com.inmobi.databus.partition.DeltaPartitionCheckPoint;
+import com.inmobi.databus.partition.PartitionCheckpoint;
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.databus.readers.DatabusStreamReader;
+import com.inmobi.messaging.EOFMessage;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.MessageBase;
+
+/**
+ * Consumer buffer made of one bounded ring per partition.
+ *
+ * The capacity of the buffer is split evenly between the partitions. A
+ * partition takes its share when its reader first puts into it; the readers
+ * of a consumer are all created before any of them starts, so every
+ * partition gets the same share and the buffer as a whole stays within its
+ * capacity.
+ *
+ * Each partition reader puts into its own queue, obtained through
+ * {@link #getPartitionQueue(PartitionId)}, so readers never contend with
+ * each other. The consumer side of this queue (poll, take and drainTo)
+ * merges the partition queues and blocks on a single condition while
+ * nothing can be handed out.
+ *
+ * By default the queues are merged round robin, taking at most one entry of
+ * a partition per turn. A buffer created with an idle timeout merges them in
+ * event time order instead: a heap over the partition heads hands out the
+ * entry of the oldest minute first. A partition without buffered entries
+ * holds back newer entries of the others until it has entries again, it
+ * reaches the end of stream or it stays empty for the idle timeout, so a
+ * stalled partition can not block the consumer for ever.
+ *
+ * A buffer created with a byte capacity also bounds the size of the
+ * buffered payloads, split between the partitions like the entries. The
+ * payloads are moved into a direct byte buffer ring of the partition while
+ * they wait to be consumed and copied back to a heap array of their own
+ * when the entry is taken. This keeps a large backlog of buffered payloads
+ * from being promoted to the old generation; it does not reduce the heap
+ * allocated per message, as every payload is allocated on heap twice. The
+ * ring of a partition is allocated when its first payload is buffered.
+ *
+ * Every partition queue has exactly one producer thread, and the merged
+ * view has to be consumed by one thread at a time.
+ */
+public class PartitionedBuffer extends AbstractQueue<QueueEntry>
+    implements BlockingQueue<QueueEntry> {
+
+  private static final Comparator<PartitionQueue> HEAD_TIME_ORDER =
+      new Comparator<PartitionQueue>() {
+    @Override
+    public int compare(PartitionQueue q1, PartitionQueue q2) {
+      return q1.headTime < q2.headTime ? -1
+          : (q1.headTime == q2.headTime ? 0 : 1);
+    }
+  };
+
+  private static final ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0);
+
+  private final int capacity;
+  private final int capacityBytes;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Map<PartitionId, PartitionQueue> partitionQueues =
+      new HashMap<PartitionId, PartitionQueue>();
+  private volatile PartitionQueue[] queues = new PartitionQueue[0];
+  private volatile boolean consumerWaiting;
+  // round robin position, only touched by the consuming thread
+  private int nextQueue = 0;
+
+  // event time order state, only touched by the consuming thread
+  private final boolean ordered;
+  private final long idleTimeoutNanos;
+  private final PriorityQueue<PartitionQueue> heads;
+  private final List<PartitionQueue> emptyQueues =
+      new ArrayList<PartitionQueue>();
+  private final List<PartitionQueue> blockingQueues =
+      new ArrayList<PartitionQueue>();
+  private int numOrderedQueues = 0;
+  private long idleWaitNanos = -1;
+
+  /**
+   * Creates a buffer merging the partitions round robin.
+   *
+   * @param capacity maximum number of entries buffered across all the
+   * partitions
+   */
+  public PartitionedBuffer(int capacity) {
+    this(capacity, 0, false, 0);
+  }
+
+  /**
+   * Creates a buffer merging the partitions in event time order.
+   *
+   * @param capacity maximum number of entries buffered across all the
+   * partitions
+   * @param idleTimeoutMillis time after which an empty partition no longer
+   * holds back the others
+   */
+  public PartitionedBuffer(int capacity, long idleTimeoutMillis) {
+    this(capacity, 0, true, idleTimeoutMillis);
+  }
+
+  /**
+   * @param capacity maximum number of entries buffered across all the
+   * partitions
+   * @param capacityBytes maximum size of the payloads buffered off heap
+   * across all the partitions, 0 to keep the payloads on heap
+   * @param ordered whether to merge the partitions in event time order
+   * @param idleTimeoutMillis time after which an empty partition no longer
+   * holds back the others, if ordered
+   */
+  public PartitionedBuffer(int capacity, int capacityBytes,
+      boolean ordered, long idleTimeoutMillis) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity should be positive: "
+          + capacity);
+    }
+    if (capacityBytes < 0) {
+      throw new IllegalArgumentException("capacityBytes should not be"
+          + " negative: " + capacityBytes);
+    }
+    if (idleTimeoutMillis < 0) {
+      throw new IllegalArgumentException("idleTimeoutMillis should not be"
+          + " negative: " + idleTimeoutMillis);
+    }
+    this.capacity = capacity;
+    this.capacityBytes = capacityBytes;
+    this.ordered = ordered;
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    if (ordered) {
+      heads = new PriorityQueue<PartitionQueue>(11, HEAD_TIME_ORDER);
+    } else {
+      heads = null;
+    }
+  }
+
+  public boolean isOrdered() {
+    return ordered;
+  }
+
+  /**
+   * Occupancy of the buffer of a partition, for stats.
+   */
+  public interface Occupancy {
+    /** Number of buffered entries */
+    int size();
+
+    /** Size of the payloads held off heap */
+    long getBufferedBytes();
+
+    /** Total time the reader of the partition waited for room */
+    long getBlockedPutNanos();
+  }
+
+  /**
+   * Returns the occupancy of the queue of the passed partition, creating the
+   * queue on first use.
+   */
+  public synchronized Occupancy getOccupancy(PartitionId id) {
+    return getQueue(id);
+  }
+
+  /**
+   * Returns the queue the reader of the passed partition should put its
+   * entries into, creating it on first use.
+   */
+  public synchronized QueueEntrySink getPartitionQueue(PartitionId id) {
+    return getQueue(id);
+  }
+
+  private synchronized PartitionQueue getQueue(PartitionId id) {
+    PartitionQueue queue = partitionQueues.get(id);
+    if (queue == null) {
+      queue = new PartitionQueue(id);
+      partitionQueues.put(id, queue);
+      PartitionQueue[] newQueues = new PartitionQueue[queues.length + 1];
+      System.arraycopy(queues, 0, newQueues, 0, queues.length);
+      newQueues[queues.length] = queue;
+      queues = newQueues;
+    }
+    return queue;
+  }
+
+  /**
+   * Returns the number of entries each partition may buffer, at least one.
+   */
+  private int getPartitionCapacity() {
+    return Math.max(1, capacity / Math.max(1, queues.length));
+  }
+
+  /**
+   * Returns the size of the payloads each partition may buffer off heap, at
+   * least one byte if payloads are buffered off heap at all.
+   */
+  private int getPartitionBytes() {
+    if (capacityBytes == 0) {
+      return 0;
+    }
+    return Math.max(1, capacityBytes / Math.max(1, queues.length));
+  }
+
+  private PartitionQueue queueFor(QueueEntry e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    return getQueue(e.getPartitionId());
+  }
+
+  @Override
+  public boolean offer(QueueEntry e) {
+    return queueFor(e).offer(e);
+  }
+
+  @Override
+  public void put(QueueEntry e) throws InterruptedException {
+    queueFor(e).put(e);
+  }
+
+  @Override
+  public boolean offer(QueueEntry e, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return queueFor(e).offer(e, timeout, unit);
+  }
+
+  @Override
+  public QueueEntry poll() {
+    return ordered ? pollOrdered() : pollRoundRobin();
+  }
+
+  private QueueEntry pollRoundRobin() {
+    PartitionQueue[] current = queues;
+    int n = current.length;
+    for (int i = 0; i < n; i++) {
+      int index = (nextQueue + i) % n;
+      QueueEntry entry = current[index].poll();
+      if (entry != null) {
+        nextQueue = (index + 1) % n;
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private QueueEntry pollOrdered() {
+    long now = System.nanoTime();
+    PartitionQueue[] current = queues;
+    for (; numOrderedQueues < current.length; numOrderedQueues++) {
+      current[numOrderedQueues].emptySince = now;
+      emptyQueues.add(current[numOrderedQueues]);
+    }
+    for (Iterator<PartitionQueue> it = emptyQueues.iterator(); it.hasNext();) {
+      PartitionQueue queue = it.next();
+      if (queue.peek() != null) {
+        it.remove();
+        queue.loadHeadTime();
+        heads.add(queue);
+      }
+    }
+    blockingQueues.clear();
+    idleWaitNanos = -1;
+    PartitionQueue next = heads.peek();
+    if (next == null) {
+      return null;
+    }
+    for (PartitionQueue queue : emptyQueues) {
+      // entries of a partition come in event time order, so an empty
+      // partition can only hold back entries newer than its last one
+      if (queue.lastTime < next.headTime) {
+        long idle = now - queue.emptySince;
+        if (idle < idleTimeoutNanos) {
+          blockingQueues.add(queue);
+          long wait = idleTimeoutNanos - idle;
+          if (idleWaitNanos < 0 || wait < idleWaitNanos) {
+            idleWaitNanos = wait;
+          }
+        }
+      }
+    }
+    if (!blockingQueues.isEmpty()) {
+      return null;
+    }
+    heads.poll();
+    QueueEntry entry = next.poll();
+    next.lastTime = Math.max(next.lastTime, next.headTime);
+    if (entry.getMessage() instanceof EOFMessage) {
+      // nothing more is coming from the partition, stop waiting for it
+      return entry;
+    }
+    if (next.peek() != null) {
+      next.loadHeadTime();
+      heads.add(next);
+    } else {
+      next.emptySince = now;
+      emptyQueues.add(next);
+    }
+    return entry;
+  }
+
+  @Override
+  public QueueEntry take() throws InterruptedException {
+    QueueEntry entry;
+    while ((entry = poll()) == null) {
+      awaitNotEmpty(-1);
+    }
+    return entry;
+  }
+
+  @Override
+  public QueueEntry poll(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    QueueEntry entry = poll();
+    if (entry != null) {
+      return entry;
+    }
+    long nanos = unit.toNanos(timeout);
+    long deadline = System.nanoTime() + nanos;
+    while (nanos > 0) {
+      awaitNotEmpty(nanos);
+      entry = poll();
+      if (entry != null) {
+        return entry;
+      }
+      nanos = deadline - System.nanoTime();
+    }
+    return null;
+  }
+
+  /**
+   * Waits till any partition queue has an entry, or till one of the queues
+   * holding back the event time order has one, for at most the passed nanos
+   * or for ever if it is negative.
+   */
+  private void awaitNotEmpty(long nanos) throws InterruptedException {
+    if (idleWaitNanos >= 0 && (nanos < 0 || idleWaitNanos < nanos)) {
+      nanos = idleWaitNanos;
+    }
+    lock.lockInterruptibly();
+    try {
+      consumerWaiting = true;
+      // checked after publishing the flag so that a put racing with it
+      // either is seen here or sees the flag and signals
+      boolean wait = true;
+      if (blockingQueues.isEmpty()) {
+        wait = isEmpty();
+      } else {
+        for (PartitionQueue queue : blockingQueues) {
+          if (!queue.isEmpty()) {
+            wait = false;
+            break;
+          }
+        }
+      }
+      if (wait) {
+        if (nanos < 0) {
+          notEmpty.await();
+        } else {
+          notEmpty.awaitNanos(nanos);
+        }
+      }
+    } finally {
+      consumerWaiting = false;
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the head of any partition queue, which is not necessarily the
+   * entry poll hands out next.
+   */
+  @Override
+  public QueueEntry peek() {
+    PartitionQueue[] current = queues;
+    int n = current.length;
+    for (int i = 0; i < n; i++) {
+      QueueEntry entry = current[(nextQueue + i) % n].peek();
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int drainTo(Collection<? super QueueEntry> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super QueueEntry> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int drained = 0;
+    QueueEntry entry;
+    while (drained < maxElements && (entry = poll()) != null) {
+      c.add(entry);
+      drained++;
+    }
+    return drained;
+  }
+
+  @Override
+  public void clear() {
+    for (PartitionQueue queue : queues) {
+      while (queue.poll() != null) {
+      }
+    }
+    if (ordered) {
+      long now = System.nanoTime();
+      for (PartitionQueue queue : heads) {
+        queue.emptySince = now;
+        emptyQueues.add(queue);
+      }
+      heads.clear();
+      blockingQueues.clear();
+      idleWaitNanos = -1;
+    }
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (PartitionQueue queue : queues) {
+      size += queue.size();
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (PartitionQueue queue : queues) {
+      if (!queue.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int remainingCapacity() {
+    int remaining = 0;
+    for (PartitionQueue queue : queues) {
+      remaining += queue.remainingCapacity();
+    }
+    return remaining;
+  }
+
+  /**
+   * Returns a snapshot of the buffered entries, partition by partition.
+   */
+  @Override
+  public Iterator<QueueEntry> iterator() {
+    List<QueueEntry> entries = new ArrayList<QueueEntry>();
+    for (PartitionQueue queue : queues) {
+      queue.snapshot(entries);
+    }
+    return Collections.unmodifiableList(entries).iterator();
+  }
+
+  /**
+   * Returns the time of the minute the passed file belongs to, or
+   * Long.MIN_VALUE if it is not known.
+   */
+  static long getFileTimestamp(StreamFile file) {
+    if (file instanceof CollectorFile) {
+      return ((CollectorFile) file).getTimestamp().getTime();
+    } else if (file instanceof DatabusStreamFile) {
+      return ((DatabusStreamFile) file).getCollectorFile().getTimestamp()
+          .getTime();
+    } else if (file instanceof HadoopStreamFile) {
+      try {
+        return DatabusStreamReader.getDateFromCheckpointPath(
+            ((HadoopStreamFile) file).getCheckpointPath()).getTime();
+      } catch (RuntimeException e) {
+        return Long.MIN_VALUE;
+      }
+    }
+    return Long.MIN_VALUE;
+  }
+
+  private static StreamFile getStreamFile(MessageCheckpoint checkpoint) {
+    if (checkpoint instanceof PartitionCheckpoint) {
+      return ((PartitionCheckpoint) checkpoint).getStreamFile();
+    } else if (checkpoint instanceof DeltaPartitionCheckPoint) {
+      return ((DeltaPartitionCheckPoint) checkpoint).getStreamFile();
+    }
+    return null;
+  }
+
+  private void signalNotEmpty() {
+    lock.lock();
+    try {
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Bounded single producer, single consumer ring. The producer only writes
+   * {@link #tail} and the consumer only writes {@link #head}; the volatile
+   * writes of the indices publish the slots.
+   *
+   * Payloads held off heap are laid out in the order of the entries in a
+   * byte ring. A payload which does not fit before the end of the ring
+   * starts over at its beginning, and one larger than the whole ring stays
+   * on heap.
+   */
+  private final class PartitionQueue implements QueueEntrySink, Occupancy {
+    private final PartitionId partitionId;
+    // allocated on the first put, published by the volatile write of tail
+    private QueueEntry[] ring;
+    private int mask;
+    private volatile int partitionCapacity;
+    private final Condition notFull = lock.newCondition();
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile boolean producerWaiting;
+    private volatile long blockedPutNanos = 0;
+    // size of the off heap ring, 0 if payloads stay on heap
+    private int partitionBytes;
+    // off heap payloads, allocated with the first payload
+    private ByteBuffer payloadWriter;
+    private ByteBuffer payloadReader;
+    // per slot, the byte position after the payload and its length or -1,
+    // null if payloads stay on heap
+    private long[] payloadEnd;
+    private int[] payloadLength;
+    private volatile long byteHead = 0;
+    private volatile long byteTail = 0;
+    // consumer side state of the event time order
+    private long headTime;
+    private long lastTime = Long.MIN_VALUE;
+    private long emptySince;
+    private StreamFile lastFile;
+    private long lastFileTime = Long.MIN_VALUE;
+
+    PartitionQueue(PartitionId partitionId) {
+      this.partitionId = partitionId;
+    }
+
+    /**
+     * Takes the share of the buffer capacity for this partition and
+     * allocates the ring. Called by the producer on its first put.
+     */
+    private void allocate() {
+      partitionCapacity = getPartitionCapacity();
+      int length = Integer.highestOneBit(partitionCapacity);
+      if (length < partitionCapacity) {
+        length <<= 1;
+      }
+      mask = length - 1;
+      partitionBytes = getPartitionBytes();
+      if (partitionBytes > 0) {
+        payloadEnd = new long[length];
+        payloadLength = new int[length];
+      }
+      ring = new QueueEntry[length];
+    }
+
+    /**
+     * Returns the payload of the entry if it is to be moved off heap.
+     */
+    private ByteBuffer getPayload(QueueEntry e) {
+      MessageBase message = e.getMessage();
+      if (payloadLength == null || !(message instanceof Message)) {
+        return null;
+      }
+      ByteBuffer data = ((Message) message).getData();
+      if (data == null || data.remaining() > partitionBytes) {
+        return null;
+      }
+      return data;
+    }
+
+    /**
+     * Returns the byte position the payload of the passed length would start
+     * at, skipping the end of the ring if it does not fit there.
+     */
+    private long getPayloadStart(int length) {
+      long start = byteTail;
+      int offset = (int) (start % partitionBytes);
+      if (offset + length > partitionBytes) {
+        start += partitionBytes - offset;
+      }
+      return start;
+    }
+
+    private boolean hasRoom(QueueEntry e) {
+      if (tail - head >= partitionCapacity) {
+        return false;
+      }
+      ByteBuffer payload = getPayload(e);
+      if (payload == null) {
+        return true;
+      }
+      int length = payload.remaining();
+      long h = byteHead;
+      // an empty ring has room whatever the padding, this is what lets a
+      // payload which has to start over at the beginning in
+      return h == byteTail
+          || getPayloadStart(length) + length - h <= partitionBytes;
+    }
+
+    @Override
+    public boolean offer(QueueEntry e) {
+      if (e == null) {
+        throw new NullPointerException();
+      }
+      if (ring == null) {
+        allocate();
+      }
+      if (!hasRoom(e)) {
+        return false;
+      }
+      long t = tail;
+      int slot = (int) (t & mask);
+      if (payloadLength != null) {
+        storePayload(e, slot);
+      }
+      ring[slot] = e;
+      tail = t + 1;
+      if (consumerWaiting) {
+        signalNotEmpty();
+      }
+      return true;
+    }
+
+    private void storePayload(QueueEntry e, int slot) {
+      ByteBuffer payload = getPayload(e);
+      if (payload == null) {
+        payloadLength[slot] = -1;
+        return;
+      }
+      if (payloadWriter == null) {
+        ByteBuffer payloads = ByteBuffer.allocateDirect(partitionBytes);
+        payloadWriter = payloads.duplicate();
+        payloadReader = payloads.duplicate();
+      }
+      int length = payload.remaining();
+      long start = getPayloadStart(length);
+      payloadWriter.clear();
+      payloadWriter.position((int) (start % partitionBytes));
+      payloadWriter.put(payload.duplicate());
+      payloadEnd[slot] = start + length;
+      payloadLength[slot] = length;
+      byteTail = start + length;
+      ((Message) e.getMessage()).set(EMPTY_PAYLOAD);
+    }
+
+    /**
+     * Copies the payload of the entry in the slot back to the heap and frees
+     * its bytes in the ring.
+     */
+    private void loadPayload(QueueEntry entry, int slot) {
+      int length = payloadLength[slot];
+      if (length < 0) {
+        return;
+      }
+      long end = payloadEnd[slot];
+      byte[] data = new byte[length];
+      payloadReader.clear();
+      payloadReader.position((int) ((end - length) % partitionBytes));
+      payloadReader.get(data);
+      ((Message) entry.getMessage()).set(ByteBuffer.wrap(data));
+      byteHead = end;
+    }
+
+    @Override
+    public void put(QueueEntry e) throws InterruptedException {
+      while (!offer(e)) {
+        awaitNotFull(e, -1);
+      }
+    }
+
+    @Override
+    public boolean offer(QueueEntry e, long timeout, TimeUnit unit)
+        throws InterruptedException {
+      long nanos = unit.toNanos(timeout);
+      long deadline = System.nanoTime() + nanos;
+      while (!offer(e)) {
+        if (nanos <= 0) {
+          return false;
+        }
+        awaitNotFull(e, nanos);
+        nanos = deadline - System.nanoTime();
+      }
+      return true;
+    }
+
+    private void awaitNotFull(QueueEntry e, long nanos)
+        throws InterruptedException {
+      long start = System.nanoTime();
+      lock.lockInterruptibly();
+      try {
+        producerWaiting = true;
+        if (!hasRoom(e)) {
+          if (nanos < 0) {
+            notFull.await();
+          } else {
+            notFull.awaitNanos(nanos);
+          }
+        }
+      } finally {
+        producerWaiting = false;
+        lock.unlock();
+        blockedPutNanos += System.nanoTime() - start;
+      }
+    }
+
+    QueueEntry poll() {
+      long h = head;
+      if (h == tail) {
+        return null;
+      }
+      int index = (int) (h & mask);
+      QueueEntry entry = ring[index];
+      ring[index] = null;
+      if (payloadLength != null) {
+        loadPayload(entry, index);
+      }
+      head = h + 1;
+      if (producerWaiting) {
+        lock.lock();
+        try {
+          notFull.signal();
+        } finally {
+          lock.unlock();
+        }
+      }
+      return entry;
+    }
+
+    QueueEntry peek() {
+      long h = head;
+      if (h == tail) {
+        return null;
+      }
+      return ring[(int) (h & mask)];
+    }
+
+    boolean isEmpty() {
+      return head == tail;
+    }
+
+    @Override
+    public int size() {
+      // read head first so that the difference never goes negative
+      long h = head;
+      return (int) (tail - h);
+    }
+
+    int remainingCapacity() {
+      int c = partitionCapacity;
+      return Math.max(0, (c > 0 ? c : getPartitionCapacity()) - size());
+    }
+
+    @Override
+    public long getBufferedBytes() {
+      long h = byteHead;
+      return byteTail - h;
+    }
+
+    @Override
+    public long getBlockedPutNanos() {
+      return blockedPutNanos;
+    }
+
+    void snapshot(List<QueueEntry> entries) {
+      long t = tail;
+      for (long h = head; h < t; h++) {
+        QueueEntry entry = ring[(int) (h & mask)];
+        if (entry != null) {
+          entries.add(entry);
+        }
+      }
+    }
+
+    /**
+     * Sets the event time of the head entry, the minute of its file. An end
+     * of stream goes first, it does not carry any message.
+     */
+    void loadHeadTime() {
+      QueueEntry entry = peek();
+      if (entry.getMessage() instanceof EOFMessage) {
+        headTime = Long.MIN_VALUE;
+        return;
+      }
+      StreamFile file = getStreamFile(entry.getMessageChkpoint());
+      if (file != lastFile) {
+        lastFile = file;
+        lastFileTime = getFileTimestamp(file);
+      }
+      headTime = lastFileTime;
+    }
+
+    @Override
+    public String toString() {
+      return "PartitionQueue[" + partitionId + ", size=" + size() + "]";
+    }
+  }
+}
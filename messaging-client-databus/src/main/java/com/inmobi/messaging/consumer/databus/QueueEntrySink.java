@@ -0,0 +1,50 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The producer side of a consumer buffer, where a partition reader puts the
+ * entries it reads. The consumer takes them out through the buffer itself.
+ */
+public interface QueueEntrySink {
+
+  /**
+   * Adds the entry, waiting for room if necessary.
+   */
+  void put(QueueEntry entry) throws InterruptedException;
+
+  /**
+   * Adds the entry if there is room right away.
+   *
+   * @return false if there was no room
+   */
+  boolean offer(QueueEntry entry);
+
+  /**
+   * Adds the entry, waiting up to the passed time for room.
+   *
+   * @return false if there was no room within the time
+   */
+  boolean offer(QueueEntry entry, long timeout, TimeUnit unit)
+      throws InterruptedException;
+}
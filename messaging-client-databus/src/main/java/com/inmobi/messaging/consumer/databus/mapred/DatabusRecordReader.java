@@ -37,11 +37,21 @@ public class DatabusRecordReader implements RecordReader<LongWritable, Message>
 
   private LineRecordReader lineReader;
   private Text textValue;
+  private boolean reuseValues = false;
 
   public DatabusRecordReader(JobConf job, InputSplit split) throws IOException {
     lineReader = new LineRecordReader(job, (FileSplit) split);
   }
 
+  /**
+   * If set, next decodes into the array already backing the passed value
+   * when it is large enough. The data of the value is then only the part of
+   * the array between the position and the limit of its buffer.
+   */
+  public void setReuseValues(boolean reuseValues) {
+    this.reuseValues = reuseValues;
+  }
+
   public LongWritable createKey() {
     return lineReader.createKey();
   }
@@ -59,8 +69,12 @@ public class DatabusRecordReader implements RecordReader<LongWritable, Message>
     textValue.clear();
     boolean ret = lineReader.next(key, this.textValue);
     if (ret) {
-      // get the byte array corresponding to the value read
       int length = textValue.getLength();
+      if (reuseValues) {
+        DatabusUtil.decodeMessage(textValue.getBytes(), 0, length, value);
+        return ret;
+      }
+      // get the byte array corresponding to the value read
       byte[] msg = new byte[length];
       System.arraycopy(textValue.getBytes(), 0, msg, 0, length);
       //decode Base 64
@@ -32,6 +32,7 @@ import com.inmobi.databus.partition.PartitionReader;
 import com.inmobi.messaging.ClientConfig;
 import com.inmobi.messaging.consumer.databus.AbstractMessagingDatabusConsumer;
 import com.inmobi.messaging.consumer.databus.CheckpointList;
+import com.inmobi.messaging.consumer.databus.QueueEntrySink;
 import com.inmobi.messaging.metrics.PartitionReaderStatsExposer;
 
 public class HadoopConsumer extends AbstractMessagingDatabusConsumer
@@ -92,9 +93,12 @@ public class HadoopConsumer extends AbstractMessagingDatabusConsumer
           new PartitionReaderStatsExposer(topicName, consumerName, id.toString(),
               consumerNumber, fsUri);
       addStatsExposer(clusterMetrics);
+      QueueEntrySink partitionBuffer =
+          buffer.getPartitionQueue(id);
+      clusterMetrics.setBufferOccupancy(buffer.getOccupancy(id));
       PartitionReader reader = new PartitionReader(id,
-          partitionCheckpointList, fileSystems[i], buffer, rootDirs[i],
-          conf, inputFormatClassName, partitionTimestamp,
+          partitionCheckpointList, fileSystems[i], partitionBuffer,
+          rootDirs[i], conf, inputFormatClassName, partitionTimestamp,
           waitTimeForFileCreate, false, clusterMetrics, partitionMinList,
           stopTime);
       LOG.debug("Created partition " + id);
@@ -109,7 +113,8 @@ public class HadoopConsumer extends AbstractMessagingDatabusConsumer
 
   @Override
   protected void createCheckpoint() {
-    currentCheckpoint = new CheckpointList(partitionMinList);
+    currentCheckpoint = new CheckpointList(partitionMinList, consumerNumber,
+        totalConsumers, checkpointMinuteKeys);
   }
 
 }
@@ -21,6 +21,7 @@ package com.inmobi.messaging.consumer.util;
  */
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.hadoop.fs.Path;
@@ -30,6 +31,22 @@ import com.inmobi.messaging.consumer.databus.StreamType;
 import com.inmobi.messaging.util.AuditUtil;
 
 public class DatabusUtil {
+  private static final byte[] BASE64_DECODE_TABLE = new byte[128];
+  static {
+    Arrays.fill(BASE64_DECODE_TABLE, (byte) -1);
+    for (int i = 0; i < 26; i++) {
+      BASE64_DECODE_TABLE['A' + i] = (byte) i;
+      BASE64_DECODE_TABLE['a' + i] = (byte) (26 + i);
+    }
+    for (int i = 0; i < 10; i++) {
+      BASE64_DECODE_TABLE['0' + i] = (byte) (52 + i);
+    }
+    BASE64_DECODE_TABLE['+'] = 62;
+    BASE64_DECODE_TABLE['-'] = 62;
+    BASE64_DECODE_TABLE['/'] = 63;
+    BASE64_DECODE_TABLE['_'] = 63;
+  }
+
   public static Path getStreamDir(StreamType streamType, Path databusRootDir,
       String streamName) {
     return new Path(getBaseDir(streamType, databusRootDir), streamName);
@@ -73,4 +90,58 @@ public class DatabusUtil {
 
   }
 
+  /**
+   * Decodes a line into msg, reusing the array backing the data of msg if it
+   * is large enough, so that decoding into a recycled message does not
+   * allocate. The data is left between the position and the limit of the
+   * buffer of msg, which can be a part of a larger array.
+   */
+  public static void decodeMessage(byte[] line, int offset, int length,
+      Message msg) {
+    int maxLength = (length / 4) * 3 + 3;
+    ByteBuffer data = msg.getData();
+    if (data == null || !data.hasArray() || data.isReadOnly()
+        || data.arrayOffset() != 0 || data.array().length < maxLength) {
+      data = ByteBuffer.wrap(new byte[maxLength]);
+    }
+    int decoded = decodeBase64(line, offset, length, data.array());
+    data.clear();
+    data.limit(decoded);
+    AuditUtil.skipHeader(data);
+    msg.set(data);
+  }
+
+  /**
+   * Decodes base64 into out and returns the number of bytes decoded. Same as
+   * {@link Base64#decodeBase64(byte[])}, both alphabets are accepted,
+   * characters outside them are skipped and decoding stops at padding.
+   */
+  static int decodeBase64(byte[] in, int offset, int length, byte[] out) {
+    int bits = 0;
+    int modulus = 0;
+    int pos = 0;
+    for (int i = offset; i < offset + length; i++) {
+      byte b = in[i];
+      if (b == '=') {
+        break;
+      }
+      if (b >= 0 && BASE64_DECODE_TABLE[b] >= 0) {
+        bits = (bits << 6) + BASE64_DECODE_TABLE[b];
+        modulus = (modulus + 1) % 4;
+        if (modulus == 0) {
+          out[pos++] = (byte) (bits >> 16);
+          out[pos++] = (byte) (bits >> 8);
+          out[pos++] = (byte) bits;
+        }
+      }
+    }
+    if (modulus == 2) {
+      out[pos++] = (byte) (bits >> 4);
+    } else if (modulus == 3) {
+      out[pos++] = (byte) (bits >> 10);
+      out[pos++] = (byte) (bits >> 2);
+    }
+    return pos;
+  }
+
 }
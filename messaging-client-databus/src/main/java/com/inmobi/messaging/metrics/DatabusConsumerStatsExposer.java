@@ -21,6 +21,7 @@ package com.inmobi.messaging.metrics;
  */
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.inmobi.messaging.consumer.BaseMessageConsumerStatsExposer;
 
@@ -28,8 +29,20 @@ public class DatabusConsumerStatsExposer extends
     BaseMessageConsumerStatsExposer {
 
   public static String CONSUMER_NUMBER_CONTEXT = "consumerNumber";
+  public static final String CHECKPOINT_COMMITS = "checkpointCommits";
+  public static final String CHECKPOINT_COMMIT_FAILURES =
+      "checkpointCommitFailures";
+  public static final String CUMULATIVE_MILLIS_IN_CHECKPOINT_COMMIT =
+      "cumulativeMillisInCheckpointCommit";
+  public static final String COALESCED_MARKS = "coalescedMarks";
 
   Integer consumerNumber;
+  private final AtomicLong checkpointCommits = new AtomicLong(0);
+  private final AtomicLong checkpointCommitFailures = new AtomicLong(0);
+  private final AtomicLong cumulativeMillisInCheckpointCommit =
+      new AtomicLong(0);
+  private final AtomicLong coalescedMarks = new AtomicLong(0);
+
   public DatabusConsumerStatsExposer(String topicName, String consumerName,
       int consumerNumber) {
     super(topicName, consumerName);
@@ -40,4 +53,47 @@ public class DatabusConsumerStatsExposer extends
     super.addToContextsMap(contexts);
     contexts.put(CONSUMER_NUMBER_CONTEXT, consumerNumber.toString());
   }
+
+  public void addCheckpointCommit(long millis) {
+    checkpointCommits.incrementAndGet();
+    cumulativeMillisInCheckpointCommit.addAndGet(millis);
+  }
+
+  public void incrementCheckpointCommitFailures() {
+    checkpointCommitFailures.incrementAndGet();
+  }
+
+  /**
+   * Counts a mark whose checkpoint was replaced by a later mark before it
+   * was committed.
+   */
+  public void incrementCoalescedMarks() {
+    coalescedMarks.incrementAndGet();
+  }
+
+  public long getCheckpointCommits() {
+    return checkpointCommits.get();
+  }
+
+  public long getCheckpointCommitFailures() {
+    return checkpointCommitFailures.get();
+  }
+
+  public long getCumulativeMillisInCheckpointCommit() {
+    return cumulativeMillisInCheckpointCommit.get();
+  }
+
+  public long getCoalescedMarks() {
+    return coalescedMarks.get();
+  }
+
+  @Override
+  protected void addToStatsMap(Map<String, Number> statsMap) {
+    super.addToStatsMap(statsMap);
+    statsMap.put(CHECKPOINT_COMMITS, getCheckpointCommits());
+    statsMap.put(CHECKPOINT_COMMIT_FAILURES, getCheckpointCommitFailures());
+    statsMap.put(CUMULATIVE_MILLIS_IN_CHECKPOINT_COMMIT,
+        getCumulativeMillisInCheckpointCommit());
+    statsMap.put(COALESCED_MARKS, getCoalescedMarks());
+  }
 }
@@ -24,6 +24,8 @@ import java.util.Date;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.inmobi.messaging.consumer.databus.PartitionedBuffer;
+
 public class PartitionReaderStatsExposer extends
     DatabusConsumerStatsExposer {
   private static final long NUMBER_OF_MILLI_SECONDS_IN_MINUTE = 60 * 1000;
@@ -59,6 +61,21 @@ public class PartitionReaderStatsExposer extends
    * last time when reader waited for a new file
    */
   public static final String READER_WAIT_LAG_TIME = "readerWaitLagTime";
+  /*
+   * Gives the number of messages of this partition waiting in the consumer
+   * buffer
+   */
+  public static final String BUFFER_OCCUPANCY = "bufferOccupancy";
+  /*
+   * Gives the size of the payloads of this partition held off heap in the
+   * consumer buffer
+   */
+  public static final String BUFFER_BYTES = "bufferBytes";
+  /*
+   * Gives the total time the reader waited for room in the consumer buffer
+   */
+  public static final String CUMULATIVE_NANOS_BLOCKED_ON_PUT =
+      "cumulativeNanosBlockedOnPut";
 
   private final AtomicLong numMessagesReadFromSource = new AtomicLong(0);
   private final AtomicLong numMessagesAddedToBuffer = new AtomicLong(0);
@@ -75,6 +92,7 @@ public class PartitionReaderStatsExposer extends
   private final String FS_LIST, FS_OPEN, FS_GET_FILE_STATUS, FS_EXISTS;
   private final AtomicLong latestMinuteAlreadyRead = new AtomicLong(0);
   private final AtomicLong lastWaitTimeForNewFile = new AtomicLong(0);
+  private volatile PartitionedBuffer.Occupancy bufferOccupancy;
 
   public PartitionReaderStatsExposer(String topicName, String consumerName,
       String pid, int consumerNumber, String fsUri) {
@@ -135,6 +153,10 @@ public class PartitionReaderStatsExposer extends
     lastWaitTimeForNewFile.set(lastWaitTime);
   }
 
+  public void setBufferOccupancy(PartitionedBuffer.Occupancy occupancy) {
+    this.bufferOccupancy = occupancy;
+  }
+
   @Override
   protected void addToStatsMap(Map<String, Number> map) {
     map.put(MESSAGES_READ_FROM_SOURCE, getMessagesReadFromSource());
@@ -151,6 +173,9 @@ public class PartitionReaderStatsExposer extends
     map.put(LATEST_DIRECTORY_LAG_TIME, getLatestDirectoryLagTime());
     map.put(LAST_WAIT_TIME_FOR_NEW_FILE, getLastWaitTimeForNewFile());
     map.put(READER_WAIT_LAG_TIME, getReaderWaitLagTime());
+    map.put(BUFFER_OCCUPANCY, getBufferOccupancy());
+    map.put(BUFFER_BYTES, getBufferBytes());
+    map.put(CUMULATIVE_NANOS_BLOCKED_ON_PUT, getCumulativeNanosBlockedOnPut());
   }
 
   @Override
@@ -159,6 +184,21 @@ public class PartitionReaderStatsExposer extends
     map.put(PARTITION_CONTEXT, pid);
   }
 
+  public int getBufferOccupancy() {
+    PartitionedBuffer.Occupancy current = bufferOccupancy;
+    return current == null ? 0 : current.size();
+  }
+
+  public long getBufferBytes() {
+    PartitionedBuffer.Occupancy current = bufferOccupancy;
+    return current == null ? 0 : current.getBufferedBytes();
+  }
+
+  public long getCumulativeNanosBlockedOnPut() {
+    PartitionedBuffer.Occupancy current = bufferOccupancy;
+    return current == null ? 0 : current.getBlockedPutNanos();
+  }
+
   public long getMessagesReadFromSource() {
     return numMessagesReadFromSource.get();
   }
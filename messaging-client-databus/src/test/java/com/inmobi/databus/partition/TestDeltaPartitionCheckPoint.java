@@ -0,0 +1,110 @@
+package com.inmobi.databus.partition;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.Path;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.databus.files.HadoopStreamFile;
+import com.inmobi.databus.files.StreamFile;
+
+public class TestDeltaPartitionCheckPoint {
+
+  private StreamFile file(int min) {
+    return new HadoopStreamFile(new Path("/stream/2014/01/01/00/" + min),
+        "file" + min, (long) min);
+  }
+
+  @Test
+  public void testLazyPosition() {
+    Map<Integer, PartitionCheckpoint> empty =
+        new HashMap<Integer, PartitionCheckpoint>();
+    DeltaPartitionCheckPoint chk =
+        new DeltaPartitionCheckPoint(file(5), 10, 5, empty);
+    Map<Integer, PartitionCheckpoint> delta = chk.getDeltaCheckpoint();
+    Assert.assertEquals(delta.size(), 1);
+    Assert.assertEquals(delta.get(5), new PartitionCheckpoint(file(5), 10));
+    // materializing again gives the same map
+    Assert.assertEquals(chk.getDeltaCheckpoint(), delta);
+  }
+
+  @Test
+  public void testToStringKeepsPosition() {
+    Map<Integer, PartitionCheckpoint> empty =
+        new HashMap<Integer, PartitionCheckpoint>();
+    DeltaPartitionCheckPoint chk =
+        new DeltaPartitionCheckPoint(file(5), 10, 5, empty);
+    Assert.assertTrue(chk.toString().contains("file5"));
+    // the ordered merge still sees the file of the position after logging
+    Assert.assertEquals(chk.getStreamFile(), file(5));
+  }
+
+  /**
+   * Adding checkpoints one by one should give the same minutes as putting
+   * all the materialized checkpoints into one map, which is what the
+   * consumer did before checkpoints were built lazily.
+   */
+  @Test
+  public void testAddMatchesMaterializedMerge() {
+    List<DeltaPartitionCheckPoint> chks =
+        new ArrayList<DeltaPartitionCheckPoint>();
+    List<DeltaPartitionCheckPoint> copies =
+        new ArrayList<DeltaPartitionCheckPoint>();
+    Map<Integer, PartitionCheckpoint> readerDelta =
+        new HashMap<Integer, PartitionCheckpoint>();
+    for (int min = 1; min <= 4; min++) {
+      for (int line = 1; line <= 3; line++) {
+        if (line == 1 && min > 1) {
+          // moving to a new file completes the previous minute
+          readerDelta.put(min - 1, new PartitionCheckpoint(file(min - 1), -1));
+        }
+        chks.add(new DeltaPartitionCheckPoint(file(min), line, min,
+            readerDelta));
+        copies.add(new DeltaPartitionCheckPoint(file(min), line, min,
+            readerDelta));
+        readerDelta.clear();
+      }
+    }
+    Map<Integer, PartitionCheckpoint> expected =
+        new HashMap<Integer, PartitionCheckpoint>();
+    for (DeltaPartitionCheckPoint chk : copies) {
+      expected.putAll(chk.getDeltaCheckpoint());
+    }
+
+    DeltaPartitionCheckPoint merged = new DeltaPartitionCheckPoint(chks.get(0));
+    for (int i = 1; i < chks.size(); i++) {
+      merged.add(chks.get(i));
+    }
+    Assert.assertEquals(merged.getDeltaCheckpoint(), expected);
+    Assert.assertEquals(merged.getDeltaCheckpoint().get(4),
+        new PartitionCheckpoint(file(4), 3));
+    Assert.assertEquals(merged.getDeltaCheckpoint().get(2),
+        new PartitionCheckpoint(file(2), -1));
+    // the added checkpoints are not modified
+    Assert.assertEquals(chks.get(0).getDeltaCheckpoint().size(), 1);
+  }
+}
@@ -0,0 +1,75 @@
+package com.inmobi.messaging.checkpoint;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.testng.Assert;
+import org.testng.annotations.AfterTest;
+import org.testng.annotations.Test;
+
+public class TestFSCheckpointProvider {
+  private final String dir = new File("target/test/fschkpoint")
+      .getAbsolutePath();
+
+  @AfterTest
+  public void cleanup() throws Exception {
+    FileSystem.getLocal(new Configuration()).delete(new Path(dir), true);
+  }
+
+  @Test
+  public void testReadWrite() {
+    FSCheckpointProvider provider = new FSCheckpointProvider(dir);
+    Assert.assertNull(provider.read("missing"));
+    byte[] bytes = new byte[10000];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    provider.checkpoint("single", bytes);
+    Assert.assertEquals(provider.read("single"), bytes);
+    provider.checkpoint("single", new byte[0]);
+    Assert.assertEquals(provider.read("single"), new byte[0]);
+    provider.close();
+  }
+
+  @Test
+  public void testBatch() {
+    FSCheckpointProvider provider = new FSCheckpointProvider(dir);
+    Map<String, byte[]> checkpoints = new HashMap<String, byte[]>();
+    for (int i = 0; i < 20; i++) {
+      checkpoints.put("key" + i, new byte[] {(byte) i, 1, 2});
+    }
+    provider.checkpoint(checkpoints);
+
+    Map<String, byte[]> read = provider.read(Arrays.asList("key0", "key19",
+        "missing"));
+    Assert.assertEquals(read.size(), 2);
+    Assert.assertEquals(read.get("key0"), new byte[] {0, 1, 2});
+    Assert.assertEquals(read.get("key19"), new byte[] {19, 1, 2});
+    provider.close();
+  }
+}
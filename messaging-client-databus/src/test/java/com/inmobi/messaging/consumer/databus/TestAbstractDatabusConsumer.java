@@ -64,6 +64,9 @@ public abstract class TestAbstractDatabusConsumer {
   protected String ck11;
   protected String ck12;
   protected String ck13;
+  protected String ck14;
+  protected String ck15;
+  protected String ck16;
   protected String chkpointPathPrefix;
 
   public void setup(int numFileToMove) throws Exception {
@@ -124,6 +127,9 @@ public abstract class TestAbstractDatabusConsumer {
     ck11 = new Path(chkpointPathPrefix, "checkpoint11").toString();
     ck12 = new Path(chkpointPathPrefix, "checkpoint12").toString();
     ck13 = new Path(chkpointPathPrefix, "checkpoint13").toString();
+    ck14 = new Path(chkpointPathPrefix, "checkpoint14").toString();
+    ck15 = new Path(chkpointPathPrefix, "checkpoint15").toString();
+    ck16 = new Path(chkpointPathPrefix, "checkpoint16").toString();
   }
 
   protected DatabusConsumer getConsumerInstance() {
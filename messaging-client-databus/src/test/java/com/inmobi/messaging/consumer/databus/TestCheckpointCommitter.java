@@ -0,0 +1,159 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.messaging.checkpoint.CheckpointProvider;
+import com.inmobi.messaging.metrics.DatabusConsumerStatsExposer;
+
+public class TestCheckpointCommitter {
+
+  /**
+   * Records the values written, blocking the first write until released and
+   * failing the given number of writes after that.
+   */
+  private static class TestProvider implements CheckpointProvider {
+    final List<byte[]> written =
+        Collections.synchronizedList(new ArrayList<byte[]>());
+    final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFirstWrite;
+    final AtomicInteger failures;
+
+    TestProvider(boolean blockFirstWrite, int failures) {
+      this.releaseFirstWrite = new CountDownLatch(blockFirstWrite ? 1 : 0);
+      this.failures = new AtomicInteger(failures);
+    }
+
+    @Override
+    public byte[] read(String key) {
+      return null;
+    }
+
+    @Override
+    public void checkpoint(String key, byte[] checkpoint) {
+      firstWriteStarted.countDown();
+      try {
+        releaseFirstWrite.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      if (failures.getAndDecrement() > 0) {
+        throw new RuntimeException("test failure");
+      }
+      written.add(checkpoint);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static Map<String, byte[]> snapshot(byte value) {
+    return Collections.singletonMap("key", new byte[] {value});
+  }
+
+  @Test
+  public void testSnapshot() throws IOException {
+    Checkpoint checkpoint = new Checkpoint();
+    checkpoint.set(new PartitionId("cluster", "collector"), null);
+    Map<String, byte[]> snapshot = CheckpointCommitter.snapshot(checkpoint,
+        "key");
+    Assert.assertEquals(snapshot.size(), 1);
+    Assert.assertTrue(Arrays.equals(snapshot.get("key"),
+        checkpoint.toBytes()));
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    TestProvider provider = new TestProvider(true, 0);
+    DatabusConsumerStatsExposer metrics =
+        new DatabusConsumerStatsExposer("topic", "consumer", 1);
+    CheckpointCommitter committer = new CheckpointCommitter(provider,
+        metrics, "test");
+    committer.submit(snapshot((byte) 1));
+    Assert.assertTrue(provider.firstWriteStarted.await(10, TimeUnit.SECONDS));
+    // both are pending while the first one is written, only the last counts
+    committer.submit(snapshot((byte) 2));
+    long seq = committer.submit(snapshot((byte) 3));
+    Assert.assertEquals(metrics.getCoalescedMarks(), 1);
+    provider.releaseFirstWrite.countDown();
+    committer.await(seq);
+    Assert.assertEquals(provider.written.size(), 2);
+    Assert.assertEquals(provider.written.get(0)[0], 1);
+    Assert.assertEquals(provider.written.get(1)[0], 3);
+    Assert.assertEquals(metrics.getCheckpointCommits(), 2);
+    Assert.assertEquals(metrics.getCheckpointCommitFailures(), 0);
+    committer.close();
+  }
+
+  @Test
+  public void testFailureIsRetried() throws Exception {
+    TestProvider provider = new TestProvider(false, 1);
+    DatabusConsumerStatsExposer metrics =
+        new DatabusConsumerStatsExposer("topic", "consumer", 1);
+    CheckpointCommitter committer = new CheckpointCommitter(provider,
+        metrics, "test");
+    long seq = committer.submit(snapshot((byte) 1));
+    try {
+      committer.await(seq);
+      Assert.fail("commit should have failed");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(metrics.getCheckpointCommitFailures(), 1);
+    // a later snapshot replaces the failed one
+    seq = committer.submit(snapshot((byte) 2));
+    committer.await(seq);
+    Assert.assertEquals(provider.written.size(), 1);
+    Assert.assertEquals(provider.written.get(0)[0], 2);
+    committer.close();
+  }
+
+  @Test
+  public void testCloseCommitsPending() throws Exception {
+    TestProvider provider = new TestProvider(false, 0);
+    DatabusConsumerStatsExposer metrics =
+        new DatabusConsumerStatsExposer("topic", "consumer", 1);
+    CheckpointCommitter committer = new CheckpointCommitter(provider,
+        metrics, "test");
+    committer.submit(snapshot((byte) 1));
+    committer.close();
+    Assert.assertEquals(provider.written.size(), 1);
+    // a submit after close starts the committer again
+    long seq = committer.submit(snapshot((byte) 2));
+    committer.await(seq);
+    Assert.assertEquals(provider.written.size(), 2);
+    committer.close();
+  }
+}
@@ -0,0 +1,249 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.fs.Path;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.databus.files.HadoopStreamFile;
+import com.inmobi.databus.partition.DeltaPartitionCheckPoint;
+import com.inmobi.databus.partition.PartitionCheckpoint;
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.messaging.checkpoint.MemoryCheckpointProvider;
+
+public class TestCheckpointList {
+  private static final String KEY = "consumer_topic";
+  private final PartitionId pid1 = new PartitionId("cluster1", null);
+  private final PartitionId pid2 = new PartitionId("cluster2", null);
+
+  private static Set<Integer> minutes(int consumerNumber, int totalConsumers) {
+    Set<Integer> ids = new HashSet<Integer>();
+    for (int i = 0; i < 60; i++) {
+      if ((i % totalConsumers) == (consumerNumber - 1)) {
+        ids.add(i);
+      }
+    }
+    return ids;
+  }
+
+  private static PartitionCheckpoint checkpoint(int minute, long lineNum) {
+    Path parent = new Path("hdfs://namenode:8020/databus/streams/stream/"
+        + String.format("2014/01/01/10/%02d", minute));
+    return new PartitionCheckpoint(new HadoopStreamFile(parent,
+        "file-" + minute, 1388570400000L + minute), lineNum);
+  }
+
+  private void setAll(CheckpointList list, Set<Integer> ids, long lineNum) {
+    for (PartitionId pid : new PartitionId[] {pid1, pid2}) {
+      Map<Integer, PartitionCheckpoint> delta =
+          new HashMap<Integer, PartitionCheckpoint>();
+      for (int minute : ids) {
+        delta.put(minute, checkpoint(minute, lineNum));
+      }
+      list.set(pid, new DeltaPartitionCheckPoint(delta));
+    }
+  }
+
+  @Test
+  public void testSingleFile() throws IOException {
+    MemoryCheckpointProvider provider = new MemoryCheckpointProvider();
+    Set<Integer> ids = minutes(1, 1);
+    CheckpointList list = new CheckpointList(ids, 1, 1);
+    list.read(provider, KEY);
+    setAll(list, ids, 10);
+    list.write(provider, KEY);
+    Assert.assertEquals(provider.written.size(), 2);
+    Assert.assertTrue(provider.checkpoints.containsKey(
+        CheckpointList.getConsolidatedKey(KEY, 1, 1)));
+
+    // the same checkpoints with a key per minute take several times the size
+    MemoryCheckpointProvider perMinute = new MemoryCheckpointProvider();
+    CheckpointList old = new CheckpointList(ids);
+    setAll(old, ids, 10);
+    old.write(perMinute, KEY);
+    int perMinuteBytes = 0;
+    for (byte[] bytes : perMinute.checkpoints.values()) {
+      perMinuteBytes += bytes.length;
+    }
+    int bytes = provider.checkpoints.get(
+        CheckpointList.getConsolidatedKey(KEY, 1, 1)).length;
+    Assert.assertTrue(bytes * 4 < perMinuteBytes, bytes + " " + perMinuteBytes);
+
+    CheckpointList read = new CheckpointList(ids, 1, 1);
+    read.read(provider, KEY);
+    Assert.assertEquals(read.getCheckpoints(), list.getCheckpoints());
+    Assert.assertEquals(read.getCheckpoints(), old.getCheckpoints());
+  }
+
+  @Test
+  public void testOnlyChangesAreWritten() throws IOException {
+    MemoryCheckpointProvider provider = new MemoryCheckpointProvider();
+    Set<Integer> ids = minutes(1, 1);
+    CheckpointList list = new CheckpointList(ids, 1, 1);
+    list.read(provider, KEY);
+    setAll(list, ids, 10);
+    list.write(provider, KEY);
+    provider.written.clear();
+    list.write(provider, KEY);
+    Assert.assertTrue(provider.written.isEmpty());
+
+    Map<Integer, PartitionCheckpoint> delta =
+        new HashMap<Integer, PartitionCheckpoint>();
+    delta.put(5, checkpoint(5, 20));
+    list.set(pid1, new DeltaPartitionCheckPoint(delta));
+    list.write(provider, KEY);
+    Assert.assertEquals(provider.written.size(), 1);
+
+    // nothing to write after a reset to the written checkpoint either
+    provider.written.clear();
+    list.clear();
+    list.read(provider, KEY);
+    list.write(provider, KEY);
+    Assert.assertTrue(provider.written.isEmpty());
+  }
+
+  @Test
+  public void testMigratePerMinuteCheckpoints() throws IOException {
+    MemoryCheckpointProvider provider = new MemoryCheckpointProvider();
+    Set<Integer> ids = minutes(1, 1);
+    CheckpointList old = new CheckpointList(ids);
+    setAll(old, ids, 10);
+    old.write(provider, KEY);
+    Assert.assertEquals(provider.written.size(), 60);
+
+    CheckpointList list = new CheckpointList(ids, 1, 1);
+    list.read(provider, KEY);
+    Assert.assertEquals(list.getCheckpoints(), old.getCheckpoints());
+    provider.written.clear();
+    list.write(provider, KEY);
+    Assert.assertTrue(provider.written.contains(
+        CheckpointList.getConsolidatedKey(KEY, 1, 1)));
+
+    // the consolidated checkpoint takes over the per minute ones
+    setAll(list, ids, 20);
+    list.write(provider, KEY);
+    CheckpointList read = new CheckpointList(ids, 1, 1);
+    read.read(provider, KEY);
+    Assert.assertEquals(read.getCheckpoints(), list.getCheckpoints());
+  }
+
+  @Test
+  public void testSequence() throws IOException {
+    MemoryCheckpointProvider provider = new MemoryCheckpointProvider();
+    Set<Integer> ids = minutes(1, 1);
+    String key = CheckpointList.getConsolidatedKey(KEY, 1, 1);
+    CheckpointList list = new CheckpointList(ids, 1, 1);
+    list.read(provider, KEY);
+    setAll(list, ids, 10);
+    list.write(provider, KEY);
+    Assert.assertEquals(CheckpointListFormat.decode(
+        provider.checkpoints.get(key)).sequence, 1);
+    setAll(list, ids, 20);
+    list.write(provider, KEY);
+    Assert.assertEquals(CheckpointListFormat.decode(
+        provider.checkpoints.get(key)).sequence, 2);
+
+    // a new consumer continues after the highest sequence it read
+    CheckpointList next = new CheckpointList(ids, 1, 1);
+    next.read(provider, KEY);
+    setAll(next, ids, 30);
+    next.write(provider, KEY);
+    Assert.assertEquals(CheckpointListFormat.decode(
+        provider.checkpoints.get(key)).sequence, 3);
+  }
+
+  @Test
+  public void testMinuteKeys() throws IOException {
+    MemoryCheckpointProvider provider = new MemoryCheckpointProvider();
+    Set<Integer> ids = minutes(1, 1);
+    CheckpointList list = new CheckpointList(ids, 1, 1, true);
+    list.read(provider, KEY);
+    setAll(list, ids, 10);
+    list.write(provider, KEY);
+    Assert.assertEquals(provider.written.size(), 62);
+
+    // an older consumer of the group reads and moves the per minute keys
+    CheckpointList old = new CheckpointList(ids);
+    old.read(provider, KEY);
+    Assert.assertEquals(old.getCheckpoints(), list.getCheckpoints());
+    setAll(old, ids, 20);
+    old.write(provider, KEY);
+
+    CheckpointList read = new CheckpointList(ids, 1, 1, true);
+    read.read(provider, KEY);
+    Assert.assertEquals(read.getCheckpoints(), old.getCheckpoints());
+    // the single key is brought up to date on the next mark
+    provider.written.clear();
+    read.write(provider, KEY);
+    Assert.assertTrue(provider.written.contains(
+        CheckpointList.getConsolidatedKey(KEY, 1, 1)));
+    CheckpointList upgraded = new CheckpointList(ids, 1, 1);
+    upgraded.read(provider, KEY);
+    Assert.assertEquals(upgraded.getCheckpoints(), old.getCheckpoints());
+  }
+
+  @Test
+  public void testConsumerGroupResize() throws Exception {
+    MemoryCheckpointProvider provider = new MemoryCheckpointProvider();
+    Map<Integer, Checkpoint> expected = new HashMap<Integer, Checkpoint>();
+    for (int consumer = 1; consumer <= 2; consumer++) {
+      CheckpointList list = new CheckpointList(minutes(consumer, 2),
+          consumer, 2);
+      list.read(provider, KEY);
+      setAll(list, minutes(consumer, 2), 10);
+      list.write(provider, KEY);
+      expected.putAll(list.getCheckpoints());
+    }
+    // the files are ordered by sequence, not by the time they were written
+    for (int consumer = 1; consumer <= 3; consumer++) {
+      CheckpointList list = new CheckpointList(minutes(consumer, 3),
+          consumer, 3);
+      list.read(provider, KEY);
+      for (Map.Entry<Integer, Checkpoint> entry : list.getCheckpoints()
+          .entrySet()) {
+        Assert.assertEquals(entry.getValue(), expected.get(entry.getKey()));
+      }
+      if (consumer == 3) {
+        setAll(list, minutes(consumer, 3), 20);
+      }
+      list.write(provider, KEY);
+      expected.putAll(list.getCheckpoints());
+    }
+    // back to two consumers, the minutes moved on in the meantime are read
+    for (int consumer = 1; consumer <= 2; consumer++) {
+      CheckpointList list = new CheckpointList(minutes(consumer, 2),
+          consumer, 2);
+      list.read(provider, KEY);
+      Assert.assertEquals(list.getCheckpoints().size(), 30);
+      for (Map.Entry<Integer, Checkpoint> entry : list.getCheckpoints()
+          .entrySet()) {
+        Assert.assertEquals(entry.getValue(), expected.get(entry.getKey()));
+      }
+    }
+  }
+}
@@ -239,6 +239,42 @@ public class TestDatabusConsumer extends TestAbstractDatabusConsumer {
         false);
   }
 
+  @Test
+  public void testBatchNext() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toUri().toString());
+    config.set(DatabusConsumerConfig.checkpointDirConfig, ck14);
+    config.set(MessagingConsumerConfig.relativeStartTimeConfig,
+        relativeStartTime);
+    ConsumerUtil.testBatchNext(config, testStream, consumerName, null, false,
+        300, false);
+  }
+
+  @Test
+  public void testSelectiveAck() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toUri().toString());
+    config.set(DatabusConsumerConfig.checkpointDirConfig, ck15);
+    config.set(MessagingConsumerConfig.relativeStartTimeConfig,
+        relativeStartTime);
+    config.set(MessagingConsumerConfig.selectiveAckConfig, "true");
+    ConsumerUtil.testSelectiveAck(config, testStream, consumerName, false);
+  }
+
+  @Test
+  public void testRecycleMessages() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toUri().toString());
+    config.set(DatabusConsumerConfig.checkpointDirConfig, ck16);
+    config.set(MessagingConsumerConfig.relativeStartTimeConfig,
+        relativeStartTime);
+    ConsumerUtil.testRecycleMessages(config, testStream, consumerName, 1, 200,
+        false);
+  }
+
   @AfterTest
   public void cleanup() throws IOException {
     super.cleanup();
@@ -166,6 +166,48 @@ public class TestDatabusConsumerMultipleCollectors
         false);
   }
 
+  @Test
+  public void testMessageListener() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toString() + "," + rootDirs[1].toString());
+    config.set(DatabusConsumerConfig.checkpointDirConfig, ck9);
+    config.set(DatabusConsumerConfig.databusStreamType,
+        StreamType.COLLECTOR.name());
+    config.set(MessagingConsumerConfig.relativeStartTimeConfig,
+        relativeStartTime);
+    config.set(MessagingConsumerConfig.listenerThreadsConfig, "2");
+    ConsumerUtil.testMessageListener(config, testStream, consumerName, 4, 400,
+        false);
+  }
+
+  @Test
+  public void testListenerFailure() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toString());
+    config.set(DatabusConsumerConfig.checkpointDirConfig, ck10);
+    config.set(DatabusConsumerConfig.databusStreamType,
+        StreamType.COLLECTOR.name());
+    config.set(MessagingConsumerConfig.relativeStartTimeConfig,
+        relativeStartTime);
+    ConsumerUtil.testListenerFailure(config, testStream, consumerName, false);
+  }
+
+  @Test
+  public void testRecycleMessagesMergeStream() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toString());
+    config.set(DatabusConsumerConfig.checkpointDirConfig, ck11);
+    config.set(DatabusConsumerConfig.databusStreamType,
+        StreamType.MERGED.name());
+    config.set(MessagingConsumerConfig.relativeStartTimeConfig,
+        relativeStartTime);
+    ConsumerUtil.testRecycleMessages(config, testStream, consumerName, 2, 400,
+        false);
+  }
+
   @AfterTest
   public void cleanup() throws IOException {
     super.cleanup();
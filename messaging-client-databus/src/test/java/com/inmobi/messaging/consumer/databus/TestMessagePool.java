@@ -0,0 +1,97 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.util.DatabusUtil;
+import com.inmobi.messaging.util.AuditUtil;
+
+public class TestMessagePool {
+
+  @Test
+  public void testAcquireRelease() {
+    MessagePool pool = new MessagePool(1, false);
+    Message msg1 = pool.acquire();
+    Message msg2 = pool.acquire();
+    Assert.assertNotSame(msg1, msg2);
+    pool.release(msg1);
+    // beyond the capacity, released messages are dropped
+    pool.release(msg2);
+    Assert.assertEquals(pool.getFreeCount(), 1);
+    Assert.assertSame(pool.acquire(), msg1);
+    Assert.assertEquals(pool.getFreeCount(), 0);
+  }
+
+  @Test
+  public void testDecodeIntoRecycledMessage() {
+    Random random = new Random(1);
+    Message msg = new Message();
+    for (int length = 0; length < 64; length++) {
+      byte[] payload = new byte[length];
+      random.nextBytes(payload);
+      Message withHeaders = new Message(payload);
+      AuditUtil.attachHeaders(withHeaders, System.currentTimeMillis());
+      for (Message expected : new Message[] {new Message(payload),
+          withHeaders}) {
+        byte[] line = Base64.encodeBase64(expected.getBytes());
+        DatabusUtil.decodeMessage(line, 0, line.length, msg);
+        Assert.assertEquals(msg, DatabusUtil.decodeMessage(line));
+        Assert.assertEquals(msg.getBytes(), payload);
+      }
+    }
+    // a shorter line is decoded into the same array
+    byte[] array = msg.getData().array();
+    byte[] line = Base64.encodeBase64("message".getBytes());
+    DatabusUtil.decodeMessage(line, 0, line.length, msg);
+    Assert.assertSame(msg.getData().array(), array);
+    Assert.assertEquals(new String(msg.getBytes()), "message");
+    // read only data is not written to
+    msg.set(ByteBuffer.wrap(new byte[100]).asReadOnlyBuffer());
+    DatabusUtil.decodeMessage(line, 0, line.length, msg);
+    Assert.assertEquals(new String(msg.getBytes()), "message");
+  }
+
+  @Test
+  public void testLeakDetection() throws InterruptedException {
+    MessagePool pool = new MessagePool(10, true);
+    Message released = pool.acquire();
+    pool.track(released);
+    pool.release(released);
+    Assert.assertEquals(pool.getFreeCount(), 1);
+    // a second release of the same message is ignored
+    pool.release(released);
+    Assert.assertEquals(pool.getFreeCount(), 1);
+
+    pool.track(new Message());
+    for (int i = 0; i < 100 && pool.getLeakCount() == 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(pool.getLeakCount(), 1);
+  }
+}
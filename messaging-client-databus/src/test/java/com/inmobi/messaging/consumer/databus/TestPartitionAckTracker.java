@@ -0,0 +1,112 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.databus.files.StreamFile;
+import com.inmobi.databus.partition.DeltaPartitionCheckPoint;
+import com.inmobi.databus.partition.PartitionCheckpoint;
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.databus.readers.CollectorStreamReader;
+import com.inmobi.messaging.consumer.util.TestUtil;
+
+public class TestPartitionAckTracker {
+  private final PartitionId pid = new PartitionId("cluster", "collector");
+  private final StreamFile file =
+      CollectorStreamReader.getCollectorFile(TestUtil.files[0]);
+
+  private long lineNum(Map<PartitionId, MessageCheckpoint> committed) {
+    return ((PartitionCheckpoint) committed.get(pid)).getLineNum();
+  }
+
+  @Test
+  public void testContiguousWatermark() {
+    PartitionAckTracker tracker = new PartitionAckTracker(pid);
+    Map<PartitionId, MessageCheckpoint> committed =
+        new HashMap<PartitionId, MessageCheckpoint>();
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(tracker.add(new PartitionCheckpoint(file, i)), i);
+    }
+    Assert.assertTrue(tracker.ack(1, committed));
+    Assert.assertTrue(tracker.ack(2, committed));
+    Assert.assertTrue(committed.isEmpty());
+    Assert.assertEquals(tracker.getOutstanding(), 5);
+
+    Assert.assertTrue(tracker.ack(0, committed));
+    Assert.assertEquals(lineNum(committed), 2);
+    Assert.assertEquals(tracker.getOutstanding(), 2);
+
+    // duplicate and unknown acks are ignored
+    Assert.assertFalse(tracker.ack(2, committed));
+    Assert.assertFalse(tracker.ack(7, committed));
+
+    Assert.assertTrue(tracker.ack(4, committed));
+    Assert.assertEquals(lineNum(committed), 2);
+    Assert.assertTrue(tracker.ack(3, committed));
+    Assert.assertEquals(lineNum(committed), 4);
+    Assert.assertEquals(tracker.getOutstanding(), 0);
+  }
+
+  @Test
+  public void testGrowWithOutstandingMessages() {
+    PartitionAckTracker tracker = new PartitionAckTracker(pid);
+    Map<PartitionId, MessageCheckpoint> committed =
+        new HashMap<PartitionId, MessageCheckpoint>();
+    // move the watermark so that the ring wraps before growing
+    for (int i = 0; i < 50; i++) {
+      tracker.ack(tracker.add(new PartitionCheckpoint(file, i)), committed);
+    }
+    for (int i = 50; i < 1000; i++) {
+      tracker.add(new PartitionCheckpoint(file, i));
+    }
+    Assert.assertEquals(tracker.getOutstanding(), 950);
+    for (int i = 999; i > 50; i--) {
+      Assert.assertTrue(tracker.ack(i, committed));
+    }
+    Assert.assertEquals(lineNum(committed), 49);
+    Assert.assertTrue(tracker.ack(50, committed));
+    Assert.assertEquals(lineNum(committed), 999);
+    Assert.assertEquals(tracker.getOutstanding(), 0);
+  }
+
+  @Test
+  public void testDeltaCheckpointsAreMerged() {
+    PartitionAckTracker tracker = new PartitionAckTracker(pid);
+    Map<PartitionId, MessageCheckpoint> committed =
+        new HashMap<PartitionId, MessageCheckpoint>();
+    Map<Integer, PartitionCheckpoint> empty =
+        new HashMap<Integer, PartitionCheckpoint>();
+    tracker.add(new DeltaPartitionCheckPoint(file, 10, 1, empty));
+    tracker.add(new DeltaPartitionCheckPoint(file, 20, 2, empty));
+    tracker.ack(1, committed);
+    tracker.ack(0, committed);
+    Map<Integer, PartitionCheckpoint> delta =
+        ((DeltaPartitionCheckPoint) committed.get(pid)).getDeltaCheckpoint();
+    Assert.assertEquals(delta.size(), 2);
+    Assert.assertEquals(delta.get(1).getLineNum(), 10);
+    Assert.assertEquals(delta.get(2).getLineNum(), 20);
+  }
+}
@@ -0,0 +1,288 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.databus.files.CollectorFile;
+import com.inmobi.databus.partition.PartitionCheckpoint;
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.messaging.EOFMessage;
+import com.inmobi.messaging.Message;
+
+public class TestPartitionedBuffer {
+  private final PartitionId pid1 = new PartitionId("cluster", "collector1");
+  private final PartitionId pid2 = new PartitionId("cluster", "collector2");
+
+  private QueueEntry entry(PartitionId pid, int i) {
+    return new QueueEntry(new Message((pid + "-" + i).getBytes()), pid, null);
+  }
+
+  private QueueEntry entryAt(PartitionId pid, int minute) {
+    CollectorFile file = new CollectorFile("stream",
+        new Date(minute * 60000L), 0);
+    return new QueueEntry(new Message(("" + minute).getBytes()), pid,
+        new PartitionCheckpoint(file, minute));
+  }
+
+  private QueueEntry eof(PartitionId pid) {
+    return new QueueEntry(new EOFMessage(), pid, null);
+  }
+
+  private long minute(QueueEntry entry) {
+    return ((PartitionCheckpoint) entry.getMessageChkpoint()).getLineNum();
+  }
+
+  @Test
+  public void testRoundRobinMerge() throws Exception {
+    PartitionedBuffer buffer = new PartitionedBuffer(10);
+    QueueEntrySink q1 = buffer.getPartitionQueue(pid1);
+    QueueEntrySink q2 = buffer.getPartitionQueue(pid2);
+    Assert.assertSame(buffer.getPartitionQueue(pid1), q1);
+    for (int i = 0; i < 4; i++) {
+      q1.put(entry(pid1, i));
+    }
+    q2.put(entry(pid2, 0));
+    q2.put(entry(pid2, 1));
+    Assert.assertEquals(buffer.size(), 6);
+    Assert.assertEquals(buffer.getOccupancy(pid1).size(), 4);
+
+    List<QueueEntry> entries = new ArrayList<QueueEntry>();
+    Assert.assertEquals(buffer.drainTo(entries), 6);
+    PartitionId[] expected = {pid1, pid2, pid1, pid2, pid1, pid1};
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertEquals(entries.get(i).getPartitionId(), expected[i]);
+    }
+    // order within a partition is preserved
+    Assert.assertEquals(new String(((Message) entries.get(4).getMessage())
+        .getData().array()), pid1 + "-2");
+    Assert.assertTrue(buffer.isEmpty());
+    Assert.assertNull(buffer.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testCapacitySplitBetweenPartitions() throws Exception {
+    PartitionedBuffer buffer = new PartitionedBuffer(7);
+    QueueEntrySink q1 = buffer.getPartitionQueue(pid1);
+    QueueEntrySink q2 = buffer.getPartitionQueue(pid2);
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(q1.offer(entry(pid1, i)));
+    }
+    Assert.assertFalse(q1.offer(entry(pid1, 3)));
+    Assert.assertFalse(q1.offer(entry(pid1, 3), 10, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(buffer.getOccupancy(pid1).size(), 3);
+    // a full partition does not hold back the others
+    Assert.assertTrue(q2.offer(entry(pid2, 0)));
+    Assert.assertEquals(buffer.remainingCapacity(), 2);
+  }
+
+  @Test
+  public void testBlockingProducersAndConsumer() throws Exception {
+    final PartitionedBuffer buffer = new PartitionedBuffer(4);
+    final int numMessages = 1000;
+    List<Thread> producers = new ArrayList<Thread>();
+    for (final PartitionId pid : new PartitionId[] {pid1, pid2}) {
+      final QueueEntrySink queue = buffer.getPartitionQueue(pid);
+      Thread producer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < numMessages; i++) {
+              queue.put(entry(pid, i));
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      producer.start();
+      producers.add(producer);
+    }
+    int[] next = new int[2];
+    for (int i = 0; i < 2 * numMessages; i++) {
+      QueueEntry entry = i % 2 == 0 ? buffer.take()
+          : buffer.poll(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(entry);
+      int p = entry.getPartitionId().equals(pid1) ? 0 : 1;
+      Assert.assertEquals(new String(((Message) entry.getMessage()).getData()
+          .array()), entry.getPartitionId() + "-" + next[p]);
+      next[p]++;
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    Assert.assertEquals(next[0], numMessages);
+    Assert.assertEquals(next[1], numMessages);
+    Assert.assertTrue(buffer.isEmpty());
+  }
+
+  @Test
+  public void testEventTimeMerge() throws Exception {
+    PartitionedBuffer buffer = new PartitionedBuffer(10, 60000);
+    QueueEntrySink q1 = buffer.getPartitionQueue(pid1);
+    QueueEntrySink q2 = buffer.getPartitionQueue(pid2);
+    q1.put(entryAt(pid1, 2));
+    q1.put(entryAt(pid1, 3));
+    q1.put(eof(pid1));
+    q2.put(entryAt(pid2, 1));
+    q2.put(entryAt(pid2, 2));
+    q2.put(eof(pid2));
+
+    List<QueueEntry> entries = new ArrayList<QueueEntry>();
+    Assert.assertEquals(buffer.drainTo(entries), 6);
+    long last = Long.MIN_VALUE;
+    int eofs = 0;
+    for (QueueEntry entry : entries) {
+      if (entry.getMessage() instanceof EOFMessage) {
+        eofs++;
+      } else {
+        Assert.assertTrue(minute(entry) >= last, "out of order " + entries);
+        last = minute(entry);
+      }
+    }
+    Assert.assertEquals(eofs, 2);
+    Assert.assertEquals(minute(entries.get(0)), 1);
+    Assert.assertEquals(last, 3);
+  }
+
+  @Test
+  public void testEmptyPartitionHoldsBackUntilIdle() throws Exception {
+    PartitionedBuffer buffer = new PartitionedBuffer(10, 300);
+    QueueEntrySink q1 = buffer.getPartitionQueue(pid1);
+    QueueEntrySink q2 = buffer.getPartitionQueue(pid2);
+    q1.put(entryAt(pid1, 5));
+    // pid2 may still have older messages
+    Assert.assertNull(buffer.poll());
+    q2.put(entryAt(pid2, 4));
+    QueueEntry entry = buffer.poll();
+    Assert.assertEquals(entry.getPartitionId(), pid2);
+
+    // pid2 is empty again and has not reached minute 5 yet
+    long start = System.currentTimeMillis();
+    Assert.assertNull(buffer.poll());
+    entry = buffer.poll(5, TimeUnit.SECONDS);
+    Assert.assertEquals(entry.getPartitionId(), pid1);
+    Assert.assertTrue(System.currentTimeMillis() - start >= 250);
+
+    // a partition at the same minute does not hold back the other
+    q1.put(entryAt(pid1, 6));
+    q2.put(entryAt(pid2, 6));
+    Assert.assertEquals(minute(buffer.poll()), 6);
+    Assert.assertEquals(minute(buffer.poll()), 6);
+
+    // a partition at end of stream is not waited for
+    q2.put(eof(pid2));
+    Assert.assertTrue(buffer.poll().getMessage() instanceof EOFMessage);
+    q1.put(entryAt(pid1, 7));
+    Assert.assertEquals(minute(buffer.poll(1, TimeUnit.SECONDS)), 7);
+  }
+
+  private String data(QueueEntry entry) {
+    return new String(((Message) entry.getMessage()).getData().array());
+  }
+
+  @Test
+  public void testOffHeapPayloads() throws Exception {
+    PartitionedBuffer buffer = new PartitionedBuffer(10, 16, false, 0);
+    QueueEntrySink q1 = buffer.getPartitionQueue(pid1);
+    PartitionedBuffer.Occupancy occupancy = buffer.getOccupancy(pid1);
+    QueueEntry first = new QueueEntry(new Message("aaaaaa".getBytes()), pid1,
+        null);
+    Assert.assertTrue(q1.offer(first));
+    Assert.assertTrue(q1.offer(
+        new QueueEntry(new Message("bbbbbb".getBytes()), pid1, null)));
+    // buffered payloads are held off heap
+    Assert.assertEquals(((Message) first.getMessage()).getData().remaining(),
+        0);
+    Assert.assertEquals(occupancy.getBufferedBytes(), 12);
+    // does not fit before the end of the ring and the beginning is in use
+    QueueEntry third = new QueueEntry(new Message("cccccc".getBytes()), pid1,
+        null);
+    Assert.assertFalse(q1.offer(third));
+    // larger than the ring, stays on heap
+    Assert.assertTrue(q1.offer(new QueueEntry(
+        new Message("dddddddddddddddddddd".getBytes()), pid1, null)));
+
+    Assert.assertEquals(data(buffer.poll()), "aaaaaa");
+    Assert.assertTrue(q1.offer(third));
+    Assert.assertEquals(data(buffer.poll()), "bbbbbb");
+    Assert.assertEquals(data(buffer.poll()), "dddddddddddddddddddd");
+    Assert.assertEquals(data(buffer.poll()), "cccccc");
+    Assert.assertEquals(occupancy.getBufferedBytes(), 0);
+    Assert.assertEquals(occupancy.getBlockedPutNanos(), 0);
+
+    // an empty ring takes a payload which has to start over at the beginning
+    Assert.assertTrue(q1.offer(new QueueEntry(
+        new Message("eeeeeeeeeeeeee".getBytes()), pid1, null)));
+    Assert.assertEquals(data(buffer.poll()), "eeeeeeeeeeeeee");
+  }
+
+  @Test
+  public void testBytesSplitBetweenPartitions() throws Exception {
+    PartitionedBuffer buffer = new PartitionedBuffer(10, 16, false, 0);
+    QueueEntrySink q1 = buffer.getPartitionQueue(pid1);
+    buffer.getPartitionQueue(pid2);
+    Assert.assertEquals(buffer.getOccupancy(pid1).getBufferedBytes(), 0);
+    Assert.assertTrue(q1.offer(
+        new QueueEntry(new Message("aaaaaa".getBytes()), pid1, null)));
+    Assert.assertEquals(buffer.getOccupancy(pid1).getBufferedBytes(), 6);
+    // 8 bytes for each of the two partitions
+    Assert.assertFalse(q1.offer(
+        new QueueEntry(new Message("bbbbbb".getBytes()), pid1, null)));
+    // larger than the share of the partition, stays on heap
+    QueueEntry large = new QueueEntry(new Message("cccccccccc".getBytes()),
+        pid1, null);
+    Assert.assertTrue(q1.offer(large));
+    Assert.assertEquals(((Message) large.getMessage()).getData().remaining(),
+        10);
+    Assert.assertEquals(buffer.getOccupancy(pid1).getBufferedBytes(), 6);
+  }
+
+  @Test
+  public void testBlockedPutTime() throws Exception {
+    final PartitionedBuffer buffer = new PartitionedBuffer(10, 8, false, 0);
+    final QueueEntrySink q1 = buffer.getPartitionQueue(pid1);
+    q1.put(new QueueEntry(new Message("12345678".getBytes()), pid1, null));
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          q1.put(new QueueEntry(new Message("abc".getBytes()), pid1, null));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    producer.start();
+    Thread.sleep(100);
+    Assert.assertEquals(buffer.size(), 1);
+    Assert.assertEquals(data(buffer.take()), "12345678");
+    Assert.assertEquals(data(buffer.take()), "abc");
+    producer.join();
+    Assert.assertTrue(buffer.getOccupancy(pid1).getBlockedPutNanos() > 0);
+  }
+}
@@ -61,6 +61,7 @@ public abstract class TestAbstractHadoopConsumer {
   protected String ck17;
   protected String ck18;
   protected String ck19;
+  protected String ck20;
   protected String chkpointPathPrefix;
 
   int numMessagesPerFile = 100;
@@ -127,6 +128,7 @@ public abstract class TestAbstractHadoopConsumer {
     ck17 = new Path(chkpointPathPrefix, "checkpoint17").toString();
     ck18 = new Path(chkpointPathPrefix, "checkpoint18").toString();
     ck19 = new Path(chkpointPathPrefix, "checkpoint19").toString();
+    ck20 = new Path(chkpointPathPrefix, "checkpoint20").toString();
   }
 
   public void testMarkAndReset() throws Exception {
@@ -382,6 +384,23 @@ public abstract class TestAbstractHadoopConsumer {
         absoluteStartTime, true);
   }
 
+  public void testBatchNextWithStopTime() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(HadoopConsumerConfig.rootDirsConfig,
+        rootDirs[0].toString());
+    config.set(HadoopConsumerConfig.checkpointDirConfig, ck20);
+    Date absoluteStartTime = DatabusStreamWaitingReader.
+        getDateFromStreamDir(rootDirs[0], finalPaths[0][0]);
+    config.set(MessageConsumerFactory.ABSOLUTE_START_TIME,
+        AbstractMessageConsumer.minDirFormat.get().format(absoluteStartTime));
+    Date stopDate = DatabusStreamWaitingReader.
+        getDateFromStreamDir(rootDirs[0], finalPaths[0][2]);
+    config.set(HadoopConsumerConfig.stopDateConfig,
+        AbstractMessageConsumer.minDirFormat.get().format(stopDate));
+    ConsumerUtil.testBatchNext(config, testStream, consumerName,
+        absoluteStartTime, true, 200, true);
+  }
+
   public void cleanup() throws IOException {
     FileSystem lfs = FileSystem.getLocal(conf);
     for (Path rootDir : rootDirs) {
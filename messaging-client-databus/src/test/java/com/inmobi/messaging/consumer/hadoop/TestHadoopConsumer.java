@@ -128,6 +128,11 @@ public class TestHadoopConsumer extends TestAbstractHadoopConsumer {
     super.testConsumerStartOfStreamWithStopTime();
   }
 
+  @Test
+  public void testBatchNextWithStopTime() throws Exception {
+    super.testBatchNextWithStopTime();
+  }
+
   @Test
   public void testMarkAndResetWithStopTime() throws Exception {
     super.testMarkAndResetWithStopTime();
@@ -23,9 +23,13 @@ package com.inmobi.messaging.consumer.util;
 import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.fs.Path;
 import org.testng.Assert;
@@ -38,12 +42,14 @@ import com.inmobi.messaging.consumer.AbstractMessageConsumer;
 import com.inmobi.messaging.consumer.BaseMessageConsumerStatsExposer;
 import com.inmobi.messaging.consumer.EndOfStreamException;
 import com.inmobi.messaging.consumer.MessageConsumerFactory;
+import com.inmobi.messaging.consumer.MessageListener;
 import com.inmobi.messaging.consumer.databus.AbstractMessagingDatabusConsumer;
 import com.inmobi.messaging.consumer.databus.Checkpoint;
 import com.inmobi.messaging.consumer.databus.CheckpointList;
 import com.inmobi.messaging.consumer.databus.ConsumerCheckpoint;
 import com.inmobi.messaging.consumer.databus.DatabusConsumer;
 import com.inmobi.messaging.consumer.databus.DatabusConsumerConfig;
+import com.inmobi.messaging.consumer.databus.MessagePool;
 import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
 import com.inmobi.messaging.consumer.hadoop.HadoopConsumer;
 import com.inmobi.messaging.consumer.hadoop.HadoopConsumerConfig;
@@ -85,6 +91,7 @@ public class ConsumerUtil {
           throws Exception {
     int numCounters = numClusters * numCollectors;
     int totalMessages = numCounters * numDataFiles * numMessagesPerFile;
+    // messages of every collector arrive in order
     int[] counter = new int[numCounters];
     for (int i = 0; i < numCounters; i++) {
       counter[i] = 0;
@@ -416,6 +423,291 @@ public class ConsumerUtil {
         consumer.getMetrics())).getNumOfTiemOutsOnNext(), 10);
   }
 
+  public static void testBatchNext(ClientConfig config, String streamName,
+      String consumerName, Date startTime, boolean hadoop, int numMessages,
+      boolean endOfStream) throws Exception {
+    AbstractMessagingDatabusConsumer consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, startTime, config);
+    assertBatches(consumer, 0, 100, 60, hadoop);
+    consumer.mark();
+    assertBatches(consumer, 100, 150, 60, hadoop);
+    consumer.reset();
+    // -1 waits till a message is available
+    assertBatches(consumer, 100, numMessages, -1, hadoop);
+    Assert.assertEquals(((BaseMessageConsumerStatsExposer) (
+        consumer.getMetrics())).getNumMessagesConsumed(), numMessages + 50);
+
+    if (endOfStream) {
+      // once the batch holding the last message is handed out, every
+      // following call should throw
+      for (int i = 0; i < 2; i++) {
+        Throwable th = null;
+        try {
+          consumer.next(30, 60, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          th = e;
+        }
+        Assert.assertTrue(th instanceof EndOfStreamException);
+      }
+    } else {
+      Assert.assertTrue(consumer.next(30, 1, TimeUnit.SECONDS).isEmpty());
+      Assert.assertEquals(((BaseMessageConsumerStatsExposer)(
+          consumer.getMetrics())).getNumOfTiemOutsOnNext(), 1);
+    }
+    consumer.close();
+  }
+
+  private static void assertBatches(AbstractMessagingDatabusConsumer consumer,
+      int from, int to, long timeout, boolean hadoop) throws Exception {
+    int i = from;
+    while (i < to) {
+      int maxMessages = Math.min(30, to - i);
+      List<Message> batch = consumer.next(maxMessages, timeout,
+          TimeUnit.SECONDS);
+      Assert.assertFalse(batch.isEmpty());
+      Assert.assertTrue(batch.size() <= maxMessages);
+      for (Message msg : batch) {
+        Assert.assertEquals(getMessage(msg.getData().array(), hadoop),
+            MessageUtil.constructMessage(i++));
+      }
+    }
+  }
+
+  public static void testMessageListener(ClientConfig config,
+      String streamName, String consumerName, int numPartitions,
+      int numMessagesPerPartition, final boolean hadoop) throws Exception {
+    final int totalMessages = numPartitions * numMessagesPerPartition;
+    // every partition carries the same sequence of messages, so an out of
+    // order delivery within a partition finds no matching counter
+    final int[] counter = new int[numPartitions];
+    final AtomicInteger unmatched = new AtomicInteger(0);
+    final CountDownLatch received = new CountDownLatch(totalMessages);
+    AbstractMessagingDatabusConsumer consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, null, config);
+    consumer.setMessageListener(new MessageListener() {
+      @Override
+      public void onMessage(Message msg) {
+        try {
+          String msgStr = getMessage(msg.getData().array(), hadoop);
+          boolean matched = false;
+          synchronized (counter) {
+            for (int m = 0; m < counter.length; m++) {
+              if (msgStr.equals(MessageUtil.constructMessage(counter[m]))) {
+                counter[m]++;
+                matched = true;
+                break;
+              }
+            }
+          }
+          if (!matched) {
+            unmatched.incrementAndGet();
+          }
+        } catch (IOException e) {
+          unmatched.incrementAndGet();
+        }
+        received.countDown();
+      }
+
+      @Override
+      public void onEndOfStream() {
+      }
+    });
+
+    Throwable th = null;
+    try {
+      consumer.next();
+    } catch (Exception e) {
+      th = e;
+    }
+    Assert.assertTrue(th instanceof IllegalStateException);
+
+    Assert.assertTrue(received.await(60, TimeUnit.SECONDS));
+    Assert.assertEquals(unmatched.get(), 0);
+    for (int m = 0; m < numPartitions; m++) {
+      Assert.assertEquals(counter[m], numMessagesPerPartition);
+    }
+    // the checkpoint of a message is available to mark only after the
+    // listener returned, which is when it is counted as consumed
+    BaseMessageConsumerStatsExposer metrics =
+        (BaseMessageConsumerStatsExposer) consumer.getMetrics();
+    for (int i = 0; i < 600 && metrics.getNumMessagesConsumed()
+        < totalMessages; i++) {
+      Thread.sleep(100);
+    }
+    Assert.assertEquals(metrics.getNumMessagesConsumed(), totalMessages);
+    consumer.mark();
+    consumer.close();
+
+    // all delivered messages were marked, nothing left to consume
+    consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, null, config);
+    Assert.assertNull(consumer.next(1, TimeUnit.SECONDS));
+    consumer.close();
+  }
+
+  public static void testListenerFailure(ClientConfig config,
+      String streamName, String consumerName, boolean hadoop)
+      throws Exception {
+    final RuntimeException failure = new RuntimeException("listener failed");
+    final CountDownLatch failed = new CountDownLatch(1);
+    AbstractMessagingDatabusConsumer consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, null, config);
+    consumer.setMessageListener(new MessageListener() {
+      @Override
+      public void onMessage(Message msg) {
+        failed.countDown();
+        throw failure;
+      }
+
+      @Override
+      public void onEndOfStream() {
+      }
+    });
+    Assert.assertTrue(failed.await(60, TimeUnit.SECONDS));
+    Throwable th = null;
+    for (int i = 0; i < 600 && th == null; i++) {
+      try {
+        consumer.mark();
+        Thread.sleep(100);
+      } catch (IOException e) {
+        th = e;
+      }
+    }
+    Assert.assertNotNull(th);
+    Assert.assertSame(th.getCause(), failure);
+    try {
+      consumer.next();
+      Assert.fail("next() should fail while a listener is set");
+    } catch (IllegalStateException e) {
+      Assert.assertSame(e.getCause(), failure);
+    }
+    consumer.close();
+  }
+
+  public static void testSelectiveAck(ClientConfig config, String streamName,
+      String consumerName, boolean hadoop) throws Exception {
+    AbstractMessagingDatabusConsumer consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, null, config);
+    Message held = null;
+    for (int i = 0; i < 100; i++) {
+      Message msg = consumer.next();
+      Assert.assertEquals(getMessage(msg.getData().array(), hadoop),
+          MessageUtil.constructMessage(i));
+      if (i == 50) {
+        held = msg;
+      } else {
+        Assert.assertTrue(consumer.ack(msg));
+      }
+    }
+    Assert.assertEquals(consumer.getOutstandingAcks(), 50);
+    Assert.assertTrue(consumer.ack(held));
+    Assert.assertFalse(consumer.ack(held));
+    Assert.assertEquals(consumer.getOutstandingAcks(), 0);
+    consumer.close();
+
+    // nothing was marked yet, so all the messages are delivered again
+    consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, null, config);
+    for (int i = 0; i < 100; i++) {
+      Message msg = consumer.next();
+      Assert.assertEquals(getMessage(msg.getData().array(), hadoop),
+          MessageUtil.constructMessage(i));
+      if (i != 50) {
+        consumer.ack(msg);
+      }
+    }
+    Assert.assertEquals(consumer.getOutstandingAcks(), 50);
+    consumer.mark();
+    consumer.close();
+
+    // the checkpoint stops before the message which was not acknowledged
+    consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, null, config);
+    for (int i = 50; i < 100; i++) {
+      Message msg = consumer.next();
+      Assert.assertEquals(getMessage(msg.getData().array(), hadoop),
+          MessageUtil.constructMessage(i));
+      consumer.ack(msg);
+    }
+    consumer.mark();
+    consumer.close();
+
+    consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, null, config);
+    Message msg = consumer.next();
+    Assert.assertEquals(getMessage(msg.getData().array(), hadoop),
+        MessageUtil.constructMessage(100));
+    consumer.close();
+  }
+
+  /**
+   * Consumes with message recycling and leak detection enabled. Messages are
+   * read through getBytes(), as a recycled message can be backed by a larger
+   * array than its data.
+   */
+  public static void testRecycleMessages(ClientConfig config,
+      String streamName, String consumerName, int numCounters,
+      int totalMessages, boolean hadoop) throws Exception {
+    config.set(MessagingConsumerConfig.recycleMessagesConfig, "true");
+    config.set(MessagingConsumerConfig.leakDetectionConfig, "true");
+    // a small buffer makes the readers decode into the released messages
+    config.set(MessagingConsumerConfig.queueSizeConfig, "10");
+    AbstractMessagingDatabusConsumer consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, null, config);
+    MessagePool pool = consumer.getMessagePool();
+    Assert.assertNotNull(pool);
+
+    // messages of every collector arrive in order
+    int[] counter = new int[numCounters];
+    Map<Message, Boolean> handedOut = new IdentityHashMap<Message, Boolean>();
+    int reused = 0;
+    // held without being released till the end
+    Message held = consumer.next();
+    String heldStr = getMessage(held.getBytes(), hadoop);
+    countMessage(heldStr, counter);
+    for (int i = 1; i < totalMessages; i++) {
+      Message msg = consumer.next();
+      Assert.assertNotSame(msg, held);
+      if (handedOut.put(msg, Boolean.TRUE) != null) {
+        reused++;
+      }
+      countMessage(getMessage(msg.getBytes(), hadoop), counter);
+      consumer.release(msg);
+    }
+    Assert.assertTrue(reused > 0);
+    // a message which is not released is never decoded into
+    Assert.assertEquals(getMessage(held.getBytes(), hadoop), heldStr);
+    consumer.release(held);
+    Assert.assertEquals(pool.getLeakCount(), 0);
+
+    // a message dropped without release is reported once it is collected;
+    // consume some more so that the readers do not refer to it anymore
+    consumer.next();
+    for (int i = 0; i < 20; i++) {
+      consumer.release(consumer.next());
+    }
+    for (int i = 0; i < 100 && pool.getLeakCount() == 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(pool.getLeakCount(), 1);
+    consumer.close();
+    // the released messages and the ones left in the buffer are kept for
+    // reuse, up to the size of the buffer
+    Assert.assertTrue(pool.getFreeCount() > 0);
+    Assert.assertTrue(pool.getFreeCount() <= 10);
+  }
+
+  private static void countMessage(String msgStr, int[] counter) {
+    for (int m = 0; m < counter.length; m++) {
+      if (msgStr.equals(MessageUtil.constructMessage(counter[m]))) {
+        counter[m]++;
+        return;
+      }
+    }
+    Assert.fail("Unexpected message " + msgStr);
+  }
+
   public static void testMarkAndReset(ClientConfig config, String streamName,
       String consumerName, boolean hadoop) throws Exception {
 
@@ -22,45 +22,80 @@ package com.inmobi.messaging.flume;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.flume.Event;
 import org.apache.flume.api.RpcClient;
 import org.apache.flume.api.RpcClientFactory;
-import org.apache.flume.event.EventBuilder;
+import org.apache.flume.event.SimpleEvent;
 
 import com.inmobi.messaging.ClientConfig;
 import com.inmobi.messaging.Message;
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
 import com.inmobi.messaging.instrumentation.PintailTimingAccumulator.Outcome;
 import com.inmobi.messaging.publisher.AbstractMessagePublisher;
+import com.inmobi.messaging.publisher.PublisherMemoryBudget;
 
+/**
+ * Publishes messages to a flume agent.
+ *
+ * Messages are queued by publish and an async sender drains them into
+ * batches of flume.batchsize events. A partial batch is sent once its first
+ * event has waited for flume.linger.millis. Up to flume.max.inflight.batches
+ * batches are sent concurrently; the queue is never locked during an RPC.
+ */
 public class FlumeMessagePublisher extends AbstractMessagePublisher {
 
   private static final Log LOG = LogFactory.getLog(FlumeMessagePublisher.class);
 
+  public static final String BATCH_SIZE_KEY = "flume.batchsize";
+  public static final int DEFAULT_BATCH_SIZE = 1;
+  public static final String LINGER_MILLIS_KEY = "flume.linger.millis";
+  public static final long DEFAULT_LINGER_MILLIS = 10;
+  public static final String MAX_INFLIGHT_BATCHES_KEY =
+      "flume.max.inflight.batches";
+  public static final int DEFAULT_MAX_INFLIGHT_BATCHES = 1;
+
   private static final int BUFFER_SIZE = 10000;
-  //private static final int CONCURRENT_SENDERS = 3;
   private RpcClient rpcClient;
   private BlockingQueue<Event> queue = new LinkedBlockingQueue<Event>(
       BUFFER_SIZE);
   private volatile boolean stopped;
   private int batchSize;
+  private long lingerMillis;
+  private int maxInFlightBatches;
+  private Semaphore inFlightBatches;
+  private ExecutorService batchSenders;
   private Thread senderThread;
+  private final PublisherMemoryBudget memoryBudget =
+      PublisherMemoryBudget.getInstance();
 
   @Override
   public void init(ClientConfig config) throws IOException {
     super.init(config);
-    batchSize = config.getInteger("flume.batchsize", 1);
-    /*threadPool = new ThreadPoolExecutor(CONCURRENT_SENDERS, CONCURRENT_SENDERS,
-        1, TimeUnit.HOURS, new LinkedBlockingQueue<Runnable>());*/
+    batchSize = Math.max(1,
+        config.getInteger(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE));
+    lingerMillis = Math.max(0,
+        config.getLong(LINGER_MILLIS_KEY, DEFAULT_LINGER_MILLIS));
+    maxInFlightBatches = Math.max(1, config.getInteger(
+        MAX_INFLIGHT_BATCHES_KEY, DEFAULT_MAX_INFLIGHT_BATCHES));
+    inFlightBatches = new Semaphore(maxInFlightBatches);
+    batchSenders = Executors.newFixedThreadPool(maxInFlightBatches);
     rpcClient = createRpcClient(config);
     LOG.info("Rpcclient is Active: " + rpcClient.isActive());
-    senderThread = new Thread(new AsyncSender());
+    LOG.info("Flume publisher batch size: " + batchSize + ", linger millis: "
+        + lingerMillis + ", max inflight batches: " + maxInFlightBatches);
+    senderThread = new Thread(new AsyncSender(), "flume-async-sender");
     senderThread.start();
   }
 
@@ -72,18 +107,33 @@ public class FlumeMessagePublisher extends AbstractMessagePublisher {
 
   @Override
   protected void publish(Map<String, String> headers, Message m) {
+    publish(headers, m, getStats(headers.get(HEADER_TOPIC)).assignSequence());
+  }
+
+  /**
+   * The sequence is settled once the batch of the event is sent, or when the
+   * event is dropped.
+   */
+  @Override
+  protected void publish(Map<String, String> headers, Message m,
+      long sequence) {
     // headers.put("streamName", "rr");
     String topic = headers.get(HEADER_TOPIC);
-    Event event = EventBuilder.withBody(m.getData().array(), headers);
-    synchronized (queue) {
-      if (!queue.offer(event)) {
-        // queue is full
-        // dropping the message
-        LOG.warn("Queue is full. dropping the message");
-        getStats(topic).accumulateOutcomeWithDelta(Outcome.UNHANDLED_FAILURE, 0);
-      } else {
-        queue.notify();
-      }
+    Event event = new SequencedEvent(m.getBytes(), headers, sequence);
+    if (!memoryBudget.tryReserve(event.getBody().length)) {
+      LOG.warn("Publisher memory budget is exhausted. dropping the message");
+      getStats(topic).accumulateOutcomeWithDelta(Outcome.LOST, 0);
+      getStats(topic).settle(sequence);
+      return;
+    }
+    getStats(topic).accumulateReservedBytes(event.getBody().length);
+    if (!queue.offer(event)) {
+      // queue is full
+      // dropping the message
+      LOG.warn("Queue is full. dropping the message");
+      releaseMemory(event);
+      getStats(topic).accumulateOutcomeWithDelta(Outcome.LOST, 0);
+      getStats(topic).settle(sequence);
     }
   }
 
@@ -91,58 +141,163 @@ public class FlumeMessagePublisher extends AbstractMessagePublisher {
   public void close() {
     super.close();
     stopped = true;
+    // the sender flushes whatever is queued before it exits
     senderThread.interrupt();
     try {
       senderThread.join();
     } catch (InterruptedException e) {
-      // TODO: handle this
-      e.printStackTrace();
+      LOG.warn("Interrupted while waiting for the sender to finish", e);
+      Thread.currentThread().interrupt();
+    }
+    batchSenders.shutdown();
+    try {
+      while (!batchSenders.awaitTermination(1, TimeUnit.SECONDS)) {
+        LOG.info("Waiting for inflight batches to finish");
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while waiting for inflight batches", e);
+      Thread.currentThread().interrupt();
+    }
+    // events published after the sender exited are lost, give back their
+    // memory
+    Event event;
+    while ((event = queue.poll()) != null) {
+      PintailTimingAccumulator stats =
+          getStats(event.getHeaders().get(HEADER_TOPIC));
+      stats.accumulateOutcomeWithDelta(Outcome.LOST, 0);
+      stats.settle(((SequencedEvent) event).sequence);
+      releaseMemory(event);
     }
     rpcClient.close();
   }
 
+  private void releaseMemory(Event event) {
+    int size = event.getBody().length;
+    memoryBudget.release(size);
+    getStats(event.getHeaders().get(HEADER_TOPIC)).accumulateReleasedBytes(size);
+  }
+
+  /**
+   * Collects the next batch. Waits for the first event, then for at most
+   * linger time for the batch to fill up.
+   *
+   * @return the batch, never empty
+   * @throws InterruptedException if interrupted while waiting for the first
+   * event
+   */
+  private List<Event> nextBatch() throws InterruptedException {
+    List<Event> batch = new ArrayList<Event>(batchSize);
+    Event first = queue.take();
+    batch.add(first);
+    queue.drainTo(batch, batchSize - batch.size());
+    long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    while (batch.size() < batchSize) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        break;
+      }
+      Event event;
+      try {
+        event = queue.poll(remaining, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        // send what is collected, the next take notices the interrupt
+        Thread.currentThread().interrupt();
+        break;
+      }
+      if (event == null) {
+        break;
+      }
+      batch.add(event);
+      queue.drainTo(batch, batchSize - batch.size());
+    }
+    return batch;
+  }
+
+  private void sendBatch(final List<Event> batch) {
+    inFlightBatches.acquireUninterruptibly();
+    try {
+      batchSenders.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            appendBatch(batch);
+          } finally {
+            inFlightBatches.release();
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      inFlightBatches.release();
+      throw e;
+    }
+  }
+
+  private void appendBatch(List<Event> batch) {
+    boolean success = false;
+    long start = System.nanoTime();
+    try {
+      rpcClient.appendBatch(batch);
+      success = true;
+    } catch (Exception e) {
+      LOG.warn("Could not send batch of size " + batch.size(), e);
+    }
+    long latency = System.nanoTime() - start;
+    Map<String, Integer> topicCounts = new HashMap<String, Integer>();
+    for (Event event : batch) {
+      String topic = event.getHeaders().get(HEADER_TOPIC);
+      PintailTimingAccumulator stats = getStats(topic);
+      if (success) {
+        stats.accumulateOutcomeWithDelta(Outcome.SUCCESS, 0);
+      } else {
+        stats.accumulateOutcomeWithDelta(Outcome.UNHANDLED_FAILURE, 0);
+        // the message is not resent
+        stats.accumulateOutcomeWithDelta(Outcome.LOST, 0);
+      }
+      stats.settle(((SequencedEvent) event).sequence);
+      releaseMemory(event);
+      Integer count = topicCounts.get(topic);
+      topicCounts.put(topic, count == null ? 1 : count + 1);
+    }
+    for (Map.Entry<String, Integer> entry : topicCounts.entrySet()) {
+      getStats(entry.getKey()).accumulateBatch(entry.getValue(), latency);
+    }
+  }
+
+  /**
+   * An event carrying the flush sequence of its message. The sequence is not
+   * sent to the agent.
+   */
+  private static final class SequencedEvent extends SimpleEvent {
+    private final long sequence;
+
+    SequencedEvent(byte[] body, Map<String, String> headers, long sequence) {
+      setBody(body);
+      setHeaders(new HashMap<String, String>(headers));
+      this.sequence = sequence;
+    }
+  }
+
   private class AsyncSender implements Runnable {
 
     @Override
     public void run() {
-      while (!stopped && !Thread.interrupted()) {
-        synchronized (queue) {
-          if (queue.size() == 0) {
-            try {
-              queue.wait();
-            } catch (InterruptedException e) {
-              return;
-            }
-          }
-          final List<Event> batch = new ArrayList<Event>();
-          synchronized (queue) {
-            if (queue.size() >= batchSize) {
-              for (int i = 0; i < batchSize; i++) {
-                batch.add(queue.remove());
-              }
-            }
-          }
-          if (batch.size() > 0) {
-            try {
-              LOG.info("rpcclient is Active: " + rpcClient.isActive());
-              rpcClient.appendBatch(batch);
-              for (int i = 0; i < batch.size(); i++) {
-                getStats(batch.get(i).getHeaders().get(HEADER_TOPIC)).
-                  accumulateOutcomeWithDelta(Outcome.SUCCESS, 0);
-              }
-            } catch (Exception e) {
-              // TODO handle this
-              for (int i = 0; i < batch.size(); i++) {
-                getStats(batch.get(i).getHeaders().get(HEADER_TOPIC)).
-                  accumulateOutcomeWithDelta(Outcome.UNHANDLED_FAILURE, 0);
-              }
-              LOG.warn("Could not send batch of size " + batch.size(), e);
-            }
-          }
+      while (!stopped) {
+        List<Event> batch;
+        try {
+          batch = nextBatch();
+        } catch (InterruptedException e) {
+          break;
         }
+        sendBatch(batch);
+      }
+      // flush the events queued till close
+      List<Event> batch = new ArrayList<Event>(batchSize);
+      while (queue.drainTo(batch, batchSize) > 0) {
+        sendBatch(batch);
+        batch = new ArrayList<Event>(batchSize);
       }
     }
-
   }
 
 }
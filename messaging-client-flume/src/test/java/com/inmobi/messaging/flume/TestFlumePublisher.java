@@ -35,6 +35,7 @@ import org.testng.annotations.Test;
 
 import com.inmobi.messaging.ClientConfig;
 import com.inmobi.messaging.Message;
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
 
 public class TestFlumePublisher {
 
@@ -90,6 +91,52 @@ public class TestFlumePublisher {
     verify(mockRpcClient, times(1)).close();
   }
 
+  @Test
+  public void testLingerSendsPartialBatch() throws Exception {
+    publisher.close();
+    ClientConfig config = new ClientConfig();
+    config.set(FlumeMessagePublisher.BATCH_SIZE_KEY, "10");
+    config.set(FlumeMessagePublisher.LINGER_MILLIS_KEY, "50");
+    config.set(FlumeMessagePublisher.MAX_INFLIGHT_BATCHES_KEY, "2");
+    publisher = new MockFlumePublisher();
+    publisher.init(config);
+
+    for (int i = 0; i < 3; i++) {
+      publisher.publish(topic, new Message(("msg" + i).getBytes()));
+    }
+
+    // Wait for all operations to complete
+    waitToComplete();
+    verify(mockRpcClient, times(1)).appendBatch(Mockito.anyList());
+    PintailTimingAccumulator stats = publisher.getStats(topic);
+    Assert.assertEquals(stats.getSuccessCount(), 3, "success count");
+    Assert.assertEquals(stats.getBatchCount(), 1, "batch count");
+    Assert.assertEquals(stats.getBatchedMessages(), 3, "batched messages");
+    Assert.assertEquals(stats.getReservedBytes(), 0, "reserved bytes");
+
+    publisher.close();
+  }
+
+  @Test
+  public void testCloseSendsQueuedMessages() throws Exception {
+    publisher.close();
+    ClientConfig config = new ClientConfig();
+    config.set(FlumeMessagePublisher.BATCH_SIZE_KEY, "100");
+    config.set(FlumeMessagePublisher.LINGER_MILLIS_KEY, "60000");
+    publisher = new MockFlumePublisher();
+    publisher.init(config);
+
+    for (int i = 0; i < 5; i++) {
+      publisher.publish(topic, new Message(("msg" + i).getBytes()));
+    }
+    publisher.close();
+
+    PintailTimingAccumulator stats = publisher.getStats(topic);
+    Assert.assertEquals(stats.getInFlight(), 0, "in flight");
+    Assert.assertEquals(stats.getSuccessCount(), 5, "success count");
+    Assert.assertEquals(stats.getLostCount(), 0, "lost count");
+  }
+
   private void waitToComplete() throws InterruptedException {
     int i = 0;
     while (publisher.getStats(topic).getInFlight() != 0 && i++ < 10) {
@@ -0,0 +1,127 @@
+package com.inmobi.messaging.logger;
+
+/*
+ * #%L
+ * messaging-client-logappender
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock free multi producer, multi consumer queue over a
+ * preallocated array.
+ *
+ * Each slot carries a sequence number telling whether it is free for the
+ * producer of a position or holds the element for the consumer of that
+ * position, so producers and consumers only contend on a CAS of their
+ * cursor.
+ */
+class EventRingBuffer<E> {
+
+  private final int mask;
+  private final AtomicReferenceArray<E> slots;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong(0);
+  private final AtomicLong tail = new AtomicLong(0);
+
+  /**
+   * @param capacity rounded up to the next power of two
+   */
+  EventRingBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    slots = new AtomicReferenceArray<E>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @return false if the buffer is full
+   */
+  boolean offer(E e) {
+    while (true) {
+      long pos = tail.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          slots.lazySet(index, e);
+          sequences.set(index, pos + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * @return the oldest element, null if the buffer is empty
+   */
+  E poll() {
+    while (true) {
+      long pos = head.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          E e = slots.get(index);
+          slots.lazySet(index, null);
+          sequences.set(index, pos + mask + 1);
+          return e;
+        }
+      } else if (diff < 0) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Moves at most max elements into the passed list.
+   *
+   * @return number of elements moved
+   */
+  int drainTo(List<? super E> list, int max) {
+    int n = 0;
+    E e;
+    while (n < max && (e = poll()) != null) {
+      list.add(e);
+      n++;
+    }
+    return n;
+  }
+
+  boolean isEmpty() {
+    return head.get() >= tail.get();
+  }
+}
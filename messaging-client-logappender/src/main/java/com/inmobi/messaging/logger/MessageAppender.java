@@ -22,12 +22,17 @@ package com.inmobi.messaging.logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.thrift.TBase;
 import org.apache.thrift.TException;
-import org.apache.thrift.TSerializer;
 
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.publisher.MessagePublisher;
@@ -36,15 +41,48 @@ import com.inmobi.messaging.publisher.MessagePublisherFactory;
 /**
  * Only com.inmobi.messaging.Message is valid object type in
  * LoggingEvent.getMessage(). byte[], String and TBase types are deprecated.
+ *
+ * When async is set, the logging thread only puts the logged object into a
+ * preallocated ring buffer of bufferSize slots, without taking the appender
+ * lock. A background thread serializes and publishes the objects in batches
+ * of batchSize. When the buffer is full, discardPolicy decides what happens:
+ * <ul>
+ * <li>DISCARD_NEW: the logged object is discarded (default)</li>
+ * <li>DISCARD_OLDEST: the oldest buffered object is discarded</li>
+ * <li>BLOCK: the logging thread waits for a free slot</li>
+ * </ul>
+ * Logged objects must not be modified after logging in async mode.
  */
 public class MessageAppender extends AppenderSkeleton {
 
-  private final TSerializer serializer = new TSerializer();
+  public enum DiscardPolicy {
+    DISCARD_NEW,
+    DISCARD_OLDEST,
+    BLOCK
+  }
+
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+  public static final int DEFAULT_BATCH_SIZE = 256;
+  // time a logging thread waits for a free slot with the BLOCK policy
+  private static final long BLOCK_PARK_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(1);
+
   private String topic;
 
   private String conffile;
   private MessagePublisher publisher;
 
+  private boolean async = false;
+  private int bufferSize = DEFAULT_BUFFER_SIZE;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private DiscardPolicy discardPolicy = DiscardPolicy.DISCARD_NEW;
+  private EventRingBuffer<Object> buffer;
+  private Thread asyncPublisher;
+  private volatile boolean stopped;
+  // set while the async publisher is parked, or about to, on an empty buffer
+  private volatile boolean idle;
+  private final AtomicLong discardedCount = new AtomicLong(0);
+
   public String getConffile() {
     return conffile;
   }
@@ -61,8 +99,65 @@ public class MessageAppender extends AppenderSkeleton {
     this.topic = topic;
   }
 
+  public boolean isAsync() {
+    return async;
+  }
+
+  public void setAsync(boolean async) {
+    this.async = async;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public String getDiscardPolicy() {
+    return discardPolicy.name();
+  }
+
+  public void setDiscardPolicy(String discardPolicy) {
+    this.discardPolicy = DiscardPolicy.valueOf(discardPolicy.trim()
+        .toUpperCase());
+  }
+
+  /**
+   * Number of logged objects discarded because the async buffer was full.
+   */
+  public long getDiscardedCount() {
+    return discardedCount.get();
+  }
+
   @Override
   public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (asyncPublisher != null) {
+      stopped = true;
+      LockSupport.unpark(asyncPublisher);
+      try {
+        asyncPublisher.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (discardedCount.get() > 0) {
+        System.out.println("Discarded " + discardedCount.get()
+            + " logged objects as the async buffer was full");
+      }
+    }
     if (publisher != null) {
       publisher.close();
     }
@@ -73,9 +168,84 @@ public class MessageAppender extends AppenderSkeleton {
     return false;
   }
 
+  /**
+   * In async mode the event is buffered without taking the appender lock.
+   */
+  @Override
+  public void doAppend(LoggingEvent event) {
+    if (buffer == null) {
+      super.doAppend(event);
+      return;
+    }
+    if (closed || !isAsSevereAsThreshold(event.getLevel())) {
+      return;
+    }
+    Filter f = getFirstFilter();
+    while (f != null) {
+      switch (f.decide(event)) {
+      case Filter.DENY:
+        return;
+      case Filter.ACCEPT:
+        f = null;
+        break;
+      default:
+        f = f.getNext();
+      }
+    }
+    append(event);
+  }
+
   @Override
   protected void append(LoggingEvent event) {
-    Object o = event.getMessage();
+    if (buffer != null) {
+      enqueue(event.getMessage());
+      return;
+    }
+    publish(event.getMessage());
+  }
+
+  private void enqueue(Object o) {
+    if (buffer.offer(o)) {
+      wakeAsyncPublisher();
+      return;
+    }
+    switch (discardPolicy) {
+    case DISCARD_NEW:
+      discardedCount.incrementAndGet();
+      break;
+    case DISCARD_OLDEST:
+      while (!buffer.offer(o)) {
+        if (buffer.poll() != null) {
+          discardedCount.incrementAndGet();
+        }
+      }
+      wakeAsyncPublisher();
+      break;
+    case BLOCK:
+      while (!buffer.offer(o)) {
+        if (stopped) {
+          discardedCount.incrementAndGet();
+          return;
+        }
+        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+      }
+      wakeAsyncPublisher();
+      break;
+    }
+  }
+
+  /**
+   * Unparks the async publisher if it waits on an empty buffer. The logging
+   * thread checks the flag after its offer and the publisher checks the
+   * buffer after setting the flag, so one of them always sees the other.
+   */
+  private void wakeAsyncPublisher() {
+    if (idle) {
+      LockSupport.unpark(asyncPublisher);
+    }
+  }
+
+  private void publish(Object o) {
     Message msg = null;
     if (o instanceof Message) {
       msg = (Message) o;
@@ -89,8 +259,7 @@ public class MessageAppender extends AppenderSkeleton {
     } else if (o instanceof TBase) {
       TBase thriftOb = (TBase) o;
       try {
-        msg = new Message(
-            ByteBuffer.wrap(serializer.serialize(thriftOb)));
+        publisher.publish(topic, thriftOb);
       } catch (TException e) {
         System.out.println("Could not serialize thrift object");
         e.printStackTrace();
@@ -116,6 +285,48 @@ public class MessageAppender extends AppenderSkeleton {
     } catch (IOException e) {
       throw new RuntimeException("Could not create publisher", e);
     }
+    if (async) {
+      System.out.println("Async mode with buffer size: " + bufferSize
+          + ", batch size: " + batchSize + ", discard policy: "
+          + discardPolicy);
+      buffer = new EventRingBuffer<Object>(bufferSize);
+      asyncPublisher = new Thread(new AsyncPublisher(),
+          "message-appender-" + getName());
+      asyncPublisher.setDaemon(true);
+      asyncPublisher.start();
+    }
+  }
 
+  private class AsyncPublisher implements Runnable {
+
+    @Override
+    public void run() {
+      List<Object> batch = new ArrayList<Object>(batchSize);
+      while (true) {
+        // read the flag before draining, so that nothing buffered before
+        // close is left behind
+        boolean stopping = stopped;
+        if (buffer.drainTo(batch, batchSize) == 0) {
+          if (stopping) {
+            return;
+          }
+          idle = true;
+          if (buffer.isEmpty() && !stopped) {
+            LockSupport.park(this);
+          }
+          idle = false;
+          continue;
+        }
+        for (Object o : batch) {
+          try {
+            publish(o);
+          } catch (RuntimeException e) {
+            System.out.println("Could not publish logged object");
+            e.printStackTrace();
+          }
+        }
+        batch.clear();
+      }
+    }
   }
 }
@@ -0,0 +1,86 @@
+package com.inmobi.messaging.logger;
+
+/*
+ * #%L
+ * messaging-client-logappender
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator.Outcome;
+import com.inmobi.messaging.publisher.AbstractMessagePublisher;
+
+/**
+ * Publisher which blocks in publish till it is resumed, recording the
+ * published messages as strings in order.
+ */
+public class StalledPublisher extends AbstractMessagePublisher {
+  private static final List<String> published = new ArrayList<String>();
+  private static volatile Semaphore permits = new Semaphore(0);
+
+  /**
+   * Clears the published messages and stalls the publisher.
+   */
+  public static void reset() {
+    synchronized (published) {
+      published.clear();
+    }
+    permits = new Semaphore(0);
+  }
+
+  public static void resume() {
+    permits.release(Integer.MAX_VALUE / 2);
+  }
+
+  /**
+   * Waits till a thread is blocked in publish.
+   *
+   * @return false if no thread blocked within the timeout
+   */
+  public static boolean awaitStalled(long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (!permits.hasQueuedThreads()) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(1);
+    }
+    return true;
+  }
+
+  public static List<String> getPublished() {
+    synchronized (published) {
+      return new ArrayList<String>(published);
+    }
+  }
+
+  @Override
+  protected void publish(Map<String, String> headers, Message m) {
+    permits.acquireUninterruptibly();
+    synchronized (published) {
+      published.add(new String(m.getBytes()));
+    }
+    getStats(headers.get(HEADER_TOPIC)).accumulateOutcomeWithDelta(
+        Outcome.SUCCESS, 0);
+  }
+}
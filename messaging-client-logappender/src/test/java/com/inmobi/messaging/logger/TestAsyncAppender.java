@@ -0,0 +1,197 @@
+package com.inmobi.messaging.logger;
+
+/*
+ * #%L
+ * messaging-client-logappender
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.logger.MessageAppender.DiscardPolicy;
+
+/**
+ * Runs the async appender against a publisher which stalls on the first
+ * message, so that the buffer of 8 slots fills up deterministically.
+ */
+public class TestAsyncAppender {
+  private static final String CONF_FILE =
+      "src/test/resources/stalled-publisher-conf.properties";
+  private static final int BUFFER_SIZE = 8;
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  private MessageAppender appender;
+
+  @BeforeMethod
+  public void setUp() {
+    StalledPublisher.reset();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    StalledPublisher.resume();
+    if (appender != null) {
+      appender.close();
+      appender = null;
+    }
+  }
+
+  private Logger createLogger(String name, DiscardPolicy policy) {
+    appender = new MessageAppender();
+    appender.setName(name);
+    appender.setTopic("test");
+    appender.setConffile(CONF_FILE);
+    appender.setAsync(true);
+    appender.setBufferSize(BUFFER_SIZE);
+    appender.setBatchSize(1);
+    appender.setDiscardPolicy(policy.name());
+    appender.activateOptions();
+    Logger logger = Logger.getLogger("asyncappender." + name);
+    logger.removeAllAppenders();
+    logger.setAdditivity(false);
+    logger.setLevel(Level.INFO);
+    logger.addAppender(appender);
+    return logger;
+  }
+
+  private static Message msg(int i) {
+    return new Message(("msg" + i).getBytes());
+  }
+
+  private static List<String> msgs(int from, int to) {
+    List<String> msgs = new ArrayList<String>();
+    for (int i = from; i < to; i++) {
+      msgs.add("msg" + i);
+    }
+    return msgs;
+  }
+
+  /**
+   * Logs the first message and waits till the publisher is stalled on it.
+   */
+  private void stallOnFirst(Logger logger) throws InterruptedException {
+    logger.info(msg(0));
+    Assert.assertTrue(StalledPublisher.awaitStalled(TIMEOUT_MILLIS));
+  }
+
+  @Test
+  public void testDiscardNew() throws Exception {
+    Logger logger = createLogger("discardnew", DiscardPolicy.DISCARD_NEW);
+    stallOnFirst(logger);
+    for (int i = 1; i < 100; i++) {
+      logger.info(msg(i));
+    }
+    Assert.assertEquals(appender.getDiscardedCount(), 99 - BUFFER_SIZE);
+    StalledPublisher.resume();
+    appender.close();
+    // the stalled message and the ones which fit into the buffer
+    Assert.assertEquals(StalledPublisher.getPublished(),
+        msgs(0, BUFFER_SIZE + 1));
+  }
+
+  @Test
+  public void testDiscardOldest() throws Exception {
+    Logger logger = createLogger("discardoldest",
+        DiscardPolicy.DISCARD_OLDEST);
+    stallOnFirst(logger);
+    for (int i = 1; i < 100; i++) {
+      logger.info(msg(i));
+    }
+    Assert.assertEquals(appender.getDiscardedCount(), 99 - BUFFER_SIZE);
+    StalledPublisher.resume();
+    appender.close();
+    // the stalled message and the latest ones
+    List<String> expected = msgs(0, 1);
+    expected.addAll(msgs(100 - BUFFER_SIZE, 100));
+    Assert.assertEquals(StalledPublisher.getPublished(), expected);
+  }
+
+  @Test
+  public void testBlock() throws Exception {
+    final Logger logger = createLogger("block", DiscardPolicy.BLOCK);
+    stallOnFirst(logger);
+    Thread logging = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 1; i < 100; i++) {
+          logger.info(msg(i));
+        }
+      }
+    };
+    logging.start();
+    // the logging thread waits for a free slot
+    logging.join(200);
+    Assert.assertTrue(logging.isAlive());
+    StalledPublisher.resume();
+    logging.join(TIMEOUT_MILLIS);
+    Assert.assertFalse(logging.isAlive());
+    appender.close();
+    Assert.assertEquals(StalledPublisher.getPublished(), msgs(0, 100));
+    Assert.assertEquals(appender.getDiscardedCount(), 0);
+  }
+
+  /**
+   * The async publisher parks on an empty buffer and every logged message
+   * unparks it, without waiting for close.
+   */
+  @Test
+  public void testIdleWakeUp() throws Exception {
+    Logger logger = createLogger("idle", DiscardPolicy.DISCARD_NEW);
+    StalledPublisher.resume();
+    Thread asyncPublisher = findThread("message-appender-idle");
+    Assert.assertNotNull(asyncPublisher);
+    for (int i = 0; i < 20; i++) {
+      awaitState(asyncPublisher, Thread.State.WAITING);
+      logger.info(msg(i));
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (StalledPublisher.getPublished().size() <= i
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+      Assert.assertEquals(StalledPublisher.getPublished(), msgs(0, i + 1));
+    }
+    Assert.assertEquals(appender.getDiscardedCount(), 0);
+  }
+
+  private static Thread findThread(String name) {
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.getName().equals(name)) {
+        return t;
+      }
+    }
+    return null;
+  }
+
+  private static void awaitState(Thread t, Thread.State state)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (t.getState() != state) {
+      Assert.assertTrue(System.currentTimeMillis() < deadline,
+          t.getName() + " is " + t.getState());
+      Thread.sleep(1);
+    }
+  }
+}
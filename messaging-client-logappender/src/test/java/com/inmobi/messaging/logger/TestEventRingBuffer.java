@@ -0,0 +1,160 @@
+package com.inmobi.messaging.logger;
+
+/*
+ * #%L
+ * messaging-client-logappender
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestEventRingBuffer {
+
+  @Test
+  public void testCapacityRounding() {
+    Assert.assertEquals(new EventRingBuffer<Integer>(1).capacity(), 1);
+    Assert.assertEquals(new EventRingBuffer<Integer>(3).capacity(), 4);
+    Assert.assertEquals(new EventRingBuffer<Integer>(8).capacity(), 8);
+    Assert.assertEquals(new EventRingBuffer<Integer>(1000).capacity(), 1024);
+    Throwable th = null;
+    try {
+      new EventRingBuffer<Integer>(0);
+    } catch (IllegalArgumentException e) {
+      th = e;
+    }
+    Assert.assertNotNull(th);
+  }
+
+  @Test
+  public void testWrapAround() {
+    EventRingBuffer<Integer> buffer = new EventRingBuffer<Integer>(3);
+    int next = 0;
+    int expected = 0;
+    // every round moves the cursors past the end of the array
+    for (int round = 0; round < 10; round++) {
+      while (buffer.offer(next)) {
+        next++;
+      }
+      Assert.assertEquals(next - expected, buffer.capacity());
+      Assert.assertEquals(buffer.poll(), Integer.valueOf(expected++));
+      Assert.assertTrue(buffer.offer(next++));
+      Assert.assertFalse(buffer.offer(next));
+      List<Integer> drained = new ArrayList<Integer>();
+      Assert.assertEquals(buffer.drainTo(drained, 2), 2);
+      for (Integer i : drained) {
+        Assert.assertEquals(i, Integer.valueOf(expected++));
+      }
+      Integer i;
+      while ((i = buffer.poll()) != null) {
+        Assert.assertEquals(i, Integer.valueOf(expected++));
+      }
+      Assert.assertTrue(buffer.isEmpty());
+    }
+    Assert.assertEquals(expected, next);
+  }
+
+  /**
+   * Producers spin on a small full buffer while consumers drain it. Every
+   * element is consumed exactly once, and each consumer sees the elements
+   * of a producer in the order they were offered.
+   */
+  @Test
+  public void testConcurrentProducersAndConsumers() throws Exception {
+    final int producers = 4;
+    final int consumers = 4;
+    final int perProducer = 50000;
+    final int total = producers * perProducer;
+    final EventRingBuffer<Integer> buffer = new EventRingBuffer<Integer>(60);
+    final AtomicIntegerArray seen = new AtomicIntegerArray(total);
+    final AtomicInteger consumed = new AtomicInteger(0);
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          awaitQuietly(start);
+          for (int i = 0; i < perProducer; i++) {
+            while (!buffer.offer(producer * perProducer + i)) {
+              Thread.yield();
+            }
+          }
+        }
+      });
+    }
+    for (int c = 0; c < consumers; c++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          awaitQuietly(start);
+          int[] last = new int[producers];
+          for (int p = 0; p < producers; p++) {
+            last[p] = -1;
+          }
+          while (consumed.get() < total) {
+            Integer e = buffer.poll();
+            if (e == null) {
+              Thread.yield();
+              continue;
+            }
+            int producer = e / perProducer;
+            if (e <= last[producer]) {
+              failure.compareAndSet(null, e + " consumed after "
+                  + last[producer]);
+            }
+            last[producer] = e;
+            seen.incrementAndGet(e);
+            consumed.incrementAndGet();
+          }
+        }
+      });
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    start.countDown();
+    for (Thread t : threads) {
+      t.join(60000);
+      Assert.assertFalse(t.isAlive());
+    }
+    Assert.assertNull(failure.get());
+    Assert.assertEquals(consumed.get(), total);
+    for (int i = 0; i < total; i++) {
+      Assert.assertEquals(seen.get(i), 1, "element " + i);
+    }
+    Assert.assertTrue(buffer.isEmpty());
+    Assert.assertNull(buffer.poll());
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
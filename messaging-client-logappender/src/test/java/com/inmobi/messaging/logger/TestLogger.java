@@ -58,6 +58,36 @@ public class TestLogger {
     doTest(logger, appender);
   }
 
+  @Test
+  public void testAsync() throws TException {
+    PropertyConfigurator.configure("src/test/resources/log4j-async.properties");
+    Logger logger = Logger.getLogger("messagingclient");
+    MessageAppender appender =
+        (MessageAppender) logger.getAppender("messagingclient");
+    Assert.assertTrue(appender.isAsync());
+    Assert.assertEquals(appender.getDiscardPolicy(), "BLOCK");
+    String topic = "test";
+    MockPublisher.reset(topic);
+
+    for (int i = 0; i < 100; i++) {
+      logger.info(new Message(ByteBuffer.wrap(("hello" + i).getBytes())));
+    }
+    LogEntry le = new LogEntry();
+    le.category = "xxxx";
+    le.message = "massage";
+    logger.info(le);
+    // close publishes everything buffered so far
+    appender.close();
+
+    ByteBuffer returned =
+        AuditUtil.removeHeader(MockPublisher.getMsg(topic).getBytes());
+    TSerializer serializer = new TSerializer();
+    Assert.assertEquals(new Message(returned),
+        new Message(serializer.serialize(le)));
+    Assert.assertEquals(appender.getDiscardedCount(), 0);
+    MockPublisher.reset(topic);
+  }
+
   private void doTest(Logger logger, MessageAppender appender)
       throws TException {
     String topic = "test";
@@ -94,7 +124,7 @@ public class TestLogger {
     le.message = "massage";
     logger.info(le);
     returned =
-        AuditUtil.removeHeader(MockPublisher.getMsg(topic).getData().array());
+        AuditUtil.removeHeader(MockPublisher.getMsg(topic).getBytes());
     TSerializer serializer = new TSerializer();
     Assert.assertEquals(new Message(returned),
         new Message(serializer.serialize(le)));
@@ -0,0 +1,94 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+
+/**
+ * AIMD window bounding the number of messages written to a scribe connection
+ * and not acked yet.
+ *
+ * The window grows by one message per window of successful acks and is
+ * halved when scribe replies TRY_LATER or an ack times out. Once halved, a
+ * TRY_LATER does not halve it again till the messages which were in flight at
+ * that time are acked, so that a burst of TRY_LATER replies to the same
+ * window counts as one congestion event.
+ */
+class CongestionWindow {
+
+  private static final double DECREASE_FACTOR = 0.5;
+
+  private final int minWindow;
+  private final int maxWindow;
+  private final PintailTimingAccumulator stats;
+  private double window;
+  // number of acks received so far
+  private long acks = 0;
+  // TRY_LATER does not decrease the window again till more than this many
+  // acks are received
+  private long recoveryAck = 0;
+
+  CongestionWindow(int minWindow, int maxWindow,
+      PintailTimingAccumulator stats) {
+    this.minWindow = Math.max(1, minWindow);
+    this.maxWindow = Math.max(this.minWindow, maxWindow);
+    this.stats = stats;
+    this.window = this.maxWindow;
+    stats.setCongestionWindow(this.maxWindow);
+  }
+
+  /**
+   * @return the number of messages which can be in flight
+   */
+  synchronized int getWindow() {
+    return (int) window;
+  }
+
+  synchronized void onSuccess() {
+    acks++;
+    if (window < maxWindow) {
+      window = Math.min(maxWindow, window + 1.0 / window);
+      stats.setCongestionWindow((int) window);
+    }
+  }
+
+  synchronized void onTryLater(int inFlight) {
+    acks++;
+    if (acks <= recoveryAck) {
+      return;
+    }
+    decrease(inFlight);
+  }
+
+  /**
+   * Unlike TRY_LATER, every ack timeout decreases the window.
+   */
+  synchronized void onAckTimeout(int inFlight) {
+    decrease(inFlight);
+  }
+
+  private void decrease(int inFlight) {
+    window = Math.max(minWindow, window * DECREASE_FACTOR);
+    recoveryAck = acks + inFlight;
+    stats.accumulateThrottle();
+    stats.setCongestionWindow((int) window);
+  }
+}
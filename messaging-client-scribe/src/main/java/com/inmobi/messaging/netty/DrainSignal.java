@@ -0,0 +1,57 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Wakes up the threads draining topic publishers on close whenever an ack
+ * arrives or a connection is re-established, so that draining does not have
+ * to sleep between attempts. A single signal can be shared by many topics.
+ */
+class DrainSignal {
+  private long count = 0;
+
+  synchronized void signal() {
+    count++;
+    notifyAll();
+  }
+
+  synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Waits till the signal is raised after it was last seen at seenCount.
+   *
+   * @return false if the timeout elapsed without a signal
+   */
+  synchronized boolean await(long seenCount, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (count == seenCount) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      wait(remaining);
+    }
+    return true;
+  }
+}
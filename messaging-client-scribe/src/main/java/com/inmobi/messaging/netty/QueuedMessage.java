@@ -0,0 +1,39 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.inmobi.messaging.Message;
+
+/**
+ * A message in the send or ack queue of a {@link ScribeTopicPublisher} along
+ * with the sequence it got from the stats of its topic. The same entry moves
+ * from the send queue to the ack queue and back on a resend, so the message
+ * is settled exactly once whatever the number of attempts.
+ */
+final class QueuedMessage {
+  final Message message;
+  final long sequence;
+
+  QueuedMessage(Message message, long sequence) {
+    this.message = message;
+    this.sequence = sequence;
+  }
+}
@@ -43,22 +43,28 @@ public class ScribeBites {
   private static final byte[] BODY_MARKER = {0x0b, 0x00, 0x02 };
   private static final byte[] TRAILER = { 0x00, 0x00 };
 
+  /**
+   * Writes the message as a single entry Log call. The message data is
+   * wrapped into the frame without being copied and is left untouched, so
+   * that the message can be written again on a resend.
+   */
   public static void publish(Channel ch, String category, Message m) {
-    ChannelBuffer output = ChannelBuffers.dynamicBuffer(ByteOrder.BIG_ENDIAN,
-        2048);
+    byte[] catBytes = category.getBytes();
+    ChannelBuffer header = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN,
+        SINGLE_ENTRY_PREFIX.length + 4 + catBytes.length + BODY_MARKER.length
+        + 4);
 
-    output.writeBytes(SINGLE_ENTRY_PREFIX);
+    header.writeBytes(SINGLE_ENTRY_PREFIX);
 
-    byte[] catBytes = category.getBytes();
-    output.writeInt(catBytes.length);
-    output.writeBytes(catBytes);
+    header.writeInt(catBytes.length);
+    header.writeBytes(catBytes);
 
-    output.writeBytes(BODY_MARKER);
-    output.writeInt(m.getData().array().length);
-    output.writeBytes(m.getData());
+    ChannelBuffer body = ChannelBuffers.wrappedBuffer(m.getData());
+    header.writeBytes(BODY_MARKER);
+    header.writeInt(body.readableBytes());
 
-    output.writeBytes(TRAILER);
-    ch.write(output);
+    ch.write(ChannelBuffers.wrappedBuffer(header, body,
+        ChannelBuffers.wrappedBuffer(TRAILER)));
   }
 
   public static void publish(Channel ch, ChannelBuffer categoryAsByteStream,
@@ -76,6 +82,10 @@ public class ScribeBites {
     ch.write(output);
   }
 
+  /**
+   * Writes the object as a single entry Log call. The object is encoded into
+   * its own buffer, which is wrapped into the frame without being copied.
+   */
   public static void publish(Channel ch, ChannelBuffer categoryAsByteStream,
       TBase thriftObject) throws TException {
     TNettyChannelBuffer t = new TNettyChannelBuffer(null,
@@ -83,17 +93,17 @@ public class ScribeBites {
     TProtocol p = new TBinaryProtocol(t);
     thriftObject.write(p);
 
-    ChannelBuffer output = ChannelBuffers.dynamicBuffer(ByteOrder.BIG_ENDIAN,
-        2048);
+    ChannelBuffer body = t.getOutputBuffer();
+    ChannelBuffer header = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN,
+        categoryAsByteStream.readableBytes() + BODY_MARKER.length + 4);
 
-    output.writeBytes(categoryAsByteStream.duplicate());
+    header.writeBytes(categoryAsByteStream.duplicate());
 
-    output.writeBytes(BODY_MARKER);
-    output.writeInt(t.getOutputBuffer().readableBytes());
-    output.writeBytes(t.getOutputBuffer());
+    header.writeBytes(BODY_MARKER);
+    header.writeInt(body.readableBytes());
 
-    output.writeBytes(TRAILER);
-    ch.write(output);
+    ch.write(ChannelBuffers.wrappedBuffer(header, body,
+        ChannelBuffers.wrappedBuffer(TRAILER)));
   }
 
   public static ChannelBuffer generateHeaderWithCategory(String c) {
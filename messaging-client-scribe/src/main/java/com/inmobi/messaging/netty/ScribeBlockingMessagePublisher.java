@@ -20,20 +20,13 @@ package com.inmobi.messaging.netty;
  * #L%
  */
 
-import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
-
 /**
  * Blocks the thread publishing the message till the time queue gets space to
  * add the message.
  */
 public class ScribeBlockingMessagePublisher extends ScribeMessagePublisher {
   @Override
-  protected void initTopic(final String topic, final PintailTimingAccumulator stats) {
-    if (scribeConnections.get(topic) == null) {
-      ScribeTopicPublisher connection = new ScribeBlockingTopicPublisher();
-      scribeConnections.put(topic, connection);
-      initConnection(topic, connection, stats);
-    }
-    super.initTopic(topic, stats);
+  protected ScribeTopicPublisher createTopicPublisher() {
+    return new ScribeBlockingTopicPublisher();
   }
 }
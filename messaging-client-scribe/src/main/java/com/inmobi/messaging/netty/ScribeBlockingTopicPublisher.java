@@ -23,8 +23,6 @@ package com.inmobi.messaging.netty;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.inmobi.messaging.instrumentation.PintailTimingAccumulator.Outcome;
-import com.inmobi.messaging.Message;
 
 /**
  */
@@ -32,13 +30,25 @@ public class ScribeBlockingTopicPublisher extends ScribeTopicPublisher {
   private static final Log LOG = LogFactory.getLog(ScribeTopicPublisher.class);
 
   @Override
-  protected boolean addToSend(final Message m) {
+  protected boolean addToSend(final QueuedMessage m) {
     try {
       toBeSent.put(m);
       return true;
     } catch (InterruptedException e) {
       LOG.error("Error while waiting for free space in queue. Message dropped :( ");
-      stats.accumulateOutcomeWithDelta(Outcome.LOST, 0);
+      lost(m);
+      return false;
+    }
+  }
+
+  @Override
+  protected boolean acquireMemory(final long bytes) {
+    try {
+      memoryBudget.reserve(bytes);
+      return true;
+    } catch (InterruptedException e) {
+      LOG.error("Error while waiting for publisher memory budget. Message"
+          + " dropped :( ");
       return false;
     }
   }
@@ -124,6 +124,7 @@ public class ScribeHandler extends SimpleChannelHandler {
     stats.accumulateOutcomeWithDelta(Outcome.UNHANDLED_FAILURE, 0);
 
     if (cause instanceof ReadTimeoutException) {
+      thisPublisher.ackTimedOut();
       if (!thisPublisher.isAckQueueEmpty()) {
         LOG.info("Not reconnecting for ReadTimeout, as ackqueue is not empty");
         return;
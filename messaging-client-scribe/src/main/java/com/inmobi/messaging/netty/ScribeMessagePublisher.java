@@ -21,8 +21,18 @@ package com.inmobi.messaging.netty;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -46,9 +56,17 @@ public class ScribeMessagePublisher extends AbstractMessagePublisher implements
   private int msgQueueSize;
   private int ackQueueSize;
   private int numDrainsOnClose;
+  private long topicIdleTtlMillis;
+  private ScheduledThreadPoolExecutor idleTopicReaper;
+  private long closeTimeoutMillis;
+  private boolean congestionControl;
+  private int minCongestionWindow;
+  // deadline for draining all the topics, set when close starts
+  private long closeDeadline = Long.MAX_VALUE;
+  private static final int MAX_CLOSE_THREADS = 32;
 
   protected Map<String, ScribeTopicPublisher> scribeConnections =
-      new HashMap<String, ScribeTopicPublisher>();
+      new ConcurrentHashMap<String, ScribeTopicPublisher>();
 
   @Override
   public void init(ClientConfig config) throws IOException {
@@ -64,6 +82,24 @@ public class ScribeMessagePublisher extends AbstractMessagePublisher implements
         config.getInteger(ackQueueSizeConfig, DEFAULT_ACK_QUEUE_SIZE),
         config
             .getInteger(drainRetriesOnCloseConfig, DEFAULT_NUM_DRAINS_ONCLOSE));
+    closeTimeoutMillis = config.getLong(closeTimeoutMillisConfig,
+        DEFAULT_CLOSE_TIMEOUT_MILLIS);
+    congestionControl = config.getBoolean(congestionControlConfig,
+        DEFAULT_CONGESTION_CONTROL);
+    minCongestionWindow = config.getInteger(minCongestionWindowConfig,
+        DEFAULT_MIN_CONGESTION_WINDOW);
+    LOG.info("Congestion control enabled:" + congestionControl
+        + " minCongestionWindow:" + minCongestionWindow);
+    topicIdleTtlMillis = config.getLong(topicIdleTtlMillisConfig,
+        DEFAULT_TOPIC_IDLE_TTL_MILLIS);
+    if (topicIdleTtlMillis > 0) {
+      long checkInterval = Math.max(1, topicIdleTtlMillis / 2);
+      idleTopicReaper = new ScheduledThreadPoolExecutor(1);
+      idleTopicReaper.scheduleWithFixedDelay(new IdleTopicReaper(),
+          checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+      LOG.info("Idle topic publishers will be closed after "
+          + topicIdleTtlMillis + " millis of inactivity");
+    }
   }
 
   private void init(String host, int port, int backoffSeconds, int timeout,
@@ -90,15 +126,26 @@ public class ScribeMessagePublisher extends AbstractMessagePublisher implements
 
   protected void initTopic(String topic, PintailTimingAccumulator stats) {
     super.initTopic(topic, stats);
-    if (scribeConnections.get(topic) == null) {
-      ScribeTopicPublisher connection = new ScribeTopicPublisher();
+    ScribeTopicPublisher connection = scribeConnections.get(topic);
+    // a retired connection is being closed by the idle reaper, replace it
+    if (connection == null || connection.isRetired()) {
+      connection = createTopicPublisher();
       scribeConnections.put(topic, connection);
       initConnection(topic, connection, stats);
     }
   }
-  
+
+  protected ScribeTopicPublisher createTopicPublisher() {
+    return new ScribeTopicPublisher();
+  }
+
   protected void initConnection(String topic, ScribeTopicPublisher connection,
       PintailTimingAccumulator stats) {
+    if (congestionControl) {
+      // the window can grow up to the messages the ack queue can hold
+      connection.setCongestionWindow(new CongestionWindow(minCongestionWindow,
+          ackQueueSize, stats));
+    }
     connection.init(topic, host, port, backoffSeconds, timeoutSeconds, stats,
       enableRetries, resendOnAckLost, asyncSleepInterval, msgQueueSize,
       ackQueueSize, numDrainsOnClose);
@@ -106,22 +153,218 @@ public class ScribeMessagePublisher extends AbstractMessagePublisher implements
 
   @Override
   protected void publish(Map<String, String> headers, Message m) {
+    publish(headers, m, getStats(headers.get(HEADER_TOPIC)).assignSequence());
+  }
+
+  /**
+   * The topic publisher settles the sequence once the message is acked or
+   * dropped.
+   */
+  @Override
+  protected void publish(Map<String, String> headers, Message m,
+      long sequence) {
     String topic = headers.get(HEADER_TOPIC);
-    scribeConnections.get(topic).publish(m);
+    ScribeTopicPublisher connection = scribeConnections.get(topic);
+    // the connection could have been reaped after initTopic, re-create it
+    while (connection == null
+        || !connection.publishIfNotRetired(m, sequence)) {
+      connection = recreateConnection(topic);
+    }
+  }
+
+  private synchronized ScribeTopicPublisher recreateConnection(String topic) {
+    initTopic(topic, getStats(topic));
+    return scribeConnections.get(topic);
   }
 
   @Override
   protected void closeTopic(String topicName) {
     ScribeTopicPublisher scribePublisher = scribeConnections.get(topicName);
     if (scribePublisher == null) {
-      LOG.warn("Close called on topic[" + topicName + "]"
-          + " for which ScribeTopicPublisher doesn't exist");
+      LOG.info("Close called on topic[" + topicName + "]"
+          + " for which ScribeTopicPublisher doesn't exist or was closed as"
+          + " idle");
       return;
     }
     scribePublisher.close();
   }
 
+  @Override
+  public void close() {
+    // stop the reaper before closing the topics; it should not be waited on
+    // while holding the publisher lock as reaping needs that lock as well.
+    if (idleTopicReaper != null) {
+      idleTopicReaper.shutdown();
+      try {
+        idleTopicReaper.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        LOG.info("Interrupted while waiting for idle topic reaper to finish");
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (closeTimeoutMillis > 0) {
+      closeDeadline = System.currentTimeMillis() + closeTimeoutMillis;
+    } else {
+      closeDeadline = Long.MAX_VALUE;
+    }
+    super.close();
+  }
+
+  /**
+   * Drains all the topics concurrently till the close deadline, drops the
+   * messages of the topics which could not be drained by then and closes the
+   * connections in parallel.
+   */
+  @Override
+  protected void closeTopics(Collection<String> topics) {
+    List<ScribeTopicPublisher> publishers = new ArrayList<ScribeTopicPublisher>();
+    for (String topic : topics) {
+      ScribeTopicPublisher publisher = scribeConnections.get(topic);
+      if (publisher == null) {
+        LOG.info("Close called on topic[" + topic + "]"
+            + " for which ScribeTopicPublisher doesn't exist or was closed as"
+            + " idle");
+      } else {
+        publishers.add(publisher);
+      }
+    }
+    if (publishers.isEmpty()) {
+      return;
+    }
+    // interrupt all the senders first so that they exit together
+    for (ScribeTopicPublisher publisher : publishers) {
+      publisher.stopSender();
+    }
+    for (ScribeTopicPublisher publisher : publishers) {
+      publisher.joinSender();
+    }
+    drainTopics(publishers);
+    closeConnections(publishers);
+  }
+
+  private void drainTopics(List<ScribeTopicPublisher> publishers) {
+    LOG.info("Draining " + publishers.size() + " topics");
+    DrainSignal signal = new DrainSignal();
+    Map<ScribeTopicPublisher, Long> settledAtStart =
+        new HashMap<ScribeTopicPublisher, Long>();
+    for (ScribeTopicPublisher publisher : publishers) {
+      publisher.setDrainSignal(signal);
+      settledAtStart.put(publisher, publisher.stats.getSettledCount());
+    }
+    List<ScribeTopicPublisher> pending =
+        new ArrayList<ScribeTopicPublisher>(publishers);
+    int numRetries = 0;
+    boolean interrupted = false;
+    while (true) {
+      long signalCount = signal.getCount();
+      long settledCount = getSettledCount(pending);
+      for (Iterator<ScribeTopicPublisher> it = pending.iterator(); it
+          .hasNext();) {
+        if (it.next().drain()) {
+          it.remove();
+        }
+      }
+      long remaining = closeDeadline - System.currentTimeMillis();
+      if (pending.isEmpty() || remaining <= 0 || interrupted
+          || (numDrainsOnClose != -1 && numRetries > numDrainsOnClose)) {
+        break;
+      }
+      try {
+        signal.await(signalCount, Math.min(asyncSleepInterval, remaining));
+      } catch (InterruptedException e) {
+        LOG.info("Draining interrupted, dropping the pending messages");
+        interrupted = true;
+        Thread.currentThread().interrupt();
+      }
+      // only attempts in which no message got acked or failed are retries
+      if (getSettledCount(pending) == settledCount) {
+        numRetries++;
+      }
+    }
+    long totalLost = 0;
+    for (ScribeTopicPublisher publisher : pending) {
+      long drained = publisher.stats.getSettledCount()
+          - settledAtStart.get(publisher);
+      int lost = publisher.dropPending();
+      totalLost += lost;
+      LOG.warn("Could not drain topic[" + publisher.getTopic() + "] before"
+          + " the close deadline. Drained " + drained + " messages, dropped "
+          + lost + " messages");
+    }
+    LOG.info("Drained " + (publishers.size() - pending.size()) + " of "
+        + publishers.size() + " topics, dropped " + totalLost + " messages");
+  }
+
+  private static long getSettledCount(List<ScribeTopicPublisher> publishers) {
+    long settled = 0;
+    for (ScribeTopicPublisher publisher : publishers) {
+      settled += publisher.stats.getSettledCount();
+    }
+    return settled;
+  }
+
+  private void closeConnections(List<ScribeTopicPublisher> publishers) {
+    if (publishers.size() == 1) {
+      publishers.get(0).closeConnection();
+      return;
+    }
+    // closing a connection waits for the channel close and the timer thread
+    ExecutorService closer = Executors.newFixedThreadPool(Math.min(
+        publishers.size(), MAX_CLOSE_THREADS));
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (final ScribeTopicPublisher publisher : publishers) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          publisher.closeConnection();
+          return null;
+        }
+      });
+    }
+    try {
+      closer.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      LOG.info("Interrupted while closing the connections");
+      Thread.currentThread().interrupt();
+    } finally {
+      closer.shutdown();
+    }
+  }
+
   ScribeTopicPublisher getTopicPublisher(String topicName) {
     return scribeConnections.get(topicName);
   }
+
+  /**
+   * Closes the topic publishers which did not publish anything and have empty
+   * queues for the configured idle ttl. Such topics are re-created on their
+   * next publish, with the same stats.
+   */
+  private class IdleTopicReaper implements Runnable {
+    @Override
+    public void run() {
+      try {
+        for (Map.Entry<String, ScribeTopicPublisher> entry : scribeConnections
+            .entrySet()) {
+          String topic = entry.getKey();
+          ScribeTopicPublisher connection = entry.getValue();
+          if (!connection.retireIfIdle(topicIdleTtlMillis)) {
+            continue;
+          }
+          // a publish could have already replaced the retired connection
+          synchronized (ScribeMessagePublisher.this) {
+            if (scribeConnections.get(topic) == connection) {
+              scribeConnections.remove(topic);
+            }
+          }
+          LOG.info("Closing publisher for topic[" + topic + "] as it was idle"
+              + " for " + topicIdleTtlMillis + " millis");
+          connection.close();
+        }
+      } catch (Throwable t) {
+        // catch everything so that the scheduled reaper does not die
+        LOG.error("Error while closing idle topic publishers", t);
+      }
+    }
+  }
 }
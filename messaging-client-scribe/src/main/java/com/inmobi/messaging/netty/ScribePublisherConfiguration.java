@@ -53,4 +53,20 @@ public interface ScribePublisherConfiguration {
   public static final String drainRetriesOnCloseConfig =
       "scribe.numdrains.onclose";
   public static final int DEFAULT_NUM_DRAINS_ONCLOSE = -1;
+
+  public static final String topicIdleTtlMillisConfig =
+      "scribe.topic.idle.ttl.millis";
+  public static final long DEFAULT_TOPIC_IDLE_TTL_MILLIS = -1;
+
+  public static final String closeTimeoutMillisConfig =
+      "scribe.close.timeout.millis";
+  public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = -1;
+
+  public static final String congestionControlConfig =
+      "scribe.congestion.control.enabled";
+  public static final boolean DEFAULT_CONGESTION_CONTROL = false;
+
+  public static final String minCongestionWindowConfig =
+      "scribe.congestion.window.min";
+  public static final int DEFAULT_MIN_CONGESTION_WINDOW = 1;
 }
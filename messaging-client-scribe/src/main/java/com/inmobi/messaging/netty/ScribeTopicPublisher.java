@@ -21,9 +21,13 @@ package com.inmobi.messaging.netty;
  */
 
 import java.net.InetSocketAddress;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,6 +43,7 @@ import scribe.thrift.ResultCode;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
 import com.inmobi.messaging.instrumentation.PintailTimingAccumulator.Outcome;
+import com.inmobi.messaging.publisher.PublisherMemoryBudget;
 
 public class ScribeTopicPublisher {
   private static final Log LOG = LogFactory.getLog(ScribeTopicPublisher.class);
@@ -51,8 +56,10 @@ public class ScribeTopicPublisher {
   private String host;
   private int port;
   protected PintailTimingAccumulator stats;
-  protected BlockingQueue<Message> toBeSent;
-  private BlockingQueue<Message> toBeAcked;
+  protected BlockingQueue<QueuedMessage> toBeSent;
+  private BlockingQueue<QueuedMessage> toBeAcked;
+  // sequences of the messages written and not acked, when retries are off
+  private final Queue<Long> writtenSequences = new ConcurrentLinkedQueue<Long>();
   private long sleepInterval = 10;
   private boolean stopped = false;
   private Thread senderThread;
@@ -63,6 +70,19 @@ public class ScribeTopicPublisher {
   private int numDrainsOnClose = 10;
   // Reentrant lock used to synchronize sending messages from send queue.
   private final ReentrantLock sendLock = new ReentrantLock();
+  // Publishes hold the read lock, retiring an idle publisher takes write lock.
+  private final ReentrantReadWriteLock retireLock =
+      new ReentrantReadWriteLock();
+  private volatile boolean retired = false;
+  private volatile long lastPublishTime;
+  // set while the publisher is being drained on close
+  private volatile DrainSignal drainSignal;
+  // bounds the messages in flight, null if congestion control is disabled
+  private CongestionWindow congestionWindow;
+  // messages written on the current channel and not acked yet
+  private final AtomicInteger unacked = new AtomicInteger(0);
+  protected final PublisherMemoryBudget memoryBudget =
+      PublisherMemoryBudget.getInstance();
 
   /**
    * This is meant to be a way for async callbacks to set the channel on a
@@ -113,6 +133,14 @@ public class ScribeTopicPublisher {
     }
   }
 
+  /**
+   * Enables congestion control with the passed window. Has to be called
+   * before init.
+   */
+  void setCongestionWindow(CongestionWindow congestionWindow) {
+    this.congestionWindow = congestionWindow;
+  }
+
   public void init(final String topic, final String host, final int port,
       final int backoffSeconds, final int timeoutSeconds,
       final PintailTimingAccumulator stats, final boolean enableRetries,
@@ -126,12 +154,13 @@ public class ScribeTopicPublisher {
     this.resendOnAckLost = resendOnAckLost;
     this.sleepInterval = sleepInterval;
 
-    this.toBeSent = new LinkedBlockingQueue<Message>(msgQueueSize);
+    this.toBeSent = new LinkedBlockingQueue<QueuedMessage>(msgQueueSize);
     // create ack queue only if retry is enabled
     if (enableRetries) {
-      this.toBeAcked = new LinkedBlockingQueue<Message>(ackQueueSize);
+      this.toBeAcked = new LinkedBlockingQueue<QueuedMessage>(ackQueueSize);
     }
     this.numDrainsOnClose = numDrainsOnClose;
+    this.lastPublishTime = System.currentTimeMillis();
 
     bootstrap = new ClientBootstrap(NettyEventCore.getInstance().getFactory());
 
@@ -153,19 +182,143 @@ public class ScribeTopicPublisher {
   }
 
   protected void publish(final Message m) {
-    addToSend(m);
+    publish(m, stats.assignSequence());
+  }
+
+  protected void publish(final Message m, final long sequence) {
+    enqueue(m, sequence);
     trySending(true);
   }
 
-  protected boolean addToSend(final Message m) {
+  /**
+   * Queues the message with a new sequence from the stats of the topic,
+   * without sending it.
+   *
+   * @return false if the message was dropped
+   */
+  boolean enqueue(final Message m) {
+    return enqueue(m, stats.assignSequence());
+  }
+
+  /**
+   * Reserves the size of the message from the memory budget and adds it to
+   * the send queue, without sending it.
+   *
+   * @return false if the message was dropped
+   */
+  boolean enqueue(final Message m, final long sequence) {
+    QueuedMessage queued = new QueuedMessage(m, sequence);
+    if (!reserveMemory(queued)) {
+      return false;
+    }
+    if (!addToSend(queued)) {
+      releaseMemory(queued);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Publishes the message unless this publisher has been retired for being
+   * idle.
+   *
+   * @return false if the publisher is retired and the message was not
+   * published, true otherwise.
+   */
+  boolean publishIfNotRetired(final Message m, final long sequence) {
+    retireLock.readLock().lock();
+    try {
+      if (retired) {
+        return false;
+      }
+      lastPublishTime = System.currentTimeMillis();
+      publish(m, sequence);
+      return true;
+    } finally {
+      retireLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retires this publisher if nothing was published for idleTtlMillis and
+   * both the send and ack queues are empty. A retired publisher does not
+   * accept any more messages and should be closed by the caller.
+   *
+   * @return true if the publisher got retired by this call
+   */
+  boolean retireIfIdle(final long idleTtlMillis) {
+    // do not wait for publishes in progress, the publisher is not idle anyway
+    if (!retireLock.writeLock().tryLock()) {
+      return false;
+    }
+    try {
+      if (retired
+          || System.currentTimeMillis() - lastPublishTime < idleTtlMillis
+          || !isSendQueueEmpty() || !isAckQueueEmpty()) {
+        return false;
+      }
+      retired = true;
+      return true;
+    } finally {
+      retireLock.writeLock().unlock();
+    }
+  }
+
+  boolean isRetired() {
+    return retired;
+  }
+
+  /**
+   * Reserves the size of the message from the publisher memory budget. The
+   * reservation is held till the message is acked, dropped or failed.
+   *
+   * @return false if the message is dropped as the budget is exhausted
+   */
+  private boolean reserveMemory(final QueuedMessage m) {
+    long size = m.message.getSize();
+    if (!acquireMemory(size)) {
+      lost(m);
+      return false;
+    }
+    stats.accumulateReservedBytes(size);
+    return true;
+  }
+
+  protected boolean acquireMemory(final long bytes) {
+    if (!memoryBudget.tryReserve(bytes)) {
+      LOG.warn("Publisher memory budget is exhausted, dropping the message");
+      return false;
+    }
+    return true;
+  }
+
+  private void releaseMemory(final QueuedMessage m) {
+    long size = m.message.getSize();
+    memoryBudget.release(size);
+    stats.accumulateReleasedBytes(size);
+  }
+
+  /**
+   * Counts the message as lost and settles it.
+   */
+  protected void lost(final QueuedMessage m) {
+    stats.accumulateOutcomeWithDelta(Outcome.LOST, 0);
+    stats.settle(m.sequence);
+  }
+
+  protected boolean addToSend(final QueuedMessage m) {
     if (!toBeSent.offer(m)) {
       LOG.warn("Messages to be sent Queue is full," + " dropping the message");
-      stats.accumulateOutcomeWithDelta(Outcome.LOST, 0);
+      lost(m);
       return false;
     }
     return true;
   }
 
+  String getTopic() {
+    return topic;
+  }
+
   boolean isSendQueueEmpty() {
     return toBeSent.size() == 0;
   }
@@ -192,21 +345,34 @@ public class ScribeTopicPublisher {
         }
 
         try {
-          Message m = null;
+          QueuedMessage m = null;
           while ((m = toBeSent.peek()) != null) {
-            // Add this message to ack queue before writing the message.
-            // Also add a clone of this message to ack queue.
+            if (congestionWindow != null
+                && unacked.get() >= congestionWindow.getWindow()) {
+              LOG.debug("Congestion window is full, not sending right now");
+              break;
+            }
+            // Add this message to ack queue before writing the message. The
+            // message data is not modified by writing it.
             if (enabledRetries
-                && (toBeAcked.remainingCapacity() == 0 || !toBeAcked.offer(m
-                    .clone()))) {
+                && (toBeAcked.remainingCapacity() == 0
+                    || !toBeAcked.offer(m))) {
               LOG.info("Could not send earlier messages successfully, not"
                   + " sending right now.");
               break;
             }
+            if (!enabledRetries) {
+              writtenSequences.offer(m.sequence);
+            }
             // write the current message
-            ScribeBites.publish(thisChannel, topic, m);
+            ScribeBites.publish(thisChannel, topic, m.message);
+            unacked.incrementAndGet();
             // remove the message from sent queue
             toBeSent.poll();
+            // without retries nothing holds the message after it is written
+            if (!enabledRetries) {
+              releaseMemory(m);
+            }
             // check if the next message can be written immediately
             if (!isChannelWritable()) {
               break;
@@ -265,76 +431,163 @@ public class ScribeTopicPublisher {
 
   private void drainAll() {
     LOG.info("Draining all the messages");
+    DrainSignal signal = new DrainSignal();
+    setDrainSignal(signal);
     int numRetries = 0;
     while (true) {
-      trySending(false);
-      if (isSendQueueEmpty() && isAckQueueEmpty()) {
+      long signalCount = signal.getCount();
+      long settledCount = stats.getSettledCount();
+      if (drain()) {
         break;
       }
       if ((numDrainsOnClose != -1 && numRetries > numDrainsOnClose)) {
         LOG.info("Dropping messages as channel is not connected or number of"
             + " retries exhausted");
-        emptyAckQueue();
-        emptyMsgQueue();
+        dropPending();
       }
-      numRetries++;
       try {
-        Thread.sleep(sleepInterval);
+        signal.await(signalCount, sleepInterval);
       } catch (InterruptedException e) {
         LOG.info("Draining inturrupted. Exiting");
         return;
       }
+      // only attempts in which no message got acked or failed are retries
+      if (stats.getSettledCount() == settledCount) {
+        numRetries++;
+      }
     }
   }
 
+  /**
+   * Wakes up the signal whenever an ack arrives or the connection is
+   * re-established, while the publisher is being drained.
+   */
+  void setDrainSignal(DrainSignal signal) {
+    this.drainSignal = signal;
+  }
+
+  private void signalDrain() {
+    DrainSignal signal = drainSignal;
+    if (signal != null) {
+      signal.signal();
+    }
+  }
+
+  /**
+   * Tries sending the queued messages.
+   *
+   * @return true if both the send and ack queues are empty
+   */
+  boolean drain() {
+    trySending(false);
+    return isSendQueueEmpty() && isAckQueueEmpty();
+  }
+
+  /**
+   * Drops all the messages in send and ack queues.
+   *
+   * @return the number of messages dropped
+   */
+  int dropPending() {
+    return emptyAckQueue() + emptyMsgQueue();
+  }
+
   void prepareReconnect() {
     reconnectionInProgress = true;
+    // acks for the messages written on the old channel will not arrive
+    unacked.set(0);
+    settleWritten();
     emptyAckQueue();
   }
 
   void doneReconnect() {
     reconnectionInProgress = false;
+    signalDrain();
   }
 
-  void emptyAckQueue() {
+  /**
+   * Empties the ack queue, resending the messages if resendOnAckLost is set.
+   *
+   * @return the number of messages dropped
+   */
+  int emptyAckQueue() {
     if (!enabledRetries) {
-      return;
+      return 0;
     }
+    int dropped = 0;
     if (resendOnAckLost) {
-      Message m = null;
+      QueuedMessage m = null;
       while ((m = toBeAcked.poll()) != null) {
-        addToSend(m);
+        if (!addToSend(m)) {
+          releaseMemory(m);
+        }
       }
     } else {
       if (toBeAcked.size() > 0) {
         LOG.warn("Emptying ack queue of size:" + toBeAcked.size());
       }
-      while (toBeAcked.poll() != null) {
+      QueuedMessage m = null;
+      while ((m = toBeAcked.poll()) != null) {
         stats.accumulateOutcomeWithDelta(Outcome.GRACEFUL_FAILURE, 0);
+        stats.settle(m.sequence);
+        releaseMemory(m);
+        dropped++;
       }
     }
+    return dropped;
   }
 
-  void emptyMsgQueue() {
+  /**
+   * Settles the messages written without retries whose acks will not arrive
+   * anymore.
+   */
+  private void settleWritten() {
+    Long sequence;
+    while ((sequence = writtenSequences.poll()) != null) {
+      stats.settle(sequence);
+    }
+  }
+
+  int emptyMsgQueue() {
+    int dropped = 0;
     if (toBeSent.size() > 0) {
       LOG.warn("Emptying message queue of size:" + toBeSent.size());
     }
-    while (toBeSent.poll() != null) {
-      stats.accumulateOutcomeWithDelta(Outcome.LOST, 0);
+    QueuedMessage m = null;
+    while ((m = toBeSent.poll()) != null) {
+      lost(m);
+      releaseMemory(m);
+      dropped++;
     }
+    return dropped;
   }
 
   public void close() {
+    stopSender();
+    joinSender();
+    drainAll();
+    closeConnection();
+  }
+
+  void stopSender() {
     stopped = true;
     if (senderThread != null) {
       senderThread.interrupt();
+    }
+  }
+
+  void joinSender() {
+    if (senderThread != null) {
       try {
         senderThread.join();
       } catch (InterruptedException e) {
         LOG.info("join on sender Thread interrupted");
+        Thread.currentThread().interrupt();
       }
     }
-    drainAll();
+  }
+
+  void closeConnection() {
     LOG.info("Closing the channel");
     handler.prepareClose();
     if (thisChannel != null) {
@@ -344,25 +597,58 @@ public class ScribeTopicPublisher {
     NettyEventCore.getInstance().releaseFactory();
   }
 
+  /**
+   * Called when no ack arrived within the socket timeout.
+   */
+  void ackTimedOut() {
+    int inFlight = unacked.getAndSet(0);
+    if (congestionWindow != null && inFlight > 0) {
+      LOG.info("Ack timed out, shrinking the congestion window");
+      congestionWindow.onAckTimeout(inFlight);
+      // the acks in flight are taken as lost, so that they do not keep the
+      // window full until a reconnect. Late acks do not count below zero.
+      signalDrain();
+    }
+  }
+
   void ack(final ResultCode success) {
+    int inFlight;
+    do {
+      inFlight = unacked.get();
+    } while (inFlight > 0 && !unacked.compareAndSet(inFlight, inFlight - 1));
+    if (congestionWindow != null) {
+      if (success.getValue() == 0) {
+        congestionWindow.onSuccess();
+      } else {
+        congestionWindow.onTryLater(Math.max(0, inFlight - 1));
+      }
+    }
     // first check the result code. If it is success, then increment the
     // success counter and remove the message from ack queue, if configured
     if (success.getValue() == 0) {
+      stats.accumulateOutcomeWithDelta(Outcome.SUCCESS, 0);
       if (enabledRetries) {
-        toBeAcked.poll();
+        QueuedMessage m = toBeAcked.poll();
+        if (m != null) {
+          stats.settle(m.sequence);
+          releaseMemory(m);
+        }
+      } else {
+        settleNextWritten();
       }
-      stats.accumulateOutcomeWithDelta(Outcome.SUCCESS, 0);
     } else {
       // else if it is try later, then remove the message from ack queue
       // and add to send queue
       if (enabledRetries) {
         LOG.info("Could not send the message successfully, resending");
-        Message m = toBeAcked.poll();
+        QueuedMessage m = toBeAcked.poll();
         if (m != null) {
           // If the message gets added to send queue, then increment the retry
           // count. Else the lost count will get incremented if add fails.
           if (addToSend(m)) {
             stats.accumulateOutcomeWithDelta(Outcome.RETRY, 0);
+          } else {
+            releaseMemory(m);
           }
         } else {
           LOG.info("Could not send, as acked message not found");
@@ -370,7 +656,16 @@ public class ScribeTopicPublisher {
       } else {
         LOG.warn("Could not send the message successfully. Got TRY_LATER");
         stats.accumulateOutcomeWithDelta(Outcome.GRACEFUL_FAILURE, 0);
+        settleNextWritten();
       }
     }
+    signalDrain();
+  }
+
+  private void settleNextWritten() {
+    Long sequence = writtenSequences.poll();
+    if (sequence != null) {
+      stats.settle(sequence);
+    }
   }
 }
@@ -0,0 +1,162 @@
+package com.inmobi.messaging;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.testng.annotations.Test;
+
+import random.pkg.NtMultiServer;
+import random.pkg.ScribeAlternateTryLater;
+import random.pkg.ScribeAlwaysSuccess;
+import random.pkg.ScribeAlwaysTryAgain;
+import scribe.thrift.LogEntry;
+import scribe.thrift.ResultCode;
+
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+import com.inmobi.messaging.netty.ScribeMessagePublisher;
+import com.inmobi.messaging.publisher.FlushResult;
+
+public class TestFlush {
+
+  @Test
+  public void testFlush() throws Exception {
+    int port = PortNumberUtil.getFreePortNumber(7941);
+    NtMultiServer server = new NtMultiServer(new ScribeAlwaysSuccess(), port);
+    server.start();
+    ScribeMessagePublisher publisher = null;
+    try {
+      publisher = TestServerStarter.createPublisher(port, 5, 5, true, true,
+          1000, 1000);
+      String topic1 = "flush1";
+      String topic2 = "flush2";
+      for (int i = 0; i < 50; i++) {
+        publisher.publish(topic1, new Message(("msg" + i).getBytes()));
+        publisher.publish(topic2, new Message(("msg" + i).getBytes()));
+      }
+      FlushResult result = publisher.flush(30, TimeUnit.SECONDS);
+      System.out.println("TestFlush.testFlush result:" + result);
+      assertTrue(result.isCompleted());
+      assertEquals(result.getPendingCount(), 0);
+      assertEquals(publisher.getStats(topic1).getSuccessCount(), 50);
+      assertEquals(publisher.getStats(topic2).getSuccessCount(), 50);
+
+      // publisher is still usable after the flush
+      publisher.publish(topic1, new Message("more".getBytes()));
+      result = publisher.flush(30, TimeUnit.SECONDS);
+      assertTrue(result.isCompleted());
+      assertEquals(publisher.getStats(topic1).getSuccessCount(), 51);
+      assertEquals(publisher.getStats(topic1).getInFlight(), 0);
+    } finally {
+      if (publisher != null) {
+        publisher.close();
+      }
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testFlushTimeout() throws Exception {
+    int port = PortNumberUtil.getFreePortNumber(7942);
+    NtMultiServer server = new NtMultiServer(new ScribeAlwaysTryAgain(), port);
+    server.start();
+    ScribeMessagePublisher publisher = null;
+    try {
+      publisher = TestServerStarter.createPublisher(port, 5, 1, true, true,
+          100, 100, 10);
+      String topic = "flushtimeout";
+      publisher.publish(topic, new Message("msg".getBytes()));
+      FlushResult result = publisher.flush(500, TimeUnit.MILLISECONDS);
+      System.out.println("TestFlush.testFlushTimeout result:" + result);
+      assertFalse(result.isCompleted());
+      assertEquals(result.getPendingCount(), 1);
+      assertEquals(result.getSuccessCount(), 0);
+    } finally {
+      if (publisher != null) {
+        publisher.close();
+        PintailTimingAccumulator inspector = publisher.getStats("flushtimeout");
+        assertEquals(inspector.getInFlight(), 0);
+      }
+      server.stop();
+    }
+  }
+
+  /**
+   * The message published before the flush gets TRY_LATER and is resent
+   * after the messages published during the flush are acked.
+   */
+  @Test
+  public void testFlushWaitsForResend() throws Exception {
+    int port = PortNumberUtil.getFreePortNumber(7943);
+    final List<String> acked =
+        Collections.synchronizedList(new ArrayList<String>());
+    NtMultiServer server = new NtMultiServer(new ScribeAlternateTryLater() {
+      @Override
+      public ResultCode Log(List<LogEntry> messages) throws TException {
+        ResultCode result = super.Log(messages);
+        if (result == ResultCode.OK) {
+          for (LogEntry m : messages) {
+            acked.add(m.getMessage());
+          }
+        }
+        return result;
+      }
+    }, port);
+    server.start();
+    ScribeMessagePublisher publisher = null;
+    try {
+      publisher = TestServerStarter.createPublisher(port, 5, 1, true, true,
+          1000, 1000);
+      final ScribeMessagePublisher duringFlush = publisher;
+      final String topic = "flushresend";
+      publisher.publish(topic, new Message("preflush".getBytes()));
+      Thread publishing = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 50; i++) {
+            duringFlush.publish(topic, new Message(("msg" + i).getBytes()));
+          }
+        }
+      };
+      publishing.start();
+      FlushResult result = publisher.flush(30, TimeUnit.SECONDS);
+      System.out.println("TestFlush.testFlushWaitsForResend result:" + result);
+      assertTrue(result.isCompleted());
+      assertEquals(result.getPendingCount(), 0);
+      assertTrue(acked.contains("preflush"));
+      assertTrue(publisher.getStats(topic).getRetryCount() >= 1);
+      publishing.join();
+    } finally {
+      if (publisher != null) {
+        publisher.close();
+      }
+      server.stop();
+    }
+  }
+}
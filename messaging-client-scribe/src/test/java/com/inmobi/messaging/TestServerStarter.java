@@ -22,6 +22,9 @@ package com.inmobi.messaging;
 
 import static org.testng.Assert.assertNotNull;
 
+import java.util.Collections;
+import java.util.Map;
+
 import org.testng.annotations.AfterSuite;
 import org.testng.annotations.BeforeSuite;
 
@@ -69,6 +72,17 @@ public class TestServerStarter {
     return createPublisher(port, timeout, backOff, true, true);
   }
 
+  /**
+   * Creates a publisher with the default test settings, overridden by any
+   * settings in <code>extraConfig</code>.
+   */
+  public static ScribeMessagePublisher createPublisher(final int port,
+      final int timeout, final int backOff,
+      final Map<String, String> extraConfig) throws Exception {
+    return createPublisher(port, timeout, backOff, true, true, 100, 100, -1,
+        false, extraConfig);
+  }
+
   public static ScribeMessagePublisher createPublisher(final int port,
       final int timeout, final int backOff, final boolean enableRetries,
       final boolean resendOnAckLost) throws Exception {
@@ -106,6 +120,17 @@ public class TestServerStarter {
       final boolean resendOnAckLost, final int msgQueueSize,
       final int ackQueueSize, final int numRetries,
       final boolean useBlockingPublisher) throws Exception {
+    return createPublisher(port, timeout, backOff, enableRetries,
+        resendOnAckLost, msgQueueSize, ackQueueSize, numRetries,
+        useBlockingPublisher, Collections.<String, String>emptyMap());
+  }
+
+  public static ScribeMessagePublisher createPublisher(final int port,
+      final int timeout, final int backOff, final boolean enableRetries,
+      final boolean resendOnAckLost, final int msgQueueSize,
+      final int ackQueueSize, final int numRetries,
+      final boolean useBlockingPublisher,
+      final Map<String, String> extraConfig) throws Exception {
     ScribeMessagePublisher pub;
     if (useBlockingPublisher) {
       pub = new ScribeBlockingMessagePublisher();
@@ -128,6 +153,9 @@ public class TestServerStarter {
     config.set(ScribePublisherConfiguration.drainRetriesOnCloseConfig,
         numRetries + "");
     config.set(AbstractMessagePublisher.AUDIT_ENABLED_KEY, "true");
+    for (Map.Entry<String, String> entry : extraConfig.entrySet()) {
+      config.set(entry.getKey(), entry.getValue());
+    }
     pub.init(config);
     return pub;
   }
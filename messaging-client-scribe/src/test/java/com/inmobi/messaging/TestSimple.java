@@ -22,6 +22,8 @@ package com.inmobi.messaging;
 
 import static org.testng.Assert.assertEquals;
 
+import java.nio.ByteBuffer;
+
 import org.testng.annotations.Test;
 
 import random.pkg.NtMultiServer;
@@ -69,6 +71,38 @@ public class TestSimple {
     assertEquals(inspector2.getSuccessCount(), 1);
   }
 
+  @Test()
+  public void sendSlicesAndDirectBuffers() throws Exception {
+    int slicePort = PortNumberUtil.getFreePortNumber(7923);
+    NtMultiServer sliceServer = new NtMultiServer(new ScribeAlwaysSuccess(),
+        slicePort);
+    sliceServer.start();
+    ScribeMessagePublisher slicePublisher = null;
+    try {
+      slicePublisher = TestServerStarter.createPublisher(slicePort, 5);
+      String topic = "slices";
+      byte[] data = "xxmsg1msg2yy".getBytes();
+      slicePublisher.publish(topic, new Message(data, 2, 4));
+      slicePublisher.publish(topic, new Message(data, 6, 4));
+      ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+      direct.put(data);
+      direct.flip();
+      direct.position(2);
+      slicePublisher.publish(topic, new Message(direct));
+      PintailTimingAccumulator inspector = slicePublisher.getStats(topic);
+      // Wait for all operations to complete
+      while (inspector.getInFlight() != 0) {
+        Thread.sleep(100);
+      }
+      assertEquals(inspector.getSuccessCount(), 3);
+      assertEquals(direct.position(), 2);
+    } finally {
+      sliceServer.stop();
+      if (slicePublisher != null)
+        slicePublisher.close();
+    }
+  }
+
   private void runTest() throws Exception {
     publisher = TestServerStarter.createPublisher(port, 5);
     sendMessages();
@@ -0,0 +1,89 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+
+public class TestCongestionWindow {
+
+  @Test
+  public void testMultiplicativeDecrease() {
+    PintailTimingAccumulator stats = new PintailTimingAccumulator();
+    CongestionWindow window = new CongestionWindow(1, 64, stats);
+    assertEquals(window.getWindow(), 64);
+    assertEquals(stats.getCongestionWindow(), 64);
+
+    window.onTryLater(0);
+    assertEquals(window.getWindow(), 32);
+    window.onTryLater(0);
+    assertEquals(window.getWindow(), 16);
+    window.onAckTimeout(0);
+    assertEquals(window.getWindow(), 8);
+    assertEquals(stats.getThrottleCount(), 3);
+    assertEquals(stats.getCongestionWindow(), 8);
+
+    // never goes below the min window
+    for (int i = 0; i < 10; i++) {
+      window.onTryLater(0);
+    }
+    assertEquals(window.getWindow(), 1);
+  }
+
+  @Test
+  public void testOneDecreasePerWindow() {
+    PintailTimingAccumulator stats = new PintailTimingAccumulator();
+    CongestionWindow window = new CongestionWindow(1, 16, stats);
+    // all the 16 messages in flight get TRY_LATER
+    for (int inFlight = 15; inFlight >= 0; inFlight--) {
+      window.onTryLater(inFlight);
+    }
+    assertEquals(window.getWindow(), 8);
+    assertEquals(stats.getThrottleCount(), 1);
+    // the next TRY_LATER is a new congestion event
+    window.onTryLater(0);
+    assertEquals(window.getWindow(), 4);
+    assertEquals(stats.getThrottleCount(), 2);
+  }
+
+  @Test
+  public void testAdditiveIncrease() {
+    PintailTimingAccumulator stats = new PintailTimingAccumulator();
+    CongestionWindow window = new CongestionWindow(2, 10, stats);
+    for (int i = 0; i < 5; i++) {
+      window.onTryLater(0);
+    }
+    assertEquals(window.getWindow(), 2);
+    // grows by about one per window of successful acks
+    window.onSuccess();
+    window.onSuccess();
+    window.onSuccess();
+    assertEquals(window.getWindow(), 3);
+    for (int i = 0; i < 1000; i++) {
+      window.onSuccess();
+    }
+    assertEquals(window.getWindow(), 10);
+    assertEquals(stats.getCongestionWindow(), 10);
+  }
+}
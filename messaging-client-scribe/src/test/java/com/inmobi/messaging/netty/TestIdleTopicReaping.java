@@ -0,0 +1,129 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import random.pkg.NtMultiServer;
+import random.pkg.ScribeAlwaysSuccess;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.PortNumberUtil;
+import com.inmobi.messaging.TestServerStarter;
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+
+public class TestIdleTopicReaping {
+
+  private ScribeMessagePublisher createPublisher(int port, long idleTtl)
+      throws Exception {
+    Map<String, String> extraConfig = new HashMap<String, String>();
+    extraConfig.put(ScribePublisherConfiguration.topicIdleTtlMillisConfig,
+        idleTtl + "");
+    return TestServerStarter.createPublisher(port, 5, 5, extraConfig);
+  }
+
+  private void waitForAcks(PintailTimingAccumulator inspector)
+      throws InterruptedException {
+    while (inspector.getInFlight() != 0) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testIdleTopicReapedAndRecreated() throws Exception {
+    NtMultiServer tserver = null;
+    ScribeMessagePublisher mb = null;
+    try {
+      int port = PortNumberUtil.getFreePortNumber(7931);
+      tserver = new NtMultiServer(new ScribeAlwaysSuccess(), port);
+      tserver.start();
+      mb = createPublisher(port, 500);
+
+      String topic = "idle";
+      mb.publish(topic, new Message("msg1".getBytes()));
+      PintailTimingAccumulator inspector = mb.getStats(topic);
+      waitForAcks(inspector);
+      ScribeTopicPublisher first = mb.getTopicPublisher(topic);
+      assertNotNull(first);
+
+      // wait for the reaper to close the idle topic publisher
+      long deadline = System.currentTimeMillis() + 10000;
+      while (mb.getTopicPublisher(topic) != null
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(100);
+      }
+      assertNull(mb.getTopicPublisher(topic), "idle topic not reaped");
+      assert (first.isRetired());
+
+      mb.publish(topic, new Message("msg2".getBytes()));
+      waitForAcks(inspector);
+      assertNotNull(mb.getTopicPublisher(topic));
+      assertNotSame(mb.getTopicPublisher(topic), first);
+      // stats are carried over to the re-created topic publisher
+      assertEquals(mb.getStats(topic), inspector);
+      assertEquals(inspector.getInvocationCount(), 2);
+      assertEquals(inspector.getSuccessCount(), 2);
+    } finally {
+      if (mb != null) {
+        mb.close();
+      }
+      tserver.stop();
+    }
+  }
+
+  @Test
+  public void testActiveTopicNotReaped() throws Exception {
+    NtMultiServer tserver = null;
+    ScribeMessagePublisher mb = null;
+    try {
+      int port = PortNumberUtil.getFreePortNumber(7932);
+      tserver = new NtMultiServer(new ScribeAlwaysSuccess(), port);
+      tserver.start();
+      mb = createPublisher(port, 1000);
+
+      String topic = "active";
+      ScribeTopicPublisher first = null;
+      for (int i = 0; i < 20; i++) {
+        mb.publish(topic, new Message(("msg" + i).getBytes()));
+        if (first == null) {
+          first = mb.getTopicPublisher(topic);
+        }
+        Thread.sleep(100);
+      }
+      waitForAcks(mb.getStats(topic));
+      assertEquals(mb.getTopicPublisher(topic), first);
+      assertEquals(mb.getStats(topic).getSuccessCount(), 20);
+    } finally {
+      if (mb != null) {
+        mb.close();
+      }
+      tserver.stop();
+    }
+  }
+}
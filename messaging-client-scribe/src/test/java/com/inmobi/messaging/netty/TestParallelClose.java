@@ -0,0 +1,104 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import random.pkg.NtMultiServer;
+import random.pkg.ScribeAlwaysSuccess;
+import random.pkg.ScribeAlwaysTryAgain;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.PortNumberUtil;
+import com.inmobi.messaging.TestServerStarter;
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+
+public class TestParallelClose {
+
+  private ScribeMessagePublisher createPublisher(int port,
+      long closeTimeoutMillis) throws Exception {
+    Map<String, String> extraConfig = new HashMap<String, String>();
+    extraConfig.put(ScribePublisherConfiguration.closeTimeoutMillisConfig,
+        closeTimeoutMillis + "");
+    return TestServerStarter.createPublisher(port, 5, 1, extraConfig);
+  }
+
+  @Test
+  public void testCloseManyTopics() throws Exception {
+    NtMultiServer tserver = null;
+    try {
+      int port = PortNumberUtil.getFreePortNumber(7951);
+      tserver = new NtMultiServer(new ScribeAlwaysSuccess(), port);
+      tserver.start();
+      ScribeMessagePublisher mb = createPublisher(port, 30000);
+      int numTopics = 20;
+      for (int i = 0; i < numTopics; i++) {
+        for (int j = 0; j < 10; j++) {
+          mb.publish("topic" + i, new Message(("msg" + j).getBytes()));
+        }
+      }
+      mb.close();
+      for (int i = 0; i < numTopics; i++) {
+        PintailTimingAccumulator inspector = mb.getStats("topic" + i);
+        assertEquals(inspector.getInFlight(), 0);
+        assertEquals(inspector.getSuccessCount(), 10);
+        assertEquals(inspector.getLostCount(), 0);
+      }
+    } finally {
+      tserver.stop();
+    }
+  }
+
+  @Test
+  public void testCloseDeadline() throws Exception {
+    NtMultiServer tserver = null;
+    try {
+      int port = PortNumberUtil.getFreePortNumber(7952);
+      tserver = new NtMultiServer(new ScribeAlwaysTryAgain(), port);
+      tserver.start();
+      // messages are never acked successfully, close has to give up at the
+      // deadline even though number of drains on close is unlimited
+      ScribeMessagePublisher mb = createPublisher(port, 1000);
+      int numTopics = 5;
+      for (int i = 0; i < numTopics; i++) {
+        mb.publish("retry" + i, new Message("msg".getBytes()));
+      }
+      long start = System.currentTimeMillis();
+      mb.close();
+      long closeTime = System.currentTimeMillis() - start;
+      assertTrue(closeTime < 10000, "close took " + closeTime + " millis");
+      for (int i = 0; i < numTopics; i++) {
+        PintailTimingAccumulator inspector = mb.getStats("retry" + i);
+        assertEquals(inspector.getInFlight(), 0);
+        assertEquals(inspector.getSuccessCount(), 0);
+        assertEquals(inspector.getLostCount(), 1);
+      }
+    } finally {
+      tserver.stop();
+    }
+  }
+}